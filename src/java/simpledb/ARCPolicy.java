@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * ARC, adaptive replacement cache (Megiddo and Modha).
+ * <p>
+ * Resident pages are split between T1, pages referenced once since they
+ * entered the pool, and T2, pages referenced at least twice. Both are LRU
+ * lists. Evicted pages leave their id behind in the ghost lists B1 and B2.
+ * The target size p of T1 adapts: a miss that hits a B1 ghost means T1 was
+ * too small, and a miss that hits a B2 ghost means T2 was too small. A scan
+ * only ever fills T1, so the frequently used pages in T2 survive it.
+ * <p>
+ * The BufferPool asks for a victim before it reports the missing page, so
+ * evict() cannot use the "x is in B2" tie-break of the original REPLACE
+ * routine. It follows the other rules of the paper unchanged.
+ */
+public class ARCPolicy implements ReplacementPolicy {
+
+    private final int _capacity;
+    private int _p; // target size of T1
+    private final LinkedHashMap<PageId, Boolean> _t1;
+    private final LinkedHashMap<PageId, Boolean> _t2;
+    private final LinkedHashMap<PageId, Boolean> _b1;
+    private final LinkedHashMap<PageId, Boolean> _b2;
+
+    /**
+     * @param capacity the number of pages the owning pool can hold
+     */
+    public ARCPolicy(int capacity) {
+        this._capacity = Math.max(1, capacity);
+        this._p = 0;
+        this._t1 = new LinkedHashMap<>(16, 0.75f, true);
+        this._t2 = new LinkedHashMap<>(16, 0.75f, true);
+        this._b1 = new LinkedHashMap<>();
+        this._b2 = new LinkedHashMap<>();
+    }
+
+    public void recordInsert(PageId pid) {
+        if (_t1.containsKey(pid) || _t2.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        // the adaptation step uses the ghost list sizes from before pid is removed
+        if (_b1.remove(pid) != null) {
+            _p = Math.min(_capacity, _p + Math.max(1, _b2.size() / (_b1.size() + 1)));
+            _t2.put(pid, Boolean.TRUE);
+        } else if (_b2.remove(pid) != null) {
+            _p = Math.max(0, _p - Math.max(1, _b1.size() / (_b2.size() + 1)));
+            _t2.put(pid, Boolean.TRUE);
+        } else {
+            _t1.put(pid, Boolean.TRUE);
+        }
+        trimGhosts();
+    }
+
+    public void recordAccess(PageId pid) {
+        if (_t1.remove(pid) != null)
+            _t2.put(pid, Boolean.TRUE);
+        else
+            _t2.get(pid); // moves pid to the MRU end of T2
+    }
+
+    public void recordRemove(PageId pid) {
+        if (_t1.remove(pid) == null)
+            _t2.remove(pid);
+    }
+
+    public PageId evict() {
+        PageId victim;
+        if (!_t1.isEmpty() && (_t1.size() > _p || _t2.isEmpty())) {
+            victim = removeEldest(_t1);
+            _b1.put(victim, Boolean.TRUE);
+        } else {
+            victim = removeEldest(_t2);
+            if (victim == null)
+                return null;
+            _b2.put(victim, Boolean.TRUE);
+        }
+        trimGhosts();
+        return victim;
+    }
+
+    /**
+     * The list evict() takes from, least recently used first, then the
+     * other one.
+     */
+    public Iterator<PageId> candidates() {
+        if (!_t1.isEmpty() && (_t1.size() > _p || _t2.isEmpty()))
+            return Stream.concat(_t1.keySet().stream(), _t2.keySet().stream()).iterator();
+        return Stream.concat(_t2.keySet().stream(), _t1.keySet().stream()).iterator();
+    }
+
+    public void evict(PageId pid) {
+        if (_t1.remove(pid) != null)
+            _b1.put(pid, Boolean.TRUE);
+        else if (_t2.remove(pid) != null)
+            _b2.put(pid, Boolean.TRUE);
+        else
+            return;
+        trimGhosts();
+    }
+
+    public int size() {
+        return _t1.size() + _t2.size();
+    }
+
+    /**
+     * Keeps the directory bounded: |T1| + |B1| <= c and the four lists
+     * together <= 2c.
+     */
+    private void trimGhosts() {
+        while (!_b1.isEmpty() && _t1.size() + _b1.size() > _capacity)
+            removeEldest(_b1);
+        while (_t1.size() + _t2.size() + _b1.size() + _b2.size() > 2 * _capacity) {
+            if (!_b2.isEmpty())
+                removeEldest(_b2);
+            else if (!_b1.isEmpty())
+                removeEldest(_b1);
+            else
+                break;
+        }
+    }
+
+    private static PageId removeEldest(LinkedHashMap<PageId, Boolean> list) {
+        Iterator<PageId> it = list.keySet().iterator();
+        if (!it.hasNext())
+            return null;
+        PageId pid = it.next();
+        it.remove();
+        return pid;
+    }
+}
@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.Predicate.Op;
+
+/**
+ * BTreeBulkLoader builds the pages of an empty BTreeFile bottom up from
+ * tuples in key order, in one pass. Each level keeps the pages it has built
+ * but whose parent is not built yet; a page is written once its parent is
+ * built, when its parent and right sibling are known, and is never read
+ * back. The pages of each level are filled to a fill factor, and the last
+ * two pages of a level share what is left so that neither is less than
+ * half full; internal pages count bytes, as their keys may differ in size.
+ * Memory use is about one and a half pages' worth of children
+ * per level, whatever the number of tuples.
+ *
+ * @see BTreeFile#bulkLoad(TransactionId, DbIterator, boolean, double)
+ */
+class BTreeBulkLoader {
+
+	/**
+	 * A built page waiting for its parent, with the smallest and largest keys
+	 * below it, and the key between it and the page before it on its level.
+	 */
+	private static class Node {
+		final BTreePage page;
+		final Field firstKey;
+		final Field lastKey;
+		Field separator;
+
+		Node(BTreePage page, Field firstKey, Field lastKey) {
+			this.page = page;
+			this.firstKey = firstKey;
+			this.lastKey = lastKey;
+		}
+	}
+
+	private final BTreeFile bf;
+	private final TupleDesc td;
+	private final int keyField;
+	private final Type[] types;
+
+	private final int maxTuples;
+	private final int leafFill;
+	private final int minTuples;
+	// an internal page, to size entries by
+	private final BTreeInternalPage internal;
+	// bytes of entries of an internal page
+	private final int internalFill;
+	private final int minEntryBytes;
+
+	// tuples not yet on a leaf
+	private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+	// levels.get(k) holds the pages of level k waiting for a parent, leaves at level 0
+	private final ArrayList<ArrayList<Node>> levels = new ArrayList<ArrayList<Node>>();
+	// bytes of the entries between the pages of each level waiting for a parent
+	private final ArrayList<Integer> levelBytes = new ArrayList<Integer>();
+	private int nextPage = 1;
+	private BTreePageId lastLeaf;
+	private Field lastKey;
+	private int count;
+
+	/**
+	 * @param bf - the empty file to load, which must be in the Catalog
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 */
+	BTreeBulkLoader(BTreeFile bf, double fillFactor) throws IOException {
+		this.bf = bf;
+		this.td = bf.getTupleDesc();
+		this.keyField = bf.keyField();
+		this.types = new Type[td.numFields()];
+		for (int i = 0; i < types.length; i++)
+			types[i] = td.getFieldType(i);
+
+		byte[] empty = BTreePage.createEmptyPageData();
+		this.maxTuples = new BTreeLeafPage(new BTreePageId(bf.getId(), 0, BTreePageId.LEAF), empty, keyField).getMaxTuples();
+		this.leafFill = Math.max(1, (int) (fillFactor * maxTuples));
+		this.minTuples = maxTuples / 2;
+		this.internal = new BTreeInternalPage(new BTreePageId(bf.getId(), 0, BTreePageId.INTERNAL), empty, keyField);
+		int entryBytes = internal.getMaxEntrySize();
+		if (bf.hasVariableLengthKeys() && td.getFieldType(keyField) == Type.STRING_TYPE)
+			this.internalFill = Math.max(entryBytes, (int) (fillFactor * internal.getCapacity()));
+		else
+			this.internalFill = Math.max(1, (int) (fillFactor * internal.getMaxEntries())) * entryBytes;
+		this.minEntryBytes = internal.getMinOccupancy();
+	}
+
+	/**
+	 * Adds the next tuple.
+	 *
+	 * @throws DbException if its key is less than the key of the tuple before
+	 */
+	void add(Tuple t) throws DbException, IOException {
+		if (!td.equals(t.getTupleDesc()))
+			throw new DbException(String.format("Tuple(%s) does not match the TupleDesc of BTreeFile(%d)", t, bf.getId()));
+		Field key = t.getField(keyField);
+		if (lastKey != null && key.compare(Op.LESS_THAN, lastKey))
+			throw new DbException(String.format("key %s follows key %s, the tuples are not sorted", key, lastKey));
+		lastKey = key;
+		tuples.add(t);
+		count++;
+		// keep enough back for a last leaf at least half full
+		if (tuples.size() >= leafFill + minTuples)
+			buildLeaf(leafFill);
+	}
+
+	/**
+	 * Puts the first n tuples waiting on a new leaf.
+	 */
+	private void buildLeaf(int n) throws DbException, IOException {
+		List<Tuple> head = tuples.subList(0, n);
+		BTreePageId pid = new BTreePageId(bf.getId(), nextPage++, BTreePageId.LEAF);
+		byte[] data = BTreeFileEncoder.convertToLeafPage(new ArrayList<Tuple>(head), BufferPool.getPageSize(),
+				types.length, types, keyField);
+		BTreeLeafPage page = new BTreeLeafPage(pid, data, keyField);
+		page.setLeftSiblingId(lastLeaf);
+		lastLeaf = pid;
+		Field firstKey = n > 0 ? head.get(0).getField(keyField) : null;
+		Field lastKey = n > 0 ? head.get(n - 1).getField(keyField) : null;
+		head.clear();
+		addNode(0, new Node(page, firstKey, lastKey));
+	}
+
+	private void addNode(int level, Node node) throws DbException, IOException {
+		if (level == levels.size()) {
+			levels.add(new ArrayList<Node>());
+			levelBytes.add(0);
+		}
+		ArrayList<Node> nodes = levels.get(level);
+		if (!nodes.isEmpty()) {
+			node.separator = BTreeInternalPage.separator(nodes.get(nodes.size() - 1).lastKey, node.firstKey);
+			levelBytes.set(level, levelBytes.get(level) + internal.getEntrySize(node.separator));
+		}
+		nodes.add(node);
+		// keep enough back for a last page at least half full, past the entry that goes up
+		if (levelBytes.get(level) >= internalFill + internal.getMaxEntrySize() + minEntryBytes) {
+			int n = 1;
+			int bytes = 0;
+			while (bytes + internal.getEntrySize(nodes.get(n).separator) <= internalFill) {
+				bytes += internal.getEntrySize(nodes.get(n).separator);
+				n++;
+			}
+			buildInternal(level, n);
+		}
+	}
+
+	/**
+	 * Builds the parent of the first n pages waiting at a level, and writes
+	 * those pages.
+	 */
+	private void buildInternal(int level, int n) throws DbException, IOException {
+		ArrayList<Node> nodes = levels.get(level);
+		List<Node> children = nodes.subList(0, n);
+		BTreePageId pid = new BTreePageId(bf.getId(), nextPage++, BTreePageId.INTERNAL);
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		int bytes = 0;
+		for (int i = 1; i < n; i++) {
+			Field separator = children.get(i).separator;
+			entries.add(new BTreeEntry(separator, children.get(i - 1).page.getId(), children.get(i).page.getId()));
+			bytes += internal.getEntrySize(separator);
+		}
+		// the entry between the last child and the page after it goes up
+		if (n < nodes.size())
+			bytes += internal.getEntrySize(nodes.get(n).separator);
+		levelBytes.set(level, levelBytes.get(level) - bytes);
+		byte[] data = BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(),
+				td.getFieldType(keyField), bf.hasVariableLengthKeys(), children.get(0).page.getId().pgcateg());
+		BTreeInternalPage page = new BTreeInternalPage(pid, data, keyField);
+
+		for (int i = 0; i < n; i++) {
+			BTreePage child = children.get(i).page;
+			child.setParentId(pid);
+			if (level == 0) {
+				// the next leaf, in this parent or the next one
+				BTreePageId right = i + 1 < nodes.size() ? nodes.get(i + 1).page.getId() : null;
+				((BTreeLeafPage) child).setRightSiblingId(right);
+			}
+			bf.writePage(child);
+		}
+		Field firstKey = children.get(0).firstKey;
+		Field lastKey = children.get(n - 1).lastKey;
+		children.clear();
+		addNode(level + 1, new Node(page, firstKey, lastKey));
+	}
+
+	/**
+	 * Builds the pages for what is left at each level, writes them and then
+	 * the root pointer.
+	 *
+	 * @return the number of tuples loaded
+	 */
+	int finish() throws DbException, IOException {
+		int left = tuples.size();
+		if (left > maxTuples) {
+			buildLeaf(left / 2);
+			left -= left / 2;
+		}
+		// an empty file still gets its root leaf
+		if (left > 0 || levels.isEmpty())
+			buildLeaf(left);
+
+		int level = 0;
+		while (level < levels.size() - 1 || levels.get(level).size() > 1) {
+			ArrayList<Node> nodes = levels.get(level);
+			int bytes = levelBytes.get(level);
+			if (bytes > internal.getCapacity()) {
+				// split at the middle byte, the first page taking the entries
+				// before the one that goes up
+				int n = 1;
+				int before = 0;
+				while (2 * (before + internal.getEntrySize(nodes.get(n).separator))
+						<= bytes - internal.getEntrySize(nodes.get(n + 1).separator)) {
+					before += internal.getEntrySize(nodes.get(n).separator);
+					n++;
+				}
+				buildInternal(level, n);
+			}
+			buildInternal(level, nodes.size());
+			level++;
+		}
+
+		BTreePage root = levels.get(level).get(0).page;
+		root.setParentId(BTreeRootPtrPage.getId(bf.getId()));
+		if (level == 0)
+			((BTreeLeafPage) root).setRightSiblingId(null);
+		bf.writePage(root);
+		BTreePageId rootId = root.getId();
+		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(bf.getId()),
+				BTreeFileEncoder.convertToRootPtrPage(rootId.pageNumber(), rootId.pgcateg(), 0,
+						bf.hasVariableLengthKeys())));
+		return count;
+	}
+}
@@ -21,10 +21,16 @@ import simpledb.Predicate.Op;
  */
 public class BTreeFile implements DbFile {
 
+	/** Bytes of tuples bulkLoad sorts in memory at a time, by default. */
+	public static final long DEFAULT_SORT_MEMORY = 16L << 20;
+
 	private final File f;
+	// one channel for all page reads and writes of this file
+	private final PositionalFile io;
 	private final TupleDesc td;
 	private final int tableid;
 	private int keyField;
+	private final boolean variableLengthKeys;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -36,9 +42,27 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
 		this.f = f;
+		this.io = new PositionalFile(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.variableLengthKeys = readVariableLengthKeys();
+	}
+
+	/**
+	 * @return the format flag of the root pointer page on disk, or true for
+	 *         a new file
+	 */
+	private boolean readVariableLengthKeys() {
+		if (f.length() < BTreeRootPtrPage.getPageSize())
+			return true;
+		byte[] data = new byte[BTreeRootPtrPage.getPageSize()];
+		try {
+			io.read(0, data, data.length);
+			return new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), data).hasVariableLengthKeys();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -61,6 +85,28 @@ public class BTreeFile implements DbFile {
 		return tableid;
 	}
 
+	/**
+	 * @return the bytes read from the file since this BTreeFile was created
+	 */
+	public long getBytesRead() {
+		return io.getBytesRead();
+	}
+
+	/**
+	 * @return the number of times the file has been opened since this
+	 *         BTreeFile was created
+	 */
+	public int getNumFileOpens() {
+		return io.getNumOpens();
+	}
+
+	/**
+	 * Closes the channel of the file.
+	 */
+	public void close() throws IOException {
+		io.close();
+	}
+
 	/**
 	 * Returns the TupleDesc of the table stored in this DbFile.
 	 * 
@@ -70,6 +116,28 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Construct a page of this file from its on-disk bytes, choosing the page
+	 * class by the category of its id.
+	 * 
+	 * @param pid - the id of the page
+	 * @param data - the bytes of the page, as read from disk
+	 * @return the page constructed from data
+	 */
+	public Page decodePage(PageId pid, byte[] data) throws IOException {
+		BTreePageId id = (BTreePageId) pid;
+		switch (id.pgcateg()) {
+			case BTreePageId.ROOT_PTR:
+				return new BTreeRootPtrPage(id, data);
+			case BTreePageId.INTERNAL:
+				return new BTreeInternalPage(id, data, keyField);
+			case BTreePageId.LEAF:
+				return new BTreeLeafPage(id, data, keyField);
+			default: // BTreePageId.HEADER
+				return new BTreeHeaderPage(id, data);
+		}
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -79,66 +147,34 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
-
+		int pageSize = id.pgcateg() == BTreePageId.ROOT_PTR ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+		byte pageBuf[] = new byte[pageSize];
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
-			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
+			int retval = io.read(pageOffset(id), pageBuf, pageSize);
+			if (retval == 0) {
+				throw new IllegalArgumentException("Read past end of table");
 			}
-			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+			if (retval < pageSize) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageSize + " bytes from BTreeFile");
 			}
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+			return decodePage(id, pageBuf);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
+	/**
+	 * @return the offset of a page in the file: the root pointer page comes
+	 * first, followed by the numbered pages starting at page 1
+	 */
+	private static long pageOffset(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR)
+			return 0;
+		return BTreeRootPtrPage.getPageSize() + (id.pageNumber() - 1) * (long) BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -148,13 +184,7 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if (id.pgcateg() != BTreePageId.ROOT_PTR) {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber() - 1) * BufferPool.getPageSize());
-		}
-		rf.write(data);
-		rf.close();
+		io.write(pageOffset(id), page.getPageData());
 	}
 	
 	/**
@@ -172,6 +202,21 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Returns true if the internal pages of this file keep a string key in
+	 * as many bytes as it has characters, as files created now do, and false
+	 * for a file written before, whose internal pages give every key
+	 * Type.STRING_LEN characters. The root pointer page records which, and
+	 * it is read when the file is opened. Either way the key of an entry
+	 * between two leaves is the shortest prefix of the first key on its
+	 * right that is greater than the last key on its left.
+	 * @see BTreeInternalPage#separator(Field, Field)
+	 * @see BTreeRootPtrPage#hasVariableLengthKeys()
+	 */
+	public boolean hasVariableLengthKeys() {
+		return variableLengthKeys;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -199,28 +244,10 @@ public class BTreeFile implements DbFile {
 		}
 		else if (pid.pgcateg() == BTreePageId.INTERNAL) {
 			BTreeInternalPage page = (BTreeInternalPage) this.getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-			Iterator<BTreeEntry> it = page.iterator();
-
-			if (f == null) {
-				BTreeEntry left = it.next();
-				return findLeafPage(tid, dirtypages, left.getLeftChild(), perm, f);
-			}
-
-			BTreeEntry next = null;
-			while (it.hasNext()) {
-				next = it.next();
-				Field cur_key = next.getKey();
-				if (f.compare(Op.LESS_THAN_OR_EQ, cur_key)) { // smaller or equal to, find left child
-					Debug.log("Searching left child (%s <= %s)", f.toString(), cur_key.toString());
-					return findLeafPage(tid, dirtypages, next.getLeftChild(), perm, f);
-				} else { // larger, find right child
-					Debug.log("Searching right child (%s > %s)", f.toString(), cur_key.toString());
-					// return findLeafPage(tid, dirtypages, next.getRightChild(), perm, f);
-					continue;
-				}
-			}
-			if (next != null)
-				return findLeafPage(tid, dirtypages, next.getRightChild(), perm, f);
+			// left child of the first key >= f, or right child of the last key
+			BTreePageId child = page.findChild(f);
+			if (child != null)
+				return findLeafPage(tid, dirtypages, child, perm, f);
 		}
 
         return null;
@@ -327,16 +354,19 @@ public class BTreeFile implements DbFile {
 
 		// Get parent node
 		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
+		parent = getCurrentParent(tid, dirtypages, page, parent);
 
-		// Insert copied up middle key to parent node.
+		// Insert the shortest key between the halves to parent node.
 		Field mid_key = mid_tup.getField(this.keyField);
-		BTreeEntry to_insert = new BTreeEntry(mid_key, page.getId(), rightLeafPage.getId());
+		Field separator = BTreeInternalPage.separator(page.reverseIterator().next().getField(keyField),
+				mid_key);
+		BTreeEntry to_insert = new BTreeEntry(separator, page.getId(), rightLeafPage.getId());
 		parent.insertEntry(to_insert);
 
 		updateParentPointers(tid, dirtypages, parent);
 
-		// use the input field and middle key to decide which page to return
-		if (field.compare(Op.LESS_THAN_OR_EQ, mid_key))
+		// use the input field and the key between the halves to decide which page to return
+		if (field.compare(Op.LESS_THAN_OR_EQ, separator))
 			return page;
 		else
 			return rightLeafPage;
@@ -373,48 +403,31 @@ public class BTreeFile implements DbFile {
 		// create empty sibling page
 		BTreeInternalPage rightInternalPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
 
-		// find middle key
-		// TODO: abstract mid_key finding logic as a static helper method in this file
-		BTreeEntry mid_entry = null;
+		// find the middle entry, the first one with at least as many bytes of
+		// entries before it as after it
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
 		Iterator<BTreeEntry> it = page.iterator();
-		Iterator<BTreeEntry> it_rev = page.reverseIterator();
-
-		BTreeEntry entry = null;
-		BTreeEntry rev_entry = null;
-		int count = 0;
-		while (it.hasNext() && it_rev.hasNext()) {
-			entry = it.next();
-			BTreeEntry prev_rev_entry = rev_entry;
-			rev_entry = it_rev.next();
-
-			// even value tuples
-			if (prev_rev_entry != null && entry != null &&
-					(entry.getRecordId().equals(prev_rev_entry.getRecordId()))) {
-				Debug.log("Found middle entry: %s - %s in even value list",
-						entry.getRecordId().toString(), prev_rev_entry.getRecordId().toString());
-				mid_entry = entry;
-				break;
-			}
-			// odd value tuples
-			if ((entry.getRecordId().equals(rev_entry.getRecordId())) && entry != null) {
-				Debug.log("Found middle entry: %s - %s in odd value list",
-						entry.toString(), rev_entry.toString());
-				mid_entry = entry;
-				break;
-			}
-			//count += 1;
+		while (it.hasNext())
+			entries.add(it.next());
+		int total = page.getUsedBytes();
+		int before = 0;
+		int mid = 0;
+		while (2 * before < total - page.getEntrySize(entries.get(mid).getKey())) {
+			before += page.getEntrySize(entries.get(mid).getKey());
+			mid++;
 		}
+		BTreeEntry mid_entry = entries.get(mid);
 
 		// copy latter half entries to new right internal page
 		page.deleteKeyAndRightChild(mid_entry);
-		while (it.hasNext()) {
-			BTreeEntry next = it.next();
+		for (BTreeEntry next : entries.subList(mid + 1, entries.size())) {
 			page.deleteKeyAndRightChild(next); // safe delete
 			rightInternalPage.insertEntry(next);
 		}
 
 		// Get parent node
 		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
+		parent = getCurrentParent(tid, dirtypages, page, parent);
 
 		// Update moved up entry linkages
 		mid_entry.setLeftChild(page.getId());
@@ -422,6 +435,8 @@ public class BTreeFile implements DbFile {
 
 		// Insert copied up middle key to parent node.
 		parent.insertEntry(mid_entry);
+		updateParentPointer(tid, dirtypages, parent.getId(), page.getId());
+		updateParentPointer(tid, dirtypages, parent.getId(), rightInternalPage.getId());
 		updateParentPointers(tid, dirtypages, page);
 		updateParentPointers(tid, dirtypages, rightInternalPage);
 
@@ -443,7 +458,7 @@ public class BTreeFile implements DbFile {
 	 * @param parentId - the id of the parent. May be an internal page or the RootPtr page
 	 * @param field - the key of the entry which will be inserted. Needed in case the parent must be split
 	 * to accommodate the new entry
-	 * @return the parent page, guaranteed to have at least one empty slot
+	 * @return the parent page, guaranteed to have room for an entry
 	 * @see #splitInternalPage(TransactionId, HashMap, BTreeInternalPage, Field)
 	 * 
 	 * @throws DbException
@@ -477,7 +492,7 @@ public class BTreeFile implements DbFile {
 		}
 
 		// split the parent if needed
-		if(parent.getNumEmptySlots() == 0) {
+		if(!parent.hasRoomForEntry()) {
 			parent = splitInternalPage(tid, dirtypages, parent, field);
 		}
 
@@ -485,6 +500,27 @@ public class BTreeFile implements DbFile {
 
 	}
 
+	/**
+	 * Returns the parent of a page that getParentWithEmptySlots returned a
+	 * parent for. If that split the parent, the page may be under either
+	 * half; the key cannot always tell which when it equals the key pushed
+	 * up, as duplicate keys can, but the split has pointed the page at its
+	 * half.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the page to find the parent of
+	 * @param parent - the page getParentWithEmptySlots returned
+	 * @return the internal page that is, or is about to become, the parent of page
+	 */
+	private BTreeInternalPage getCurrentParent(TransactionId tid, HashMap<PageId, Page> dirtypages,
+			BTreePage page, BTreeInternalPage parent) throws DbException, TransactionAbortedException {
+		// a new root becomes the parent when the entry goes in
+		if (page.getParentId().pgcateg() == BTreePageId.ROOT_PTR)
+			return parent;
+		return (BTreeInternalPage) getPage(tid, dirtypages, page.getParentId(), Permissions.READ_WRITE);
+	}
+
 	/**
 	 * Helper function to update the parent pointer of a node.
 	 * 
@@ -645,6 +681,14 @@ public class BTreeFile implements DbFile {
 					leftEntry = e;
 				}
 			}
+
+			// redistributing may replace the parent's key with a longer one,
+			// so make room first; the page may then have a new parent
+			if(!parent.hasRoomToReplaceKey()) {
+				splitInternalPage(tid, dirtypages, parent, (leftEntry != null ? leftEntry : rightEntry).getKey());
+				handleMinOccupancyPage(tid, dirtypages, page);
+				return;
+			}
 		}
 		
 		if(page.getId().pgcateg() == BTreePageId.LEAF) {
@@ -691,6 +735,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				handleMinOccupancyParent(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {	
@@ -702,6 +747,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				handleMinOccupancyParent(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -739,8 +785,10 @@ public class BTreeFile implements DbFile {
 		}
 
 		Tuple parentUpdateTup = isRightSibling ? sibItr.next() : page.iterator().next();
+		Tuple leftLastTup = isRightSibling ? page.reverseIterator().next() : sibling.reverseIterator().next();
 
-		entry.setKey(parentUpdateTup.getField(keyField));
+		entry.setKey(BTreeInternalPage.separator(leftLastTup.getField(keyField),
+				parentUpdateTup.getField(keyField)));
 		parent.updateEntry(entry);
 	}
 
@@ -771,30 +819,52 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(leftSibling, leftEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				handleMinOccupancyParent(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(rightSibling, rightEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				handleMinOccupancyParent(tid, dirtypages, parent);
 			}
 		}
 	}
+
+	/**
+	 * Redistributing tuples or entries between two pages replaces the key
+	 * between them in their parent, which can leave the parent below minimum
+	 * occupancy when keys differ in size. Handle that as a delete would.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param parent - the parent of the two pages
+	 * @see #handleMinOccupancyPage(TransactionId, HashMap, BTreePage)
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private void handleMinOccupancyParent(TransactionId tid, HashMap<PageId, Page> dirtypages,
+			BTreeInternalPage parent) throws DbException, IOException, TransactionAbortedException {
+		if(parent.getParentId().pgcateg() != BTreePageId.ROOT_PTR && parent.isLessThanHalfFull()) {
+			handleMinOccupancyPage(tid, dirtypages, parent);
+		}
+	}
 	
 	/**
 	 * Steal entries from the left sibling and copy them to the given page so that both pages are at least
@@ -818,13 +888,16 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, IOException, TransactionAbortedException {
 
-		int moveAmt = (leftSibling.getNumEntries() - page.getNumEntries())/2;
 		Iterator<BTreeEntry> sibItr = leftSibling.reverseIterator();
 		BTreeEntry pageLeftMost = page.iterator().next();
 
-		for(int i=0; i<moveAmt; i++){
-			// Get sibling entry
+		while(sibItr.hasNext()){
+			// Get sibling entry, and stop once moving it would give the sibling
+			// fewer bytes of entries than the page
 			BTreeEntry newParentEntry = sibItr.next();
+			if(leftSibling.getUsedBytes() - page.getUsedBytes() < page.getEntrySize(parentEntry.getKey())
+					+ page.getEntrySize(newParentEntry.getKey()))
+				break;
 			leftSibling.deleteKeyAndRightChild(newParentEntry);
 
 			BTreePageId newParentEntryOldRightChild = newParentEntry.getRightChild();	// TODO: rename better name
@@ -880,13 +953,16 @@ public class BTreeFile implements DbFile {
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
 
-		int moveAmt = (rightSibling.getNumEntries() - page.getNumEntries())/2;
 		Iterator<BTreeEntry> sibItr = rightSibling.iterator();
 		BTreeEntry pageRightMost = page.reverseIterator().next();
 
-		for(int i=0; i<moveAmt; i++){
-			// Get sibling entry
+		while(sibItr.hasNext()){
+			// Get sibling entry, and stop once moving it would give the sibling
+			// fewer bytes of entries than the page
 			BTreeEntry newParentEntry = sibItr.next();
+			if(rightSibling.getUsedBytes() - page.getUsedBytes() < page.getEntrySize(parentEntry.getKey())
+					+ page.getEntrySize(newParentEntry.getKey()))
+				break;
 			rightSibling.deleteKeyAndLeftChild(newParentEntry);
 
 			BTreePageId newParentEntryOldLeftChild = newParentEntry.getLeftChild();	// TODO: rename better name
@@ -1068,7 +1144,6 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
 		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
@@ -1084,7 +1159,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().pageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isLessThanHalfFull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -1136,13 +1211,8 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				io.append(BTreeRootPtrPage.createEmptyPageData());
+				io.append(BTreeLeafPage.createEmptyPageData());
 			}
 		}
 
@@ -1198,11 +1268,7 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				io.append(BTreeInternalPage.createEmptyPageData());
 				emptyPageNo = numPages();
 			}
 		}
@@ -1233,10 +1299,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		io.write(pageOffset(newPageId), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1331,6 +1394,65 @@ public class BTreeFile implements DbFile {
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
+	/**
+	 * Builds the tree of an empty file from the tuples of an open iterator,
+	 * bottom up and in one pass: each page is written to disk once, in about
+	 * the order of its page number, and never read back. Leaves and internal
+	 * pages are filled to fillFactor, except that the last two pages of each
+	 * level share what is left; every page ends up at least half full.
+	 * <p>
+	 * Unsorted input is first sorted on the key field with an ExternalSort
+	 * that holds about sortMemory bytes of tuples in memory and spills sorted
+	 * runs to temporary files beyond that. Sorted input streams straight into
+	 * the pages.
+	 * <p>
+	 * Like HeapFile.bulkLoad, the pages go to disk at once without passing
+	 * through the buffer pool, so aborting tid does not undo the load.
+	 * 
+	 * @param tid - the transaction performing the load
+	 * @param tuples - the tuples to load
+	 * @param sorted - whether tuples are already in key order
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 * @param sortMemory - the bytes of tuples to sort in memory at a time
+	 * @return the number of tuples loaded
+	 * @throws DbException if the file is not empty, a tuple does not match its
+	 * TupleDesc, or tuples said to be sorted are not
+	 */
+	public synchronized int bulkLoad(TransactionId tid, DbIterator tuples, boolean sorted, double fillFactor,
+			long sortMemory)
+					throws DbException, IOException, TransactionAbortedException {
+		if (fillFactor < 0.5 || fillFactor > 1)
+			throw new IllegalArgumentException("fill factor " + fillFactor + " is not between 0.5 and 1");
+		if (f.length() > 0)
+			throw new DbException(String.format("BTreeFile(%d) is not empty, cannot bulk load it", tableid));
+		BTreeBulkLoader loader = new BTreeBulkLoader(this, fillFactor);
+		if (sorted) {
+			while (tuples.hasNext())
+				loader.add(tuples.next());
+		}
+		else {
+			ExternalSort sort = new ExternalSort(tuples, new BTreeFileEncoder.TupleComparator(keyField), sortMemory);
+			try {
+				while (sort.hasNext())
+					loader.add(sort.next());
+			}
+			finally {
+				sort.close();
+			}
+		}
+		return loader.finish();
+	}
+
+	/**
+	 * Bulk loads an empty file, sorting unsorted input in DEFAULT_SORT_MEMORY
+	 * bytes at a time.
+	 * @see #bulkLoad(TransactionId, DbIterator, boolean, double, long)
+	 */
+	public int bulkLoad(TransactionId tid, DbIterator tuples, boolean sorted, double fillFactor)
+			throws DbException, IOException, TransactionAbortedException {
+		return bulkLoad(tid, tuples, sorted, fillFactor, DEFAULT_SORT_MEMORY);
+	}
+
 	/**
 	 * get the specified tuples from the file based on its IndexPredicate value on
 	 * behalf of the specified transaction. This method will acquire a read lock on
@@ -1345,6 +1467,23 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * Get the tuples whose key equals any of a sorted list of keys, as a
+	 * series of EQUALS index predicates would, in key order. Unlike opening
+	 * an indexIterator per key, the search descends from the root once: each
+	 * key starts from the leaf of the key before if it can be there, and
+	 * otherwise goes back up only as far as the internal page whose range
+	 * holds it. Equal keys in the list are probed once.
+	 * 
+	 * @param tid - the transaction id
+	 * @param keys - the keys to search for, in ascending order
+	 * @return an iterator for the tuples matching any of the keys; it throws
+	 * a DbException if it finds the keys out of order
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, List<Field> keys) {
+		return new BTreeMultiSearchIterator(this, tid, keys);
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
 	 * will acquire a read lock on the affected pages of the file, and may block until 
@@ -1439,6 +1578,157 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	}
 }
 
+/**
+ * Helper class that implements the DbFileIterator for batched equality
+ * searches on a B+ Tree File
+ * @see BTreeFile#indexIterator(TransactionId, List)
+ */
+class BTreeMultiSearchIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+
+	TransactionId tid;
+	BTreeFile f;
+	List<Field> keys;
+	int nextKey;
+	Field key;
+
+	// the internal pages from the root down to the parent of leaf, with
+	// the largest key each one's subtree may hold, null for no limit
+	ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+	ArrayList<Field> upperBounds = new ArrayList<Field>();
+	// the leaf the last key was searched for from, and its largest key
+	BTreeLeafPage leaf = null;
+	Field leafUpperBound = null;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param keys - the keys to search for, in ascending order
+	 */
+	public BTreeMultiSearchIterator(BTreeFile f, TransactionId tid, List<Field> keys) {
+		this.f = f;
+		this.tid = tid;
+		this.keys = keys;
+	}
+
+	/**
+	 * Open this iterator by reading the root page
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+		BTreePageId root = rootPtr.getRootId();
+		Page page = Database.getBufferPool().getPage(tid, root, Permissions.READ_ONLY);
+		if (root.pgcateg() == BTreePageId.LEAF) {
+			leaf = (BTreeLeafPage) page;
+			leafUpperBound = null;
+		}
+		else {
+			path.add((BTreeInternalPage) page);
+			upperBounds.add(null);
+		}
+		nextKey = 0;
+		key = null;
+	}
+
+	/**
+	 * Find the left-most leaf page possibly containing key, going back up
+	 * the path only as far as needed.
+	 */
+	private BTreeLeafPage findLeafPage(Field key) throws DbException, TransactionAbortedException {
+		if (leaf != null && (leafUpperBound == null || key.compare(Op.LESS_THAN_OR_EQ, leafUpperBound)))
+			return leaf;
+		int top = path.size() - 1;
+		while (top > 0 && upperBounds.get(top) != null && key.compare(Op.GREATER_THAN, upperBounds.get(top))) {
+			path.remove(top);
+			upperBounds.remove(top);
+			top--;
+		}
+		BTreeInternalPage page = path.get(top);
+		while (true) {
+			// the left child of the first key >= key is bounded by that key
+			int slot = page.lowerBound(key);
+			Field upperBound = slot <= page.getMaxEntries() ? page.getKey(slot) : upperBounds.get(upperBounds.size() - 1);
+			BTreePageId child = page.findChild(key);
+			Page childPage = Database.getBufferPool().getPage(tid, child, Permissions.READ_ONLY);
+			if (child.pgcateg() == BTreePageId.LEAF) {
+				leaf = (BTreeLeafPage) childPage;
+				leafUpperBound = upperBound;
+				return leaf;
+			}
+			page = (BTreeInternalPage) childPage;
+			path.add(page);
+			upperBounds.add(upperBound);
+		}
+	}
+
+	/**
+	 * Read the next tuple with the current key, following right sibling
+	 * pointers past the end of a page, or else search for the next key.
+	 * 
+	 * @return the next tuple matching one of the keys, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException,
+	NoSuchElementException {
+		while (true) {
+			while (it != null) {
+				if (it.hasNext()) {
+					Tuple t = it.next();
+					if (t.getField(f.keyField()).equals(key))
+						return t;
+					// the tuples with the key are behind us
+					it = null;
+				}
+				else if (curp.getRightSiblingId() == null) {
+					it = null;
+				}
+				else {
+					curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+							curp.getRightSiblingId(), Permissions.READ_ONLY);
+					it = curp.iterator();
+				}
+			}
+
+			if (nextKey == keys.size())
+				return null;
+			Field next = keys.get(nextKey++);
+			if (key != null) {
+				if (next.compare(Op.LESS_THAN, key))
+					throw new DbException(String.format("key %s follows key %s, the keys are not sorted", next, key));
+				if (next.equals(key))
+					continue;
+			}
+			key = next;
+			curp = findLeafPage(key);
+			it = curp.iterator(curp.lowerBound(key));
+		}
+	}
+
+	/**
+	 * rewind this iterator back to the first key
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+		curp = null;
+		leaf = null;
+		path.clear();
+		upperBounds.clear();
+	}
+}
+
 /**
  * Helper class that implements the DbFileIterator for search tuples on a
  * B+ Tree File
@@ -1472,14 +1762,18 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
-		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			it = curp.iterator(curp.lowerBound(ipred.getField()));
+		}
+		else if(ipred.getOp() == Op.GREATER_THAN) {
+			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			it = curp.iterator(curp.upperBound(ipred.getField()));
 		}
 		else {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			it = curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
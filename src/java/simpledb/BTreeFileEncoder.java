@@ -263,8 +263,10 @@ public class BTreeFileEncoder {
 				bf.writePage(leafPage);
 				leftSiblingId = leafPid;
 
-				// update the parent by "copying up" the next key
-				BTreeEntry copyUpEntry = new BTreeEntry(page2.get(0).getField(keyField), leafPid, null);
+				// update the parent by "copying up" the shortest key between the pages
+				BTreeEntry copyUpEntry = new BTreeEntry(BTreeInternalPage.separator(
+						page1.get(page1.size() - 1).getField(keyField), page2.get(0).getField(keyField)),
+						leafPid, null);
 				updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
 						keyType, tableid, keyField);
 
@@ -312,8 +314,10 @@ public class BTreeFileEncoder {
 			lastPage.setLeftSiblingId(secondToLastPid);
 			bf.writePage(lastPage);
 
-			// update the parent by "copying up" the next key
-			BTreeEntry copyUpEntry = new BTreeEntry(lastPg.get(0).getField(keyField), secondToLastPid, lastPid);
+			// update the parent by "copying up" the shortest key between the pages
+			BTreeEntry copyUpEntry = new BTreeEntry(BTreeInternalPage.separator(
+					secondToLastPg.get(secondToLastPg.size() - 1).getField(keyField), lastPg.get(0).getField(keyField)),
+					secondToLastPid, lastPid);
 			updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
 					keyType, tableid, keyField);
 		}
@@ -324,7 +328,7 @@ public class BTreeFileEncoder {
 		// update the root pointer to point to the last page of the file
 		int root = bf.numPages();
 		int rootCategory = (root > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF);
-		byte[] rootPtrBytes = convertToRootPtrPage(root, rootCategory, 0);
+		byte[] rootPtrBytes = convertToRootPtrPage(root, rootCategory, 0, bf.hasVariableLengthKeys());
 		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), rootPtrBytes));
 
 		// set all the parent and sibling pointers
@@ -415,7 +419,8 @@ public class BTreeFileEncoder {
 			int size = entries.get(i).size();
 			if(size <= nentries) {
 				// write out a page of entries
-				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType, childPageCategory);
+				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType,
+						bf.hasVariableLengthKeys(), childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
 			}
@@ -427,11 +432,13 @@ public class BTreeFileEncoder {
 				lastPg.addAll(entries.get(i).subList(size/2 + 1, size));
 
 				// write out the last two pages of entries
-				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyType, childPageCategory);
+				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyType,
+						bf.hasVariableLengthKeys(), childPageCategory);
 				BTreePageId secondToLastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(secondToLastPid, secondToLastPageBytes, keyField));
 
-				byte[] lastPageBytes = convertToInternalPage(lastPg, npagebytes, keyType, childPageCategory);
+				byte[] lastPageBytes = convertToInternalPage(lastPg, npagebytes, keyType,
+						bf.hasVariableLengthKeys(), childPageCategory);
 				BTreePageId lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(lastPid, lastPageBytes, keyField));
 
@@ -475,7 +482,8 @@ public class BTreeFileEncoder {
 				// write out a page of entries
 				ArrayList<BTreeEntry> pageEntries = new ArrayList<BTreeEntry>();
 				pageEntries.addAll(entries.get(level).subList(0, nentries));
-				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType, childPageCategory);
+				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType,
+						bf.hasVariableLengthKeys(), childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
 
@@ -619,11 +627,33 @@ public class BTreeFileEncoder {
 	 * @param keyType - the type of the key field
 	 * @param childPageCategory - the category of the child pages (either internal or leaf)
 	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 *         of a page of a newly created BTreeFile
 	 * @throws IOException
 	 */
 	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		return convertToInternalPage(entries, npagebytes, keyType, true, childPageCategory);
+	}
+
+	/**
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param keyType - the type of the key field
+	 * @param variableLengthKeys - whether the BTreeFile keeps string keys in
+	 *            as many bytes as they have characters
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException
+	 * @see BTreeFile#hasVariableLengthKeys()
+	 */
+	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+			Type keyType, boolean variableLengthKeys, int childPageCategory)
+					throws IOException {
+		if (variableLengthKeys && keyType == Type.STRING_TYPE)
+			return convertToVariableLengthInternalPage(entries, npagebytes, childPageCategory);
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -698,7 +728,43 @@ public class BTreeFileEncoder {
 	}
 
 	/**
-	 * Create a byte array in the format of a BTreeRootPtrPage
+	 * Convert a set of entries with string keys to a byte array in the format
+	 * of a BTreeInternalPage that keeps each key in as many bytes as it has
+	 * characters. The entries must fit on the page.
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException
+	 */
+	private static byte[] convertToVariableLengthInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+			int childPageCategory) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+
+		Collections.sort(entries, new EntryComparator());
+		dos.writeShort(entries.size());
+		dos.writeInt(entries.get(0).getLeftChild().pageNumber());
+		for(BTreeEntry e : entries) {
+			String key = ((StringField) e.getKey()).getValue();
+			dos.writeByte(key.length());
+			dos.writeBytes(key);
+			dos.writeInt(e.getRightChild().pageNumber());
+		}
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - dos.size()]);
+
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Create a byte array in the format of a BTreeRootPtrPage of a newly
+	 * created BTreeFile
 	 * 
 	 * @param root - the page number of the root page
 	 * @param rootCategory - the category of the root page (leaf or internal)
@@ -708,12 +774,30 @@ public class BTreeFileEncoder {
 	 */
 	public static byte[] convertToRootPtrPage(int root, int rootCategory, int header)
 			throws IOException {
+		return convertToRootPtrPage(root, rootCategory, header, true);
+	}
+
+	/**
+	 * Create a byte array in the format of a BTreeRootPtrPage
+	 * 
+	 * @param root - the page number of the root page
+	 * @param rootCategory - the category of the root page (leaf or internal)
+	 * @param header - the page number of the first header page
+	 * @param variableLengthKeys - whether the BTreeFile keeps string keys in
+	 *            as many bytes as they have characters
+	 * @return a byte array which can be passed to the BTreeRootPtrPage constructor
+	 * @throws IOException
+	 * @see BTreeRootPtrPage#hasVariableLengthKeys()
+	 */
+	public static byte[] convertToRootPtrPage(int root, int rootCategory, int header,
+			boolean variableLengthKeys) throws IOException {
 
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(BTreeRootPtrPage.getPageSize());
 		DataOutputStream dos = new DataOutputStream(baos);
 
 		dos.writeInt(root); // root pointer
-		dos.writeByte((byte) rootCategory); // root page category
+		// root page category, and the format flag
+		dos.writeByte((byte) (rootCategory | (variableLengthKeys ? BTreeRootPtrPage.VARIABLE_LENGTH_KEYS : 0)));
 
 		dos.writeInt(header); // header pointer
 
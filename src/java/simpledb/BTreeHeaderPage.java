@@ -24,7 +24,7 @@ public class BTreeHeaderPage implements Page {
 	private int prevPage; // previous header page or 0
 
 	byte[] oldData;
-	private final Byte oldDataLock=new Byte((byte)0);
+	private final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeHeaderPage from a set of bytes of data read from disk.
@@ -113,6 +113,16 @@ public class BTreeHeaderPage implements Page {
 		}
 	}
 
+	public long getMemoryFootprint() {
+		long size = MemoryFootprint.object(5 * MemoryFootprint.REFERENCE + 2 * 4 + 1)
+				+ MemoryFootprint.byteArray(header.length);
+		synchronized(oldDataLock) {
+			if (oldData != null)
+				size += MemoryFootprint.byteArray(oldData.length);
+		}
+		return size;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -18,9 +18,15 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+	// string keys take their length rather than Type.STRING_LEN, see BTreeFile#hasVariableLengthKeys()
+	private final boolean variableLengthKeys;
 	
 	private int childCategory; // either leaf or internal
 
+	// bytes of a page with variable-length keys before its entries: the parent
+	// pointer, the child page category, the number of entries and the first child pointer
+	private static final int VARIABLE_LENGTH_HEADER_SIZE = 2 * INDEX_SIZE + 1 + 2;
+
 	/**
 	 * TODO: Add documentation...
 	 * @param lowerBound
@@ -44,7 +50,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			assert (!isLessThanHalfFull());
 		}
 	}
 	
@@ -64,6 +70,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * A page keyed on a string in a file with variable-length keys has no
+	 * header and no empty slots on disk: after the parent pointer and child
+	 * page category come the number of entries as a short and the first child
+	 * pointer, then for each entry the length of its key as a byte, the
+	 * characters of the key and its right child pointer.
+	 * @see BTreeFile#hasVariableLengthKeys()
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -74,6 +86,7 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		this.variableLengthKeys = td.getFieldType(keyField) == Type.STRING_TYPE && lookupVariableLengthKeys();
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -90,10 +103,17 @@ public class BTreeInternalPage extends BTreePage {
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
+		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (variableLengthKeys) {
+			readVariableLengthEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
-		keys = new Field[numSlots];
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -105,7 +125,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -122,6 +141,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
+		if (variableLengthKeys)
+			return (BufferPool.getPageSize() - VARIABLE_LENGTH_HEADER_SIZE) / getMinEntrySize();
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
@@ -131,6 +152,119 @@ public class BTreeInternalPage extends BTreePage {
 		return entriesPerPage;
 	}
 
+	/**
+	 * Suffix truncation: returns the key for an entry between a page whose
+	 * last key is left and a page whose first key is right, the shortest
+	 * prefix of right that is greater than left. A key that is not a string,
+	 * a null left key, or a right key with no shorter such prefix gives
+	 * right itself.
+	 */
+	public static Field separator(Field left, Field right) {
+		if (left == null || right.getType() != Type.STRING_TYPE)
+			return right;
+		String l = ((StringField) left).getValue();
+		String r = ((StringField) right).getValue();
+		int common = 0;
+		while (common < l.length() && common < r.length() && l.charAt(common) == r.charAt(common))
+			common++;
+		// the character after the common prefix sets right above left
+		if (common + 1 < r.length())
+			return new StringField(r.substring(0, common + 1), Type.STRING_LEN);
+		return right;
+	}
+
+	/**
+	 * Returns the number of bytes an entry with the given key takes on this
+	 * page, its key and right child pointer.
+	 */
+	public int getEntrySize(Field key) {
+		if (variableLengthKeys)
+			return 1 + ((StringField) key).getValue().length() + INDEX_SIZE;
+		return td.getFieldType(keyField).getLen() + INDEX_SIZE;
+	}
+
+	private int getMinEntrySize() {
+		return variableLengthKeys ? 1 + INDEX_SIZE : getEntrySize(null);
+	}
+
+	/**
+	 * Returns the number of bytes an entry with the longest key takes on this page.
+	 */
+	int getMaxEntrySize() {
+		return variableLengthKeys ? 1 + Type.STRING_LEN + INDEX_SIZE : getEntrySize(null);
+	}
+
+	/**
+	 * Returns the number of bytes this page has for entries.
+	 */
+	public int getCapacity() {
+		if (variableLengthKeys)
+			return BufferPool.getPageSize() - VARIABLE_LENGTH_HEADER_SIZE;
+		return getMaxEntries() * getEntrySize(null);
+	}
+
+	/**
+	 * Returns the number of bytes the entries on this page take.
+	 */
+	public int getUsedBytes() {
+		int used = 0;
+		for (int i=1; i<numSlots; i++)
+			if (isSlotUsed(i))
+				used += getEntrySize(keys[i]);
+		return used;
+	}
+
+	/**
+	 * Returns the fewest bytes of entries a page other than the root keeps:
+	 * the entries of half a page when keys are all one size. With keys of
+	 * different sizes a split or a redistribution cannot always cut a page
+	 * at its middle byte, so it is less by two of the largest entries.
+	 */
+	public int getMinOccupancy() {
+		if (variableLengthKeys)
+			return getCapacity() / 2 - 2 * getMaxEntrySize();
+		return getMaxEntries() / 2 * getEntrySize(null);
+	}
+
+	/**
+	 * Returns true if this page is below minimum occupancy.
+	 * @see #getMinOccupancy()
+	 */
+	public boolean isLessThanHalfFull() {
+		return getUsedBytes() < getMinOccupancy();
+	}
+
+	/**
+	 * Returns true if an entry with any key fits on this page.
+	 */
+	public boolean hasRoomForEntry() {
+		return getUsedBytes() + getMaxEntrySize() <= getCapacity();
+	}
+
+	/**
+	 * Returns true if any key on this page can be replaced with any other,
+	 * as redistributing the entries or tuples of its children does. Always
+	 * true when keys are all one size.
+	 */
+	public boolean hasRoomToReplaceKey() {
+		return getUsedBytes() + getMaxEntrySize() - getMinEntrySize() <= getCapacity();
+	}
+
+	/**
+	 * Returns true if this page, below minimum occupancy, should be merged
+	 * with a sibling rather than take entries from it: when keys are all one
+	 * size, if the sibling is at minimum occupancy, and otherwise if the
+	 * entries of both pages and the key between them, pulled down from the
+	 * parent, fit on one page.
+	 * @param sibling - the left or right sibling of this page
+	 * @param parentKey - the key of the parent entry between the two pages
+	 */
+	public boolean canMergeWith(BTreeInternalPage sibling, Field parentKey) {
+		if (variableLengthKeys)
+			return getUsedBytes() + sibling.getUsedBytes() + getEntrySize(parentKey) <= getCapacity();
+		return sibling.getUsedBytes() <= getMinOccupancy();
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
@@ -168,6 +302,22 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	public long getMemoryFootprint() {
+		long size = MemoryFootprint.object(7 * MemoryFootprint.REFERENCE + 4 * 4 + 2)
+				+ MemoryFootprint.byteArray(header.length)
+				+ MemoryFootprint.referenceArray(keys.length)
+				+ MemoryFootprint.intArray(children.length);
+		for (Field f : keys) {
+			if (f != null)
+				size += MemoryFootprint.field(f);
+		}
+		synchronized(oldDataLock) {
+			if (oldData != null)
+				size += MemoryFootprint.byteArray(oldData.length);
+		}
+		return size;
+	}
+
 	/**
 	 * Read keys from the source file.
 	 */
@@ -197,6 +347,47 @@ public class BTreeInternalPage extends BTreePage {
 		return f;
 	}
 
+	/**
+	 * Reads the entries of a page with variable-length keys into the first
+	 * slots.
+	 */
+	private void readVariableLengthEntries(DataInputStream dis) throws IOException {
+		Arrays.fill(children, -1);
+		int numEntries = dis.readUnsignedShort();
+		if (numEntries >= numSlots)
+			throw new IOException("too many entries on page " + pid.pageNumber());
+		int firstChild = dis.readInt();
+		if (firstChild != 0) {
+			children[0] = firstChild;
+			markSlotUsed(0, true);
+		}
+		for (int i=1; i<=numEntries; i++) {
+			byte bs[] = new byte[dis.readUnsignedByte()];
+			dis.readFully(bs);
+			keys[i] = new StringField(new String(bs), Type.STRING_LEN);
+			children[i] = dis.readInt();
+			markSlotUsed(i, true);
+		}
+	}
+
+	/**
+	 * Writes the entries of a page with variable-length keys, in slot order
+	 * and without the empty slots.
+	 */
+	private void writeVariableLengthEntries(DataOutputStream dos) throws IOException {
+		dos.writeShort(getNumEntries());
+		dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+		for (int i=1; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			String s = ((StringField) keys[i]).getValue();
+			dos.writeByte(s.length());
+			dos.writeBytes(s);
+			dos.writeInt(children[i]);
+		}
+		dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+	}
+
 	/**
 	 * Read child pointers from the source file.
 	 */
@@ -259,6 +450,16 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		if (variableLengthKeys) {
+			try {
+				writeVariableLengthEntries(dos);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the header of the page
 		for (int i=0; i<header.length; i++) {
 			try {
@@ -405,8 +606,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * record id.
 	 * @param e - the entry with updated key and/or child pointers
 	 * @throws DbException if this entry is not on this page, entry slot is
-	 *         already empty, or updating this key would put the entry out of 
-	 *         order on the page
+	 *         already empty, updating this key would put the entry out of 
+	 *         order on the page, or the new key does not fit
 	 */
 	public void updateEntry(BTreeEntry e) throws DbException {
 		RecordId rid = e.getRecordId();
@@ -416,6 +617,8 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("tried to update null entry.");
+		if (getUsedBytes() - getEntrySize(keys[rid.tupleno()]) + getEntrySize(e.getKey()) > getCapacity())
+			throw new DbException("no room on the page for the updated key " + e.getKey());
 		
 		for(int i = rid.tupleno() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -443,7 +646,7 @@ public class BTreeInternalPage extends BTreePage {
 	/**
 	 * Adds the specified entry to the page; the entry's recordId should be updated to 
 	 * reflect that it is now stored on this page.
-	 * @throws DbException if the page is full (no empty slots) or key field type,
+	 * @throws DbException if the page is full (no room for the entry) or key field type,
 	 *         table id, or child page category is a mismatch, or the entry is invalid
 	 * @param e The entry to add.
 	 */
@@ -463,6 +666,9 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if (getUsedBytes() + getEntrySize(e.getKey()) > getCapacity())
+			throw new DbException("called insertEntry on page with no room for the entry.");
+
 		// if this is the first entry, add it and return
 		if(getNumEmptySlots() == getMaxEntries()) {
 			children[0] = e.getLeftChild().pageNumber();
@@ -624,6 +830,59 @@ public class BTreeInternalPage extends BTreePage {
 		return new BTreeInternalPageReverseIterator(this);
 	}
 
+	/**
+	 * Binary search for the first entry whose key is greater than or equal
+	 * to key. The keys of the used slots are sorted in slot order, so only
+	 * O(log n) keys are compared; an empty slot the search lands on costs a
+	 * step to the next used one.
+	 * @return the slot of that entry, or getMaxEntries() + 1 if there is none
+	 */
+	public int lowerBound(Field key) {
+		// the answer is the first used slot at or after lo, which is before hi
+		// unless every key from lo on is smaller
+		int lo = 1;
+		int hi = numSlots;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int slot = mid;
+			while (slot < hi && !isSlotUsed(slot))
+				slot++;
+			if (slot == hi)
+				hi = mid;
+			else if (keys[slot].compare(Op.LESS_THAN, key))
+				lo = slot + 1;
+			else
+				hi = slot;
+		}
+		while (lo < numSlots && !isSlotUsed(lo))
+			lo++;
+		return lo;
+	}
+
+	/**
+	 * Finds the child to descend into when searching for key, without
+	 * building a BTreeEntry per slot: the left child of the first entry whose
+	 * key is greater than or equal to key, or the right child of the last
+	 * entry if there is no such entry. For a null key it is the left-most
+	 * child.
+	 * @return the id of that child, or null if the page has no entries
+	 */
+	public BTreePageId findChild(Field key) {
+		if (!isSlotUsed(0))
+			return null;
+		int slot;
+		if (key == null) {
+			slot = 0;
+		} else {
+			// the left child of the entry in a slot is the right child of
+			// the used slot before it, and slot 0 is always used
+			slot = lowerBound(key) - 1;
+			while (!isSlotUsed(slot))
+				slot--;
+		}
+		return new BTreePageId(pid.getTableId(), children[slot], childCategory);
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith key out of this page
 	 * @param i - the index of the key
@@ -153,6 +153,21 @@ public class BTreeLeafPage extends BTreePage {
 		}
 	}
 
+	public long getMemoryFootprint() {
+		long size = MemoryFootprint.object(6 * MemoryFootprint.REFERENCE + 5 * 4 + 1)
+				+ MemoryFootprint.byteArray(header.length)
+				+ MemoryFootprint.referenceArray(tuples.length);
+		for (Tuple t : tuples) {
+			if (t != null)
+				size += MemoryFootprint.tuple(t);
+		}
+		synchronized(oldDataLock) {
+			if (oldData != null)
+				size += MemoryFootprint.byteArray(oldData.length);
+		}
+		return size;
+	}
+
 	/**
 	 * Read tuples from the source file.
 	 */
@@ -323,16 +338,9 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		int lessOrEqKey = upperBound(t.getField(keyField)) - 1;
+		while (lessOrEqKey >= 0 && !isSlotUsed(lessOrEqKey))
+			lessOrEqKey--;
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -483,6 +491,60 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @return an iterator over the tuples in slot from and after it, e.g. from
+	 * the slot returned by lowerBound
+	 */
+	public Iterator<Tuple> iterator(int from) {
+		return new BTreeLeafPageIterator(this, from);
+	}
+
+	/**
+	 * Binary search for the first tuple whose key is greater than or equal
+	 * to key. The keys of the used slots are sorted in slot order, so only
+	 * O(log n) keys are compared; an empty slot the search lands on costs a
+	 * step to the next used one.
+	 * @return the slot of that tuple, or getMaxTuples() if there is none
+	 */
+	public int lowerBound(Field key) {
+		return search(key, Predicate.Op.LESS_THAN);
+	}
+
+	/**
+	 * Binary search for the first tuple whose key is greater than key.
+	 * @see #lowerBound(Field)
+	 * @return the slot of that tuple, or getMaxTuples() if there is none
+	 */
+	public int upperBound(Field key) {
+		return search(key, Predicate.Op.LESS_THAN_OR_EQ);
+	}
+
+	/**
+	 * @return the first used slot whose key does not compare with op to key
+	 * (the keys before it all do), or numSlots if every key does
+	 */
+	private int search(Field key, Predicate.Op op) {
+		// the answer is the first used slot at or after lo, which is before hi
+		// unless every key from lo on compares
+		int lo = 0;
+		int hi = numSlots;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int slot = mid;
+			while (slot < hi && !isSlotUsed(slot))
+				slot++;
+			if (slot == hi)
+				hi = mid;
+			else if (tuples[slot].getField(keyField).compare(op, key))
+				lo = slot + 1;
+			else
+				hi = slot;
+		}
+		while (lo < numSlots && !isSlotUsed(lo))
+			lo++;
+		return lo;
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -529,6 +591,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int from) {
+		this.p = p;
+		this.curTuple = from;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
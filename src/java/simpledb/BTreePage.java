@@ -25,7 +25,7 @@ public abstract class BTreePage implements Page {
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
-	protected final Byte oldDataLock=new Byte((byte)0);
+	protected final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -111,6 +111,16 @@ public abstract class BTreePage implements Page {
 		}
 	}
 
+	/**
+	 * @return whether the BTreeFile this page belongs to has variable-length
+	 *         keys, or true for a table in the Catalog that is not a BTreeFile
+	 * @see BTreeFile#hasVariableLengthKeys()
+	 */
+	protected boolean lookupVariableLengthKeys() {
+		DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+		return !(f instanceof BTreeFile) || ((BTreeFile) f).hasVariableLengthKeys();
+	}
+
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
@@ -11,6 +11,8 @@ import java.io.*;
 public class BTreeRootPtrPage implements Page {
 	// size of this page
 	public final static int PAGE_SIZE = 9;
+	// flag in the root category byte of a file with variable-length keys
+	public final static int VARIABLE_LENGTH_KEYS = 0x40;
 
 	private boolean dirty = false;
 	private TransactionId dirtier = null;
@@ -21,6 +23,7 @@ public class BTreeRootPtrPage implements Page {
 	private int root; 
 	private int rootCategory;
 	private int header;
+	private boolean variableLengthKeys;
 
 	private byte[] oldData;
 
@@ -31,7 +34,8 @@ public class BTreeRootPtrPage implements Page {
 	 * The format of an BTreeRootPtrPage is an integer for the page number
 	 * of the root node, followed by a byte to encode the category of the root page
 	 * (either leaf or internal), followed by an integer for the page number
-	 * of the first header page
+	 * of the first header page. The category byte also carries the
+	 * VARIABLE_LENGTH_KEYS flag, see {@link BTreeFile#hasVariableLengthKeys()}.
 	 */
 	public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
@@ -39,7 +43,9 @@ public class BTreeRootPtrPage implements Page {
 
 		// read in the root pointer
 		root = dis.readInt();
-		rootCategory = (int) dis.readByte();
+		int category = (int) dis.readByte();
+		rootCategory = category & ~VARIABLE_LENGTH_KEYS;
+		variableLengthKeys = (category & VARIABLE_LENGTH_KEYS) != 0;
 
 		// read in the header pointer
 		header = dis.readInt();
@@ -51,6 +57,11 @@ public class BTreeRootPtrPage implements Page {
 		oldData = getPageData().clone();
 	}
 
+	public long getMemoryFootprint() {
+		return MemoryFootprint.object(4 * MemoryFootprint.REFERENCE + 3 * 4 + 2)
+				+ (oldData == null ? 0 : MemoryFootprint.byteArray(oldData.length));
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -91,7 +102,7 @@ public class BTreeRootPtrPage implements Page {
 
 		// write out the category of the root page (leaf or internal)
 		try{
-			dos.writeByte((byte) rootCategory);
+			dos.writeByte((byte) (rootCategory | (variableLengthKeys ? VARIABLE_LENGTH_KEYS : 0)));
 		}catch(IOException e){
 			e.printStackTrace();
 		}
@@ -117,13 +128,15 @@ public class BTreeRootPtrPage implements Page {
 	 * BTreeRootPtrPage.
 	 * Used to add new, empty pages to the file. Passing the results of
 	 * this method to the BTreeRootPtrPage constructor will create a BTreeRootPtrPage with
-	 * no valid entries in it.
+	 * no valid entries in it, for a file with variable-length keys.
 	 *
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
 		int len = PAGE_SIZE;
-		return new byte[len]; //all 0
+		byte[] data = new byte[len]; //all 0
+		data[4] = (byte) VARIABLE_LENGTH_KEYS;
+		return data;
 	}
 
 	public void markDirty(boolean dirty, TransactionId tid){
@@ -183,6 +196,15 @@ public class BTreeRootPtrPage implements Page {
 		}
 	}
 
+	/**
+	 * @return whether the internal pages of this B+ tree keep string keys at
+	 *         their length
+	 * @see BTreeFile#hasVariableLengthKeys()
+	 */
+	public boolean hasVariableLengthKeys() {
+		return variableLengthKeys;
+	}
+
 	/**
 	 * Get the id of the first header page, or null if none exists
 	 * @return the id of the first header page
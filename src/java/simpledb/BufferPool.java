@@ -5,7 +5,15 @@ package simpledb;
 import java.io.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -16,7 +24,12 @@ import java.util.concurrent.ConcurrentHashMap;
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
  *
- * @Threadsafe, all fields are final
+ * Optionally, clean pages that are evicted are parked as raw bytes in an
+ * off-heap PageArena and decoded again on their next request, so the pool
+ * can cache far more pages than it keeps as objects on the Java heap.
+ *
+ * @Threadsafe, all fields are final. The page table is split into
+ * partitions by page, each guarded by its own monitor.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -28,10 +41,102 @@ public class BufferPool {
      other classes. BufferPool should use the numPages argument to the
      constructor instead. */
     public static final int DEFAULT_PAGES = 50;
-    private int _numPages;
+    private final int _numPages;
+
+    /** A pool is only split into partitions of at least this many pages. */
+    private static final int MIN_PAGES_PER_PARTITION = 64;
+
+    // cache w/t limited memory (DEFAULT_PAGES), striped by table and page number.
+    private final Partition[] _partitions;
+    // cached pages plus frames reserved for pages about to be cached, in all
+    // partitions together; reserveFrame keeps it at or below _numPages
+    private final AtomicInteger _numFrames = new AtomicInteger();
+
+    /** Default number of pages a sequential scan reads ahead of itself. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+    private static final int PREFETCH_THREADS = 2;
+
+    private volatile int _readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+    // reads issued by prefetchPage; threads are started on demand and die when idle
+    private final ThreadPoolExecutor _prefetcher;
+    // prefetched pages that no getPage call has asked for yet
+    private final AtomicInteger _unusedPrefetches = new AtomicInteger();
+    // prefetching stops while this many prefetched pages are unused
+    private final int _prefetchBudget;
 
-    private HashMap<PageId, Page> _pagePool; // cache w/t limited memory (DEFAULT_PAGES).
-    private LinkedList<PageId> _pageRecencyList; // doubly linked list that keep tracks of page recency.
+    /** Default dirty page watermarks, as fractions of the pool size. */
+    public static final double DEFAULT_LOW_WATERMARK = 0.25;
+    public static final double DEFAULT_HIGH_WATERMARK = 0.5;
+    /** Pages written per trickle step between the two watermarks, and the pause after each. */
+    private static final int TRICKLE_PAGES = 4;
+    private static final long TRICKLE_PAUSE_MILLIS = 10;
+
+    // STEAL: dirty pages of running transactions may be written before they commit
+    private volatile boolean _steal = true;
+    private volatile int _lowWatermark;
+    private volatile int _highWatermark;
+    // number of pages in the partitions' dirty sets
+    private final AtomicInteger _numDirty = new AtomicInteger();
+    private final AtomicBoolean _writerRunning = new AtomicBoolean();
+    // set by wakeWriter, so a writer about to stop knows it was asked to run again
+    private final AtomicBoolean _writerWanted = new AtomicBoolean();
+    // background writer, started on demand by cachePage
+    private final ThreadPoolExecutor _writer;
+
+    // bytes the cached pages may occupy in total, 0 for no limit
+    private volatile long _byteBudget = 0;
+    // per table upper limits and protected minimums, in bytes
+    private final ConcurrentHashMap<Integer, Long> _tableQuotas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Long> _tableReservations = new ConcurrentHashMap<>();
+
+    private final BufferPoolMetrics _metrics = new BufferPoolMetrics();
+
+    // the pages the insertTuple/deleteTuple call running on this thread has
+    // got READ_WRITE, null when there is none
+    private final ThreadLocal<HashSet<PageId>> _changes = new ThreadLocal<>();
+
+    /**
+     * One stripe of the page table. Each partition has its own replacement
+     * state, sized for its share of the pool's capacity, its own hit/miss
+     * counters, and is guarded by its own monitor, so threads working on
+     * pages of different partitions never contend. The page limit holds for
+     * the pool as a whole, see reserveFrame.
+     */
+    private static class Partition {
+        final HashMap<PageId, Page> pages;
+        final ReplacementPolicy policy; // decides which cached page to evict.
+        // pages being read from disk right now; other requesters wait on the load
+        final HashMap<PageId, CompletableFuture<Page>> pending;
+        long numHits;
+        long numMisses;
+        long numPrefetches;
+        // pages read (or being read) by prefetchPage and not requested since
+        final HashSet<PageId> prefetched;
+        // cached pages dirtied through insertTuple/deleteTuple and not written since
+        final HashSet<PageId> dirty;
+        // pages that running insertTuple/deleteTuple calls got READ_WRITE, and
+        // how many calls got each; they may be half way through a change
+        final HashMap<PageId, Integer> changing;
+        long numBackgroundWrites;
+        // estimated footprint of each cached page when it was cached, and the sums
+        final HashMap<PageId, Long> footprints;
+        final HashMap<Integer, Long> tableBytes;
+        long bytes;
+        // off-heap second tier, null unless enabled
+        PageArena arena;
+        long numArenaHits;
+
+        Partition(int capacity, ReplacementPolicy.Kind policy) {
+            this.pages = new HashMap<>();
+            this.policy = policy.create(capacity);
+            this.pending = new HashMap<>();
+            this.prefetched = new HashSet<>();
+            this.dirty = new HashSet<>();
+            this.changing = new HashMap<>();
+            this.footprints = new HashMap<>();
+            this.tableBytes = new HashMap<>();
+        }
+    }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -39,10 +144,62 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.Kind.LRU);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts pages
+     * according to the given replacement policy. Large pools are split into
+     * up to four partitions per available processor.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy used to pick eviction victims.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy) {
+        this(numPages, policy, Math.min(4 * Runtime.getRuntime().availableProcessors(),
+                numPages / MIN_PAGES_PER_PARTITION));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numPartitions partitions by table and page number. The pool as a whole
+     * holds up to numPages pages, however they spread over the partitions;
+     * each partition runs its own instance of the replacement policy, sized
+     * for its share of numPages, and a full pool evicts from the partition
+     * of the incoming page first.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy used to pick eviction victims.
+     * @param numPartitions the number of partitions, clamped to [1, numPages].
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy, int numPartitions) {
         // some code goes here
         this._numPages = numPages;
-        this._pagePool = new HashMap<>();
-        this._pageRecencyList = new LinkedList<>();
+        int n = Math.max(1, Math.min(numPartitions, numPages));
+        this._partitions = new Partition[n];
+        for (int i = 0; i < n; i++)
+            _partitions[i] = new Partition(numPages / n + (i < numPages % n ? 1 : 0), policy);
+        this._prefetchBudget = Math.max(1, numPages / 4);
+        this._prefetcher = daemonExecutor(PREFETCH_THREADS, "BufferPool-prefetch");
+        this._writer = daemonExecutor(1, "BufferPool-writer");
+        setDirtyWatermarks(DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK);
+    }
+
+    /**
+     * @return an executor whose daemon threads are started on demand and
+     * exit when idle, so pools that are thrown away do not leak threads
+     */
+    private static ThreadPoolExecutor daemonExecutor(int threads, final String name) {
+        ThreadPoolExecutor ex = new ThreadPoolExecutor(threads, threads,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        ex.allowCoreThreadTimeOut(true);
+        return ex;
     }
 
     public static int getPageSize() {
@@ -77,28 +234,209 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        if (_pagePool.containsKey(pid)) {
-            // update recency accordingly
-            updateRecency(pid);
-            return _pagePool.get(pid);
-        } else {
-            // retrieve page data
-            int tableId = pid.getTableId();
-            // HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-            DbFile df = Database.getCatalog().getDatabaseFile(tableId);
+        long start = System.nanoTime();
+        Partition part = partitionOf(pid);
+        CompletableFuture<Page> load;
+        boolean loader = false;
+        synchronized (part) {
+            Page cached = part.pages.get(pid);
+            if (cached != null) {
+                part.numHits++;
+                part.policy.recordAccess(pid);
+                claimPrefetch(part, pid);
+                if (perm == Permissions.READ_WRITE)
+                    noteChange(part, pid);
+                _metrics.recordHit(pid, System.nanoTime() - start);
+                return cached;
+            }
+            load = part.pending.get(pid);
+            if (load != null) {
+                // someone else is already reading this page, share their read
+                part.numHits++;
+                claimPrefetch(part, pid);
+            } else {
+                part.numMisses++;
+                load = new CompletableFuture<>();
+                part.pending.put(pid, load);
+                loader = true;
+            }
+        }
+        Page page = loader ? loadPage(part, pid, load) : awaitLoad(load);
+        if (perm == Permissions.READ_WRITE) {
+            synchronized (part) {
+                noteChange(part, pid);
+            }
+        }
+        if (loader)
+            _metrics.recordMiss(pid, System.nanoTime() - start);
+        else
+            _metrics.recordHit(pid, System.nanoTime() - start);
+        return page;
+    }
 
-            // detect if _pagePool is full, evict if fulled.
-            if (_pagePool.size() >= _numPages) {
-                Debug.log("BufferPool reached maximum pages (%d), evicting page now...", _numPages);
-                evictPage();
+    /**
+     * Reads a page from disk on behalf of every thread waiting on load, then
+     * caches it. The read happens without holding the partition, so hits on
+     * other pages of this partition are not stuck behind the disk.
+     */
+    private Page loadPage(Partition part, PageId pid, CompletableFuture<Page> load)
+            throws DbException {
+        Page page;
+        try {
+            DbFile df = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            byte[] parked = null;
+            synchronized (part) {
+                if (part.arena != null && (parked = part.arena.take(pid)) != null)
+                    part.numArenaHits++;
+            }
+            if (parked != null) {
+                _metrics.recordOffHeapHit(pid);
+                try {
+                    page = df.decodePage(pid, parked);
+                } catch (IOException e) {
+                    throw new DbException(String.format("unable to decode page %s: %s", pid, e));
+                }
+            } else {
+                long start = System.nanoTime();
+                page = df.readPage(pid);
+                _metrics.recordRead(pid, System.nanoTime() - start);
+            }
+            if (page == null)
+                throw new DbException(String.format("unable to read page %s", pid));
+        } catch (RuntimeException | DbException e) {
+            synchronized (part) {
+                if (part.pending.remove(pid, load))
+                    claimPrefetch(part, pid);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        long size = page.getMemoryFootprint();
+
+        try {
+            reserveFrame(part, pid.getTableId());
+        } catch (DbException e) {
+            synchronized (part) {
+                if (part.pending.remove(pid, load))
+                    claimPrefetch(part, pid);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (part) {
+            // discardPage drops the pending entry; a page read before the
+            // discard is handed to the waiters but never cached
+            if (!part.pending.remove(pid, load)) {
+                _numFrames.decrementAndGet();
+            } else {
+                // insertTuple may have cached a newer version meanwhile; keep it,
+                // so all transactions keep seeing a single version of the page
+                Page current = part.pages.get(pid);
+                if (current != null) {
+                    _numFrames.decrementAndGet();
+                    part.policy.recordAccess(pid);
+                    remeasure(part, current);
+                    page = current;
+                } else {
+                    try {
+                        makeRoom(part, pid.getTableId(), size);
+                    } catch (DbException e) {
+                        _numFrames.decrementAndGet();
+                        claimPrefetch(part, pid);
+                        load.completeExceptionally(e);
+                        throw e;
+                    }
+                    putPage(part, page, size);
+                    part.policy.recordInsert(pid);
+                }
+            }
+        }
+        load.complete(page);
+        return page;
+    }
+
+    /**
+     * Starts reading a page into the pool on a background thread, so that a
+     * later getPage finds it cached or already on its way. Nothing is done if
+     * the page is cached or being read, or if the pool is under pressure:
+     * once a quarter of the pool holds prefetched pages nobody has asked for
+     * yet, reading further ahead would only evict pages that are still in use.
+     *
+     * @param pid the ID of the page to read
+     * @return false if the pool is under pressure and the page was left on disk
+     */
+    public boolean prefetchPage(PageId pid) {
+        if (_unusedPrefetches.get() >= _prefetchBudget)
+            return false;
+        final Partition part = partitionOf(pid);
+        final PageId id = pid;
+        final CompletableFuture<Page> load = new CompletableFuture<>();
+        synchronized (part) {
+            if (part.pages.containsKey(pid) || part.pending.containsKey(pid))
+                return true;
+            part.pending.put(pid, load);
+            part.prefetched.add(pid);
+            part.numPrefetches++;
+            _unusedPrefetches.incrementAndGet();
+        }
+        _metrics.recordPrefetch(pid);
+        _prefetcher.execute(new Runnable() {
+            public void run() {
+                try {
+                    loadPage(part, id, load);
+                } catch (Exception e) {
+                    // a getPage waiting on this read gets the error from the future
+                    Debug.log("prefetch of %s failed: %s", id, e);
+                }
             }
-            // HeapPage page = (HeapPage) hf.readPage(pid);
-            // _pagePool.put(pid, new HeapPage((HeapPageId) pid, page.getPageData()));
-            Page page = df.readPage(pid);
+        });
+        return true;
+    }
+
+    /**
+     * Marks a prefetched page as used, or as gone when it leaves the pool
+     * before anyone asked for it. The caller holds the partition's monitor.
+     */
+    private void claimPrefetch(Partition part, PageId pid) {
+        if (part.prefetched.remove(pid))
+            _unusedPrefetches.decrementAndGet();
+    }
+
+    /**
+     * @return the number of pages a sequential scan should keep in flight
+     * ahead of its current page; 0 disables read-ahead
+     */
+    public int getReadAheadPages() {
+        return _readAheadPages;
+    }
+
+    /**
+     * Sets the number of pages a sequential scan keeps in flight ahead of its
+     * current page. 0 disables read-ahead.
+     */
+    public void setReadAheadPages(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("read-ahead must not be negative: " + pages);
+        this._readAheadPages = pages;
+    }
 
-            _pagePool.put(pid, page);
-            updateRecency(pid);
-            return page;
+    /**
+     * Waits for another thread to finish loading a page and returns it, or
+     * rethrows the error the loading thread ran into.
+     */
+    private static Page awaitLoad(CompletableFuture<Page> load) throws DbException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for a page to load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("page load failed: " + cause);
         }
     }
 
@@ -170,21 +508,45 @@ public class BufferPool {
 
         // find dirtied pages
         DbFile df = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> dirtied_pages = df.insertTuple(tid, t);
+        boolean started = beginChange();
+        try {
+            ArrayList<Page> dirtied_pages = df.insertTuple(tid, t);
 
-        // mark dirty bits for all the dirtied pages
-        for (Page p: dirtied_pages) {
-            p.markDirty(true, tid);
-            PageId pid = p.getId();
-            if (!_pagePool.containsKey(p.getId())) {
-                if (_pagePool.size() > pageSize)
-                    evictPage();
-            }
-            _pagePool.put(p.getId(), p);
+            // mark dirty bits for all the dirtied pages
+            for (Page p: dirtied_pages)
+                cachePage(p, tid);
+        } finally {
+            if (started)
+                endChange();
         }
 
     }
 
+    /**
+     * Appends all tuples of an open iterator to a table in bulk. A HeapFile
+     * lays the tuples out in new pages and appends them to the file directly
+     * (see HeapFile#bulkLoad), so the pool is bypassed and aborting tid does
+     * not undo the load; other files get the tuples one at a time through
+     * insertTuple.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @return the number of tuples added
+     */
+    public int bulkLoad(TransactionId tid, int tableId, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile df = Database.getCatalog().getDatabaseFile(tableId);
+        if (df instanceof HeapFile)
+            return ((HeapFile) df).bulkLoad(tid, tuples);
+        int count = 0;
+        while (tuples.hasNext()) {
+            insertTuple(tid, tableId, tuples.next());
+            count++;
+        }
+        return count;
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from and any
@@ -203,46 +565,127 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
 
-        // find the page that contains the tuple in _pagePool
+        // find the page that contains the tuple
         RecordId rid = t.getRecordId();
         PageId pid = rid.getPageId();
         DbFile df = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        ArrayList<Page> dirtied_pages = df.deleteTuple(tid, t);
+        boolean started = beginChange();
+        try {
+            ArrayList<Page> dirtied_pages = df.deleteTuple(tid, t);
 
-        for (Page p: dirtied_pages) {
-            p.markDirty(true, tid);
+            for (Page p: dirtied_pages)
+                cachePage(p, tid);
+        } finally {
+            if (started)
+                endChange();
+        }
+    }
+
+    /**
+     * Remove a batch of tuples from the buffer pool, grouped by table so each
+     * DbFile can delete its share page by page (see DbFile#deleteTuples).
+     * Pages dirtied several times are cached once.
+     *
+     * @param tid the transaction deleting the tuples.
+     * @param tuples the tuples to delete
+     */
+    public void deleteTuples(TransactionId tid, Collection<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<Integer, ArrayList<Tuple>> byTable = new LinkedHashMap<>();
+        for (Tuple t : tuples) {
+            int tableId = t.getRecordId().getPageId().getTableId();
+            ArrayList<Tuple> ofTable = byTable.get(tableId);
+            if (ofTable == null) {
+                ofTable = new ArrayList<>();
+                byTable.put(tableId, ofTable);
+            }
+            ofTable.add(t);
+        }
 
-            if (!_pagePool.containsKey(p.getId())) {
-                if (_pagePool.size() > pageSize)
-                    evictPage();
+        boolean started = beginChange();
+        try {
+            for (Map.Entry<Integer, ArrayList<Tuple>> e : byTable.entrySet()) {
+                DbFile df = Database.getCatalog().getDatabaseFile(e.getKey());
+                // several deletions may return the same page; cache its last version
+                LinkedHashMap<PageId, Page> dirtied_pages = new LinkedHashMap<>();
+                for (Page p : df.deleteTuples(tid, e.getValue()))
+                    dirtied_pages.put(p.getId(), p);
+                for (Page p : dirtied_pages.values())
+                    cachePage(p, tid);
             }
-            _pagePool.put(p.getId(), p);
+        } finally {
+            if (started)
+                endChange();
+        }
+    }
+
+    /**
+     * Starts an insertTuple/deleteTuple call on this thread. Until endChange,
+     * the pages it gets READ_WRITE may be half way through a change, as the
+     * DbFile changes cached pages in place: the background writer leaves
+     * them dirty for a later pass and other threads do not evict them, so
+     * neither writes a torn page or marks clean a page changed after it was
+     * written.
+     *
+     * @return false if a call is already running on this thread
+     */
+    private boolean beginChange() {
+        if (_changes.get() != null)
+            return false;
+        _changes.set(new HashSet<PageId>());
+        return true;
+    }
 
+    /**
+     * Records that the call running on this thread, if any, got pid
+     * READ_WRITE. The caller holds the monitor of pid's partition.
+     */
+    private void noteChange(Partition part, PageId pid) {
+        HashSet<PageId> changes = _changes.get();
+        if (changes != null && changes.add(pid)) {
+            Integer n = part.changing.get(pid);
+            part.changing.put(pid, n == null ? 1 : n + 1);
         }
     }
 
+    /** Ends the insertTuple/deleteTuple call running on this thread. */
+    private void endChange() {
+        HashSet<PageId> changes = _changes.get();
+        _changes.remove();
+        for (PageId pid : changes) {
+            Partition part = partitionOf(pid);
+            synchronized (part) {
+                int n = part.changing.get(pid);
+                if (n == 1)
+                    part.changing.remove(pid);
+                else
+                    part.changing.put(pid, n - 1);
+                // the page may have been changed in place without being re-put
+                Page p = part.pages.get(pid);
+                if (p != null)
+                    remeasure(part, p);
+            }
+        }
+        // the writer leaves pages being changed alone; they may go now
+        wakeWriter();
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
 
-        Iterator it = _pagePool.entrySet().iterator();
-
-        if (it.hasNext()) {
-            Map.Entry kv = (Map.Entry) it.next();
-            Page p = (Page) kv.getValue();
-            PageId pid = (PageId) kv.getKey();
-            if (p.isDirty() != null) {
-                p.markDirty(false, null);
-                int tableId = pid.getTableId();
-                DbFile df = Database.getCatalog().getDatabaseFile(tableId);
-                df.writePage(p);
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                for (Page p : part.pages.values()) {
+                    if (p.isDirty() != null)
+                        writeOut(part, p);
+                }
             }
-            _pagePool.remove(pid);
         }
     }
 
@@ -254,91 +697,742 @@ public class BufferPool {
      Also used by B+ tree files to ensure that deleted pages
      are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
 
-        _pagePool.remove(pid);
-        int node_index = _pageRecencyList.indexOf(pid); // O(N)
-        if (node_index >= 0 && node_index < _pageRecencyList.size())
-            _pageRecencyList.remove(node_index);
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            if (removePage(part, pid) != null) {
+                _numFrames.decrementAndGet();
+                part.policy.recordRemove(pid);
+            }
+            // an in-flight read may predate the discard, make sure it is not cached
+            part.pending.remove(pid);
+            claimPrefetch(part, pid);
+            forgetDirty(part, pid);
+            if (part.arena != null)
+                part.arena.remove(pid);
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
 
-        int tableId = pid.getTableId();
-        DbFile df = Database.getCatalog().getDatabaseFile(tableId);
-        if (_pagePool.containsKey(pid)) {
-            Page removedPage = _pagePool.remove(pid);
-            removedPage.markDirty(false, null);
-            df.writePage(removedPage);
-        }
-        else {
-            Debug.log("[ERROR] Bufferpool doesnot contain pid(%s) so cannot flush to disk", pid.toString());
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            Page p = part.pages.get(pid);
+            if (p == null) {
+                Debug.log("[ERROR] Bufferpool doesnot contain pid(%s) so cannot flush to disk", pid.toString());
+                return;
+            }
+            if (p.isDirty() != null)
+                writeOut(part, p);
         }
-
-
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
 
-        Iterator it = _pagePool.entrySet().iterator();
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                for (Page p : part.pages.values()) {
+                    if (tid.equals(p.isDirty()))
+                        writeOut(part, p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes one of the pool's numPages frames for a page about to be cached
+     * in home. If the pool is full, a page is evicted first: from home if it
+     * has one it may give up, otherwise from the first other partition that
+     * does. The caller holds no partition's monitor, and each partition is
+     * locked on its own, so two threads evicting for each other cannot
+     * deadlock. The frame is the caller's to give back if the page ends up
+     * not being cached.
+     *
+     * @throws DbException if the pool is full and no partition has a page
+     *         that may be evicted
+     */
+    private void reserveFrame(Partition home, int tableId) throws DbException {
+        while (true) {
+            int n = _numFrames.get();
+            if (n < _numPages) {
+                if (_numFrames.compareAndSet(n, n + 1))
+                    return;
+            } else if (!evictAnywhere(home, tableId) && _numFrames.get() >= _numPages) {
+                throw new DbException("no page can be evicted, the remaining pages are dirty under NO STEAL or reserved");
+            }
+        }
+    }
 
-        if (it.hasNext()) {
-            Map.Entry kv = (Map.Entry) it.next();
-            Page p = (Page) kv.getValue();
-            PageId pid = (PageId) kv.getKey();
-            if (p.isDirty() == tid) {
-                p.markDirty(false, null);
-                int tableId = pid.getTableId();
-                DbFile df = Database.getCatalog().getDatabaseFile(tableId);
-                df.writePage(p);
+    /**
+     * Evicts one page to make room for a page of table forTable, trying home
+     * first and then the other partitions in turn.
+     *
+     * @return false if no partition had a page it could evict
+     */
+    private boolean evictAnywhere(Partition home, int forTable) {
+        for (int i = -1; i < _partitions.length; i++) {
+            Partition part = i < 0 ? home : _partitions[i];
+            if (i >= 0 && part == home)
+                continue;
+            synchronized (part) {
+                if (part.pages.isEmpty())
+                    continue;
+                try {
+                    evictPage(part, forTable, false);
+                    return true;
+                } catch (DbException e) {
+                    // every page of this partition is pinned, try the next one
+                }
             }
-            _pagePool.remove(pid);
         }
+        return false;
+    }
 
+    /**
+     * Evicts pages from the given partition, whose monitor the caller holds,
+     * until a new page of the given table and size fits: first within the
+     * table's quota, then within the partition's byte budget. The caller has
+     * already reserved the page's frame. A page larger than the whole budget
+     * still gets a partition to itself.
+     */
+    private void makeRoom(Partition part, int tableId, long size) throws DbException {
+        Long quota = _tableQuotas.get(tableId);
+        if (quota != null) {
+            long limit = share(quota);
+            while (tableBytes(part, tableId) > 0 && tableBytes(part, tableId) + size > limit)
+                evictPage(part, tableId, true);
+        }
+        long budget = _byteBudget;
+        long limit = budget > 0 ? share(budget) : Long.MAX_VALUE;
+        while (!part.pages.isEmpty() && part.bytes + size > limit) {
+            Debug.log("BufferPool partition is full (%d pages, %d bytes), evicting page now...",
+                    part.pages.size(), part.bytes);
+            evictPage(part, tableId, false);
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
+     * Discards a page from the given partition, whose monitor the caller holds,
+     * to make room for a page of table forTable.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The replacement policy's victims are passed over if they are dirty
+     * under NO STEAL, if another thread may be changing them, if
+     * ownTableOnly is set and they belong to another table, or if evicting
+     * them would take another table below its reservation.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Partition part, int forTable, boolean ownTableOnly) throws DbException {
         // some code goes here
         // not necessary for lab1r
 
-        // determine which page to evict: LRU policy
-        PageId flush_pid = _pageRecencyList.removeLast();
+        // determine which page to evict according to the partition's replacement
+        // policy; the pages passed over keep their place in it
+        PageId flush_pid = null;
+        boolean skipped = false;
+        Iterator<PageId> candidates = part.policy.candidates();
+        while (candidates.hasNext()) {
+            PageId pid = candidates.next();
+            if (mayEvict(part, pid, forTable, ownTableOnly)) {
+                flush_pid = pid;
+                break;
+            }
+            skipped = true;
+        }
+        if (flush_pid == null) {
+            if (skipped)
+                throw new DbException("no page can be evicted, the remaining pages are dirty under NO STEAL or reserved");
+            throw new DbException("BufferPool is empty, no page to evict");
+        }
+        part.policy.evict(flush_pid);
         Debug.log("Evicting pid: %s", flush_pid);
-        // MRU policy
-        // PageId flush_pid = _pageRecencyList.removeFirst();
+        claimPrefetch(part, flush_pid);
+        _metrics.recordEviction(flush_pid);
 
         // flush popped page to disk
+        Page p = removePage(part, flush_pid);
+        if (p != null)
+            _numFrames.decrementAndGet();
+        if (p != null && p.isDirty() != null) {
+            try {
+                writeOut(part, p);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        forgetDirty(part, flush_pid);
+        // only a page that matches the disk may be parked
+        if (p != null && p.isDirty() == null && part.arena != null)
+            part.arena.put(flush_pid, p.getPageData());
+    }
+
+    /** @return true if victim may be evicted to make room for a page of forTable */
+    private boolean mayEvict(Partition part, PageId victim, int forTable, boolean ownTableOnly) {
+        Page p = part.pages.get(victim);
+        if (p == null)
+            return true;
+        if (!_steal && p.isDirty() != null)
+            return false;
+        Integer changers = part.changing.get(victim);
+        if (changers != null) {
+            HashSet<PageId> mine = _changes.get();
+            if (changers > (mine != null && mine.contains(victim) ? 1 : 0))
+                return false;
+        }
+        int table = victim.getTableId();
+        if (table == forTable)
+            return true;
+        if (ownTableOnly)
+            return false;
+        Long reservation = _tableReservations.get(table);
+        return reservation == null
+                || tableBytes(part, table) - part.footprints.get(victim) >= share(reservation);
+    }
+
+    /**
+     * Puts a page into the partition's page table, whose monitor the caller
+     * holds, replacing any previous version, and accounts for its footprint.
+     * A new page takes the frame the caller reserved for it; a new version
+     * takes over the frame of the old one.
+     */
+    private void putPage(Partition part, Page page, long size) {
+        PageId pid = page.getId();
+        removePage(part, pid);
+        // a page evicted while somebody was still modifying it can come back
+        // through cachePage; its parked copy is stale then
+        if (part.arena != null)
+            part.arena.remove(pid);
+        part.pages.put(pid, page);
+        part.footprints.put(pid, size);
+        part.bytes += size;
+        Long tableBytes = part.tableBytes.get(pid.getTableId());
+        part.tableBytes.put(pid.getTableId(), (tableBytes == null ? 0 : tableBytes) + size);
+    }
+
+    /**
+     * Measures a cached page again and corrects the partition's totals; the
+     * caller holds the partition's monitor. A page grows as its tuples are
+     * decoded and when it is changed in place, so the size it was put with
+     * goes stale. Does nothing if p is not the cached version of its page.
+     */
+    private void remeasure(Partition part, Page p) {
+        PageId pid = p.getId();
+        Long old = part.footprints.get(pid);
+        if (old == null || part.pages.get(pid) != p)
+            return;
+        long size = p.getMemoryFootprint();
+        if (size == old)
+            return;
+        part.footprints.put(pid, size);
+        part.bytes += size - old;
+        part.tableBytes.put(pid.getTableId(), part.tableBytes.get(pid.getTableId()) + size - old);
+    }
+
+    /**
+     * Removes a page from the partition's page table, whose monitor the
+     * caller holds, and gives back its footprint.
+     *
+     * @return the removed page, or null if it was not cached
+     */
+    private Page removePage(Partition part, PageId pid) {
+        Page p = part.pages.remove(pid);
+        Long size = part.footprints.remove(pid);
+        if (size != null) {
+            part.bytes -= size;
+            long left = part.tableBytes.get(pid.getTableId()) - size;
+            if (left == 0)
+                part.tableBytes.remove(pid.getTableId());
+            else
+                part.tableBytes.put(pid.getTableId(), left);
+        }
+        return p;
+    }
+
+    private static long tableBytes(Partition part, int tableId) {
+        Long n = part.tableBytes.get(tableId);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * @return a partition's share of a pool wide byte limit. Pages are spread
+     * evenly over the partitions, so each one enforces its share on its own.
+     */
+    private long share(long bytes) {
+        return (bytes + _partitions.length - 1) / _partitions.length;
+    }
+
+    /**
+     * Writes a page of the given partition, whose monitor the caller holds,
+     * to its DbFile and marks it clean.
+     */
+    private void writeOut(Partition part, Page p) throws IOException {
+        DbFile df = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+        long start = System.nanoTime();
+        df.writePage(p);
+        _metrics.recordWrite(p.getId(), System.nanoTime() - start);
+        p.markDirty(false, null);
+        forgetDirty(part, p.getId());
+        remeasure(part, p);
+    }
+
+    /** Drops pid from the partition's dirty set. The caller holds the partition's monitor. */
+    private void forgetDirty(Partition part, PageId pid) {
+        if (part.dirty.remove(pid))
+            _numDirty.decrementAndGet();
+    }
+
+    /**
+     * Marks a page dirtied by insertTuple/deleteTuple as dirty and puts it
+     * into the cache, replacing any existing version of it and evicting a page
+     * first if it is new and its partition is full. The dirty bit is set under
+     * the partition's monitor, so the background writer cannot clear it
+     * between the two steps.
+     */
+    private void cachePage(Page p, TransactionId tid) throws DbException {
+        PageId pid = p.getId();
+        Partition part = partitionOf(pid);
+        long size = p.getMemoryFootprint();
+        // the page is usually still cached; a frame is only reserved for it
+        // once it turns out to have been evicted, and then the check is redone
+        boolean reserved = false;
+        while (true) {
+            synchronized (part) {
+                boolean cached = part.pages.containsKey(pid);
+                if (cached || reserved) {
+                    p.markDirty(true, tid);
+                    if (cached) {
+                        if (reserved)
+                            _numFrames.decrementAndGet();
+                        putPage(part, p, size);
+                        part.policy.recordAccess(pid);
+                    } else {
+                        try {
+                            makeRoom(part, pid.getTableId(), size);
+                        } catch (DbException e) {
+                            _numFrames.decrementAndGet();
+                            throw e;
+                        }
+                        putPage(part, p, size);
+                        part.policy.recordInsert(pid);
+                    }
+                    if (part.dirty.add(pid))
+                        _numDirty.incrementAndGet();
+                    break;
+                }
+            }
+            reserveFrame(part, pid.getTableId());
+            reserved = true;
+        }
+        wakeWriter();
+    }
+
+    /**
+     * Starts the background writer if the pool is above its low watermark
+     * and the writer is not running. A writer that is just stopping notices
+     * the request and starts again, so a wake-up is never lost.
+     */
+    private void wakeWriter() {
+        if (!_steal || _numDirty.get() <= _lowWatermark)
+            return;
+        _writerWanted.set(true);
+        if (_writerRunning.compareAndSet(false, true)) {
+            _writer.execute(new Runnable() {
+                public void run() {
+                    runWriter();
+                }
+            });
+        }
+    }
+
+    /**
+     * Body of the background writer. Below the low watermark it has nothing
+     * to do. Between the watermarks it trickles a few pages to disk at a
+     * time, pausing in between so it does not compete with queries for the
+     * disk. Above the high watermark it writes without pausing until the pool
+     * is back at the low watermark. A page dirtied again while the writer is
+     * busy is picked up on its next pass.
+     */
+    private void runWriter() {
         try {
-            flushPage(flush_pid);
-        } catch (IOException e) {
-            e.printStackTrace();
+            while (_steal) {
+                _writerWanted.set(false);
+                int dirty = _numDirty.get();
+                if (dirty <= _lowWatermark)
+                    return;
+                boolean urgent = dirty > _highWatermark;
+                if (writeDirtyPages(urgent ? dirty - _lowWatermark : TRICKLE_PAGES) == 0)
+                    return;
+                if (!urgent)
+                    Thread.sleep(TRICKLE_PAUSE_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            _writerRunning.set(false);
+            // pages skipped because they were being changed wake it once the change is in
+            if (_writerWanted.get())
+                wakeWriter();
+        }
+    }
+
+    /**
+     * One write-coalescing pass: collects the dirty pages of all partitions,
+     * sorts them by table and page number so each file is written front to
+     * back, and writes up to max of them.
+     *
+     * @return the number of pages written
+     */
+    private int writeDirtyPages(int max) {
+        ArrayList<PageId> dirty = new ArrayList<>();
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                dirty.addAll(part.dirty);
+            }
+        }
+        Collections.sort(dirty, new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                if (a.getTableId() != b.getTableId())
+                    return Integer.compare(a.getTableId(), b.getTableId());
+                return Integer.compare(a.pageNumber(), b.pageNumber());
+            }
+        });
+
+        int written = 0;
+        for (PageId pid : dirty) {
+            if (written >= max || !_steal)
+                break;
+            Partition part = partitionOf(pid);
+            synchronized (part) {
+                Page p = part.pages.get(pid);
+                if (p == null || p.isDirty() == null) {
+                    // written or dropped since the snapshot
+                    forgetDirty(part, pid);
+                    continue;
+                }
+                // a page being changed is left for a later pass
+                if (part.changing.containsKey(pid))
+                    continue;
+                try {
+                    writeOut(part, p);
+                    part.numBackgroundWrites++;
+                    written++;
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Chooses between STEAL (the default), where dirty pages of running
+     * transactions may be written to disk by eviction and by the background
+     * writer, and NO STEAL, where they stay in the pool until their
+     * transaction flushes them at commit.
+     */
+    public void setSteal(boolean steal) {
+        this._steal = steal;
+    }
+
+    /** @return true if dirty pages may be written before their transaction commits */
+    public boolean isSteal() {
+        return _steal;
+    }
+
+    /**
+     * Sets when the background writer runs. Once more than low * numPages
+     * pages are dirty it trickles them to disk, and once more than
+     * high * numPages are dirty it writes them as fast as it can until it is
+     * back at the low watermark.
+     *
+     * @param low fraction of the pool that may stay dirty, in [0, 1]
+     * @param high fraction of the pool above which writing is urgent, in [low, 1]
+     */
+    public void setDirtyWatermarks(double low, double high) {
+        if (low < 0 || low > high || high > 1)
+            throw new IllegalArgumentException(String.format("invalid watermarks %.2f, %.2f", low, high));
+        this._lowWatermark = (int) (low * _numPages);
+        this._highWatermark = (int) (high * _numPages);
+    }
+
+    /**
+     * @return the partition responsible for pid. Consecutive pages of a file
+     * go to consecutive partitions, so a scan spreads evenly over all of them.
+     */
+    private Partition partitionOf(PageId pid) {
+        int h = 31 * pid.getTableId() + pid.pageNumber();
+        return _partitions[Math.floorMod(h, _partitions.length)];
+    }
+
+    /** @return the number of partitions the page table is split into */
+    public int getNumPartitions() {
+        return _partitions.length;
+    }
+
+    /** @return the number of pages currently cached */
+    public int getNumCachedPages() {
+        int n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                n += part.pages.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the pool's counters and latency histograms, broken down by
+     * table and page category
+     */
+    public BufferPoolMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /** @return the number of getPage calls served from the cache */
+    public long getNumHits() {
+        long n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                n += part.numHits;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of getPage calls that had to read the page from disk */
+    public long getNumMisses() {
+        long n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                n += part.numMisses;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of reads started by prefetchPage */
+    public long getNumPrefetches() {
+        long n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                n += part.numPrefetches;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Limits the estimated heap footprint of all cached pages, on top of the
+     * page count the pool was created with. The limit applies as pages are
+     * added; lowering it does not evict anything by itself.
+     *
+     * @param bytes the budget, or 0 for none
+     * @see Page#getMemoryFootprint()
+     */
+    public void setByteBudget(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("byte budget must not be negative: " + bytes);
+        this._byteBudget = bytes;
+    }
+
+    /** @return the byte budget, or 0 if there is none */
+    public long getByteBudget() {
+        return _byteBudget;
+    }
+
+    /**
+     * Caps the bytes the pages of one table may occupy. A table at its quota
+     * evicts its own pages to make room for more, so a large scan of it
+     * cannot push the working set of other tables out of the pool.
+     *
+     * @param tableId the table to limit
+     * @param bytes the quota, or 0 to remove it
+     */
+    public void setTableQuota(int tableId, long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("quota must not be negative: " + bytes);
+        if (bytes == 0)
+            _tableQuotas.remove(tableId);
+        else
+            _tableQuotas.put(tableId, bytes);
+    }
+
+    /**
+     * Sets aside bytes for one table: other tables cannot evict its pages
+     * while it holds no more than this. Its own pages can still replace each
+     * other. Reservations should leave room in the pool for everybody else.
+     *
+     * @param tableId the table to protect
+     * @param bytes the reservation, or 0 to remove it
+     */
+    public void setTableReservation(int tableId, long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("reservation must not be negative: " + bytes);
+        if (bytes == 0)
+            _tableReservations.remove(tableId);
+        else
+            _tableReservations.put(tableId, bytes);
+    }
+
+    /** @return the estimated footprint of all cached pages, in bytes */
+    public long getCachedBytes() {
+        long n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                n += part.bytes;
+            }
+        }
+        return n;
+    }
+
+    /** @return the estimated footprint of the cached pages of one table, in bytes */
+    public long getCachedBytes(int tableId) {
+        long n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                n += tableBytes(part, tableId);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Allocates an off-heap arena of numFrames page sized frames, split
+     * between the partitions, and parks clean evicted pages there from now
+     * on. Any previous arena and the pages parked in it are dropped.
+     *
+     * @param numFrames the number of frames, or 0 to turn the arena off
+     */
+    public void setOffHeapFrames(int numFrames) {
+        if (numFrames < 0)
+            throw new IllegalArgumentException("frame count must not be negative: " + numFrames);
+        int n = _partitions.length;
+        for (int i = 0; i < n; i++) {
+            int frames = numFrames / n + (i < numFrames % n ? 1 : 0);
+            PageArena arena = frames == 0 ? null : new PageArena(frames, getPageSize());
+            synchronized (_partitions[i]) {
+                _partitions[i].arena = arena;
+            }
+        }
+    }
+
+    /** @return the number of pages parked off-heap */
+    public int getNumOffHeapPages() {
+        int n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                if (part.arena != null)
+                    n += part.arena.size();
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of getPage misses served from the off-heap arena instead of disk */
+    public long getNumOffHeapHits() {
+        long n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                n += part.numArenaHits;
+            }
         }
+        return n;
+    }
+
+    /** @return the number of dirty pages the background writer has written */
+    public long getNumBackgroundWrites() {
+        long n = 0;
+        for (Partition part : _partitions) {
+            synchronized (part) {
+                n += part.numBackgroundWrites;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of pages dirtied through insertTuple/deleteTuple and not yet written */
+    public int getNumDirtyPages() {
+        return _numDirty.get();
+    }
+
+    /**
+     * Checks that the pool is within its capacity, that every partition's
+     * page table and replacement policy agree on what is cached, and that
+     * every page lives in the partition its PageId maps to. Used by tests.
+     * Every partition is held at once, so a page moving between partitions
+     * is not counted twice.
+     *
+     * @throws IllegalStateException if an invariant does not hold
+     */
+    void checkInvariants() {
+        checkInvariants(0, 0);
     }
 
     /**
-     * Find pid in recencyList and move it to list head.
+     * Checks partition i and the ones after it while holding the monitors of
+     * the ones before, which hold total pages between them.
      */
-    private synchronized void updateRecency(PageId pid) {
-        int node_index = _pageRecencyList.indexOf(pid); // O(N)
-        if (node_index >= 0 && node_index < _pageRecencyList.size())
-            _pageRecencyList.remove(node_index);
-        _pageRecencyList.addFirst(pid);
+    private void checkInvariants(int i, int total) {
+        if (i == _partitions.length) {
+            // frames may be reserved for pages still being cached
+            int frames = _numFrames.get();
+            if (total > frames || frames > _numPages)
+                throw new IllegalStateException(String.format("pool holds %d pages in %d frames, capacity is %d",
+                        total, frames, _numPages));
+            return;
+        }
+        Partition part = _partitions[i];
+        synchronized (part) {
+            if (part.pages.size() != part.policy.size())
+                throw new IllegalStateException(String.format("partition holds %d pages, policy tracks %d",
+                        part.pages.size(), part.policy.size()));
+            for (Map.Entry<PageId, Page> e : part.pages.entrySet()) {
+                if (partitionOf(e.getKey()) != part)
+                    throw new IllegalStateException("page " + e.getKey() + " is in the wrong partition");
+                if (!e.getKey().equals(e.getValue().getId()))
+                    throw new IllegalStateException("page " + e.getValue().getId() + " cached as " + e.getKey());
+            }
+            for (PageId pid : part.prefetched) {
+                if (!part.pages.containsKey(pid) && !part.pending.containsKey(pid))
+                    throw new IllegalStateException("prefetched page " + pid + " is neither cached nor being read");
+            }
+            for (PageId pid : part.dirty) {
+                if (!part.pages.containsKey(pid))
+                    throw new IllegalStateException("dirty page " + pid + " is not cached");
+            }
+            if (part.arena != null) {
+                for (PageId pid : part.arena.pageIds()) {
+                    if (part.pages.containsKey(pid))
+                        throw new IllegalStateException("page " + pid + " is both cached and parked off-heap");
+                    if (partitionOf(pid) != part)
+                        throw new IllegalStateException("parked page " + pid + " is in the wrong partition");
+                }
+            }
+            if (!part.footprints.keySet().equals(part.pages.keySet()))
+                throw new IllegalStateException("page footprints do not match the cached pages");
+            long bytes = 0;
+            HashMap<Integer, Long> tableBytes = new HashMap<>();
+            for (Map.Entry<PageId, Long> e : part.footprints.entrySet()) {
+                bytes += e.getValue();
+                Long n = tableBytes.get(e.getKey().getTableId());
+                tableBytes.put(e.getKey().getTableId(), (n == null ? 0 : n) + e.getValue());
+            }
+            if (bytes != part.bytes || !tableBytes.equals(part.tableBytes))
+                throw new IllegalStateException(String.format("partition accounts for %d bytes, pages add up to %d",
+                        part.bytes, bytes));
+            checkInvariants(i + 1, total + part.pages.size());
+        }
     }
 
 }
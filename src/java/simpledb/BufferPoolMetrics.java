@@ -0,0 +1,324 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPoolMetrics counts what a BufferPool does: hits, misses, evictions,
+ * dirty page flushes and the bytes read and written. The counts are broken
+ * down by table and by page category. It also keeps latency histograms of
+ * getPage calls (including any wait for the disk) and of the reads and
+ * writes behind them.
+ * <p>
+ * Recording is lock free, so it can sit on the hit path. Everything handed
+ * out by the query methods is a snapshot.
+ *
+ * @see BufferPool#getMetrics()
+ */
+public class BufferPoolMetrics {
+
+    /** The kinds of pages the metrics are broken down by. */
+    public enum PageCategory {
+        HEAP, BTREE_ROOT_PTR, BTREE_INTERNAL, BTREE_LEAF, BTREE_HEADER, OTHER;
+
+        /** @return the category of the page with the given id */
+        public static PageCategory of(PageId pid) {
+            if (pid instanceof HeapPageId)
+                return HEAP;
+            if (pid instanceof BTreePageId) {
+                switch (((BTreePageId) pid).pgcateg()) {
+                    case BTreePageId.ROOT_PTR:
+                        return BTREE_ROOT_PTR;
+                    case BTreePageId.INTERNAL:
+                        return BTREE_INTERNAL;
+                    case BTreePageId.LEAF:
+                        return BTREE_LEAF;
+                    case BTreePageId.HEADER:
+                        return BTREE_HEADER;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Latency histogram with power of two buckets: bucket i counts the
+     * samples in [2^(i-1), 2^i) nanoseconds.
+     */
+    public static class LatencyHistogram {
+        private static final int BUCKETS = 64;
+
+        private final LongAdder[] _buckets = new LongAdder[BUCKETS];
+        private final LongAdder _count = new LongAdder();
+        private final LongAdder _totalNanos = new LongAdder();
+        private final LongAccumulator _maxNanos = new LongAccumulator(Math::max, 0);
+
+        LatencyHistogram() {
+            for (int i = 0; i < BUCKETS; i++)
+                _buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            _buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+            _count.increment();
+            _totalNanos.add(nanos);
+            _maxNanos.accumulate(nanos);
+        }
+
+        void add(LatencyHistogram other) {
+            for (int i = 0; i < BUCKETS; i++)
+                _buckets[i].add(other._buckets[i].sum());
+            _count.add(other._count.sum());
+            _totalNanos.add(other._totalNanos.sum());
+            _maxNanos.accumulate(other._maxNanos.get());
+        }
+
+        /** @return the number of samples */
+        public long getCount() {
+            return _count.sum();
+        }
+
+        /** @return the mean latency in nanoseconds, or 0 without samples */
+        public double getMeanNanos() {
+            long n = _count.sum();
+            return n == 0 ? 0 : _totalNanos.sum() / (double) n;
+        }
+
+        /** @return the largest latency seen, in nanoseconds */
+        public long getMaxNanos() {
+            return _maxNanos.get();
+        }
+
+        /**
+         * @param p a fraction in [0, 1], e.g. 0.99
+         * @return an upper bound on the p-th percentile latency, in
+         * nanoseconds: the top of the bucket it falls into
+         */
+        public long getPercentileNanos(double p) {
+            long n = _count.sum();
+            if (n == 0)
+                return 0;
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += _buckets[i].sum();
+                if (seen >= rank && seen > 0)
+                    return Math.min(i == 0 ? 0 : 1L << i, getMaxNanos());
+            }
+            return getMaxNanos();
+        }
+    }
+
+    /** The counters of one table and page category, or a sum of several. */
+    public static class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder offHeapHits = new LongAdder();
+        final LongAdder prefetches = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder dirtyFlushes = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+        final LatencyHistogram getPageLatency = new LatencyHistogram();
+        final LatencyHistogram readLatency = new LatencyHistogram();
+        final LatencyHistogram writeLatency = new LatencyHistogram();
+
+        void add(Counters other) {
+            hits.add(other.hits.sum());
+            misses.add(other.misses.sum());
+            offHeapHits.add(other.offHeapHits.sum());
+            prefetches.add(other.prefetches.sum());
+            evictions.add(other.evictions.sum());
+            dirtyFlushes.add(other.dirtyFlushes.sum());
+            bytesRead.add(other.bytesRead.sum());
+            bytesWritten.add(other.bytesWritten.sum());
+            getPageLatency.add(other.getPageLatency);
+            readLatency.add(other.readLatency);
+            writeLatency.add(other.writeLatency);
+        }
+
+        /** @return getPage calls served from the pool, including waits on a read already in flight */
+        public long getHits() { return hits.sum(); }
+        /** @return getPage calls that started a read */
+        public long getMisses() { return misses.sum(); }
+        /** @return reads served from the off-heap arena instead of the DbFile */
+        public long getOffHeapHits() { return offHeapHits.sum(); }
+        /** @return reads started by read-ahead */
+        public long getPrefetches() { return prefetches.sum(); }
+        /** @return pages evicted to make room */
+        public long getEvictions() { return evictions.sum(); }
+        /** @return dirty pages written to the DbFile */
+        public long getDirtyFlushes() { return dirtyFlushes.sum(); }
+        /** @return bytes read from DbFiles */
+        public long getBytesRead() { return bytesRead.sum(); }
+        /** @return bytes written to DbFiles */
+        public long getBytesWritten() { return bytesWritten.sum(); }
+        /** @return latency of getPage calls */
+        public LatencyHistogram getPageLatency() { return getPageLatency; }
+        /** @return latency of DbFile reads */
+        public LatencyHistogram getReadLatency() { return readLatency; }
+        /** @return latency of DbFile writes */
+        public LatencyHistogram getWriteLatency() { return writeLatency; }
+
+        /** @return hits / (hits + misses), or 0 before the first getPage */
+        public double getHitRatio() {
+            long h = getHits(), n = h + getMisses();
+            return n == 0 ? 0 : h / (double) n;
+        }
+    }
+
+    private static final int NUM_CATEGORIES = PageCategory.values().length;
+
+    // per table, one Counters per PageCategory
+    private final ConcurrentHashMap<Integer, Counters[]> _tables = new ConcurrentHashMap<>();
+
+    private Counters counters(PageId pid) {
+        Counters[] table = _tables.get(pid.getTableId());
+        if (table == null) {
+            Counters[] fresh = new Counters[NUM_CATEGORIES];
+            for (int i = 0; i < NUM_CATEGORIES; i++)
+                fresh[i] = new Counters();
+            table = _tables.putIfAbsent(pid.getTableId(), fresh);
+            if (table == null)
+                table = fresh;
+        }
+        return table[PageCategory.of(pid).ordinal()];
+    }
+
+    void recordHit(PageId pid, long nanos) {
+        Counters c = counters(pid);
+        c.hits.increment();
+        c.getPageLatency.record(nanos);
+    }
+
+    void recordMiss(PageId pid, long nanos) {
+        Counters c = counters(pid);
+        c.misses.increment();
+        c.getPageLatency.record(nanos);
+    }
+
+    void recordOffHeapHit(PageId pid) {
+        counters(pid).offHeapHits.increment();
+    }
+
+    void recordPrefetch(PageId pid) {
+        counters(pid).prefetches.increment();
+    }
+
+    void recordEviction(PageId pid) {
+        counters(pid).evictions.increment();
+    }
+
+    void recordRead(PageId pid, long nanos) {
+        Counters c = counters(pid);
+        c.bytesRead.add(pageBytes(pid));
+        c.readLatency.record(nanos);
+    }
+
+    void recordWrite(PageId pid, long nanos) {
+        Counters c = counters(pid);
+        c.dirtyFlushes.increment();
+        c.bytesWritten.add(pageBytes(pid));
+        c.writeLatency.record(nanos);
+    }
+
+    /** @return the size of the page on disk */
+    private static int pageBytes(PageId pid) {
+        if (PageCategory.of(pid) == PageCategory.BTREE_ROOT_PTR)
+            return BTreeRootPtrPage.getPageSize();
+        return BufferPool.getPageSize();
+    }
+
+    /** @return a snapshot of the counters of one table and page category */
+    public Counters get(int tableId, PageCategory category) {
+        Counters sum = new Counters();
+        Counters[] table = _tables.get(tableId);
+        if (table != null)
+            sum.add(table[category.ordinal()]);
+        return sum;
+    }
+
+    /** @return a snapshot of the counters of one table, over all page categories */
+    public Counters getTable(int tableId) {
+        Counters sum = new Counters();
+        Counters[] table = _tables.get(tableId);
+        if (table != null) {
+            for (Counters c : table)
+                sum.add(c);
+        }
+        return sum;
+    }
+
+    /** @return a snapshot of the counters of one page category, over all tables */
+    public Counters getCategory(PageCategory category) {
+        Counters sum = new Counters();
+        for (Counters[] table : _tables.values())
+            sum.add(table[category.ordinal()]);
+        return sum;
+    }
+
+    /** @return a snapshot of the counters over all tables and page categories */
+    public Counters getTotal() {
+        Counters sum = new Counters();
+        for (Counters[] table : _tables.values()) {
+            for (Counters c : table)
+                sum.add(c);
+        }
+        return sum;
+    }
+
+    /** @return the ids of the tables that have pages recorded */
+    public Set<Integer> getTableIds() {
+        return new TreeSet<Integer>(_tables.keySet());
+    }
+
+    /** Starts counting from zero. */
+    public void reset() {
+        _tables.clear();
+    }
+
+    /**
+     * @return a table with one row per table and page category that saw any
+     * activity, followed by the totals
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-20s %-15s %9s %9s %6s %9s %9s %10s %10s %14s %14s %14s%n",
+                "table", "category", "hits", "misses", "hit%", "evicted", "flushed",
+                "read KB", "written KB", "getPage p50/99", "read p50/99", "write p50/99"));
+        for (int tableId : getTableIds()) {
+            String name;
+            try {
+                name = Database.getCatalog().getTableName(tableId);
+            } catch (RuntimeException e) {
+                name = Integer.toString(tableId);
+            }
+            for (PageCategory category : PageCategory.values()) {
+                Counters c = get(tableId, category);
+                if (c.getHits() + c.getMisses() + c.getPrefetches() + c.getDirtyFlushes() + c.getEvictions() > 0)
+                    dumpRow(sb, name, category.toString(), c);
+            }
+        }
+        dumpRow(sb, "total", "", getTotal());
+        sb.append("latencies are upper bounds in microseconds\n");
+        return sb.toString();
+    }
+
+    private static void dumpRow(StringBuilder sb, String table, String category, Counters c) {
+        sb.append(String.format("%-20s %-15s %9d %9d %6.1f %9d %9d %10d %10d %14s %14s %14s%n",
+                table.length() > 20 ? table.substring(0, 20) : table, category,
+                c.getHits(), c.getMisses(), 100 * c.getHitRatio(), c.getEvictions(), c.getDirtyFlushes(),
+                c.getBytesRead() / 1024, c.getBytesWritten() / 1024,
+                percentiles(c.getPageLatency()), percentiles(c.getReadLatency()),
+                percentiles(c.getWriteLatency())));
+    }
+
+    private static String percentiles(LatencyHistogram h) {
+        if (h.getCount() == 0)
+            return "-";
+        return String.format("%d/%d", h.getPercentileNanos(0.5) / 1000, h.getPercentileNanos(0.99) / 1000);
+    }
+}
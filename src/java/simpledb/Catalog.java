@@ -147,15 +147,27 @@ public class Catalog {
         return _tableMap.get(id)._tableName;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog and close their files */
     public void clear() {
         // some code goes here
+        for (TableInfo info : _tableMap.values()) {
+            try {
+                info._dbFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         _tableName2IdMap.clear();
         _tableMap.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes a table as name (field type, field type, ...),
+     * optionally followed by the page format of its HeapFile, fixed (the
+     * default), slotted for variable-length records or columnar to store
+     * fields column by column, and by compressed
+     * to keep the table in a CompressedHeapFile.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -193,10 +205,25 @@ public class Catalog {
                         }
                     }
                 }
+                HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+                boolean compressed = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().toLowerCase().split("\\s+")) {
+                    if (option.equals("slotted"))
+                        format = HeapFile.PageFormat.SLOTTED;
+                    else if (option.equals("columnar"))
+                        format = HeapFile.PageFormat.COLUMNAR;
+                    else if (option.equals("compressed"))
+                        compressed = true;
+                    else if (!option.equals("") && !option.equals("fixed")) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf = compressed ? new CompressedHeapFile(tabFile, t, format) : new HeapFile(tabFile, t, format);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit on a circular list
+ * with one reference bit each; a hit only sets the bit. To evict, the hand
+ * sweeps the circle, clearing set bits, and takes the first page whose bit
+ * is already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        boolean referenced;
+        Frame prev;
+        Frame next;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final HashMap<PageId, Frame> _frames;
+    private Frame _hand; // next frame to inspect, null when empty
+
+    public ClockPolicy() {
+        this._frames = new HashMap<>();
+        this._hand = null;
+    }
+
+    public void recordInsert(PageId pid) {
+        if (_frames.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        Frame f = new Frame(pid);
+        _frames.put(pid, f);
+        if (_hand == null) {
+            f.prev = f;
+            f.next = f;
+            _hand = f;
+        } else {
+            // insert just behind the hand, so a new page gets a full sweep
+            f.prev = _hand.prev;
+            f.next = _hand;
+            _hand.prev.next = f;
+            _hand.prev = f;
+        }
+    }
+
+    public void recordAccess(PageId pid) {
+        Frame f = _frames.get(pid);
+        if (f != null)
+            f.referenced = true;
+    }
+
+    public void recordRemove(PageId pid) {
+        Frame f = _frames.remove(pid);
+        if (f != null)
+            unlink(f);
+    }
+
+    public PageId evict() {
+        if (_hand == null)
+            return null;
+        while (_hand.referenced) {
+            _hand.referenced = false;
+            _hand = _hand.next;
+        }
+        Frame victim = _hand;
+        _frames.remove(victim.pid);
+        unlink(victim);
+        return victim.pid;
+    }
+
+    /**
+     * The pages the hand would take in turn: from the hand round the
+     * circle, first those whose bit is clear and then, as the sweep would
+     * have cleared them, those whose bit is set.
+     */
+    public Iterator<PageId> candidates() {
+        final Frame start = _hand;
+        return new Iterator<PageId>() {
+            private Frame _at = start;
+            private int _pass = start == null ? 2 : 0;
+            private Frame _next = find();
+
+            private Frame find() {
+                while (_pass < 2) {
+                    Frame f = _at;
+                    boolean match = f.referenced == (_pass == 1);
+                    _at = f.next;
+                    if (_at == start)
+                        _pass++;
+                    if (match)
+                        return f;
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return _next != null;
+            }
+
+            public PageId next() {
+                if (_next == null)
+                    throw new NoSuchElementException();
+                PageId pid = _next.pid;
+                _next = find();
+                return pid;
+            }
+        };
+    }
+
+    /**
+     * Sweeps up to pid, clearing the bits it passes as evict() would, and
+     * takes pid. The hand stops at the first page passed over with its bit
+     * already clear, which stays the next candidate.
+     */
+    public void evict(PageId pid) {
+        Frame victim = _frames.remove(pid);
+        if (victim == null)
+            return;
+        Frame stop = null;
+        for (Frame f = _hand; f != victim; f = f.next) {
+            if (stop == null && !f.referenced)
+                stop = f;
+            f.referenced = false;
+        }
+        if (stop != null)
+            _hand = stop;
+        else
+            _hand = victim;
+        unlink(victim);
+    }
+
+    public int size() {
+        return _frames.size();
+    }
+
+    private void unlink(Frame f) {
+        if (f.next == f) {
+            _hand = null;
+        } else {
+            f.prev.next = f.next;
+            f.next.prev = f.prev;
+            if (_hand == f)
+                _hand = f.next;
+        }
+        f.prev = null;
+        f.next = null;
+    }
+}
@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ColumnarHeapPage is a page of a HeapFile in the columnar format, a PAX
+ * layout: the page holds as many fixed-size slots as a HeapPage, but stores
+ * the fields of its tuples column by column, so that a scan that needs a few
+ * columns of a wide table reads and decodes only those.
+ * <p>
+ * A page starts with the same used-slot bitmap as a HeapPage. A minipage per
+ * column follows, in the order of the table's fields, each holding that
+ * field of every slot back to back: column j of slot i is at
+ * <p>
+ *      header size + numSlots * (size of columns 0..j-1) + i * (size of column j)
+ * <p>
+ * Empty slots and the padding after the last minipage are zeros, so a page of
+ * zeros is empty.
+ * <p>
+ * The page keeps the bytes it was read from and changes them in place, and
+ * decodes a tuple only when an iterator returns it.
+ *
+ * @see HeapFile.PageFormat#COLUMNAR
+ */
+public class ColumnarHeapPage implements TuplePage {
+
+    private final HeapPageId _pid;
+    private final TupleDesc _td;
+    private final int _numSlots;
+    private final int _headerSize;
+    // where the minipage of each column starts in _data
+    private final int[] _columnOffsets;
+    // every column, for iterators over whole tuples
+    private final int[] _allColumns;
+    // the page in the format described above, header included
+    private final byte[] _data;
+    private int _usedSlots;
+
+    // contents before the first modification since the last setBeforeImage;
+    // null while the page is unmodified, the page itself is its before image then
+    private byte[] _oldData;
+    private final Object _oldDataLock = new Object();
+
+    private TransactionId _dirtier;
+
+    /**
+     * Create a ColumnarHeapPage from a page of bytes read from disk, in the
+     * format described above. The page keeps data and changes it in place,
+     * so it must not be used afterwards.
+     *
+     * @throws IOException if data is shorter than a page
+     */
+    public ColumnarHeapPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length < BufferPool.getPageSize())
+            throw new EOFException("page " + id + " is shorter than a page");
+        this._pid = id;
+        this._td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this._numSlots = (BufferPool.getPageSize() * 8) / (_td.getSize() * 8 + 1);
+        this._headerSize = (_numSlots + 7) / 8;
+        this._columnOffsets = new int[_td.numFields()];
+        this._allColumns = new int[_td.numFields()];
+        int offset = _headerSize;
+        for (int j = 0; j < _td.numFields(); j++) {
+            _columnOffsets[j] = offset;
+            _allColumns[j] = j;
+            offset += _numSlots * _td.getFieldType(j).getLen();
+        }
+        this._data = data;
+        for (int i = 0; i < _headerSize; i++)
+            _usedSlots += HeapPage.getPopCount(data[i] & 0xff);
+        // no before image yet: it is only taken when the page is first modified
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnarHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (_oldDataLock) {
+                oldDataRef = _oldData;
+            }
+            // the before image changes its bytes if it is modified, ours stay put
+            oldDataRef = oldDataRef == null ? getPageData() : oldDataRef.clone();
+            return new ColumnarHeapPage(_pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * The current contents become the before image. They are only copied
+     * when the page is next modified, see captureBeforeImage.
+     */
+    public void setBeforeImage() {
+        synchronized (_oldDataLock) {
+            _oldData = null;
+        }
+    }
+
+    /**
+     * Copy-on-first-write: called before every modification, saves the
+     * contents of the page unless an earlier modification already did.
+     */
+    private void captureBeforeImage() {
+        synchronized (_oldDataLock) {
+            if (_oldData == null)
+                _oldData = getPageData();
+        }
+    }
+
+    public long getMemoryFootprint() {
+        // _pid, _td, _columnOffsets, _allColumns, _data, _oldData, _oldDataLock, _dirtier
+        // + _numSlots, _headerSize, _usedSlots
+        long size = MemoryFootprint.object(8 * MemoryFootprint.REFERENCE + 12)
+                + MemoryFootprint.object(0)
+                + 2 * MemoryFootprint.intArray(_columnOffsets.length)
+                + MemoryFootprint.byteArray(_data.length);
+        synchronized (_oldDataLock) {
+            if (_oldData != null)
+                size += MemoryFootprint.byteArray(_oldData.length);
+        }
+        return size;
+    }
+
+    public HeapPageId getId() {
+        return _pid;
+    }
+
+    public byte[] getPageData() {
+        return Arrays.copyOf(_data, BufferPool.getPageSize());
+    }
+
+    public void writePageData(ByteBuffer out) {
+        out.put(_data, 0, BufferPool.getPageSize());
+    }
+
+    /** @return the offset in the page of column j of slot i */
+    private int fieldOffset(int i, int j) {
+        return _columnOffsets[j] + i * _td.getFieldType(j).getLen();
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!_td.equals(t.getTupleDesc()))
+            throw new DbException(String.format("Tuple(%s) does not match the TupleDesc of ColumnarHeapPage(%s)", t, _pid));
+        if (_usedSlots == _numSlots)
+            throw new DbException(String.format("ColumnarHeapPage(%s) has no available slot", _pid));
+        int i = 0;
+        while (_data[i / 8] == (byte) 0xff)
+            i += 8;
+        while (isSlotUsed(i))
+            i++;
+        captureBeforeImage();
+        ByteBuffer bb = ByteBuffer.wrap(_data);
+        for (int j = 0; j < _td.numFields(); j++) {
+            bb.position(fieldOffset(i, j));
+            t.getField(j).serialize(bb);
+        }
+        _data[i / 8] |= 1 << (i % 8);
+        _usedSlots++;
+        t.setRecordId(new RecordId(_pid, i));
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        // the record id names the slot, no need to search for it
+        RecordId rid = t.getRecordId();
+        if (rid != null && _pid.equals(rid.getPageId())) {
+            int i = rid.tupleno();
+            if (i >= 0 && i < _numSlots && isSlotUsed(i)) {
+                captureBeforeImage();
+                _data[i / 8] &= ~(1 << (i % 8));
+                _usedSlots--;
+                // empty slots are zeros
+                for (int j = 0; j < _td.numFields(); j++) {
+                    int offset = fieldOffset(i, j);
+                    Arrays.fill(_data, offset, offset + _td.getFieldType(j).getLen(), (byte) 0);
+                }
+                return;
+            }
+        }
+        throw new DbException(String.format("Cannot find Tuple(%s) in ColumnarHeapPage(%s)", t, _pid));
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return hasFreeSpace();
+    }
+
+    public boolean hasFreeSpace() {
+        return _usedSlots < _numSlots;
+    }
+
+    /** @return the number of slots on this page, used or not */
+    public int getNumSlots() {
+        return _numSlots;
+    }
+
+    /** @return the number of empty slots on this page */
+    public int getNumEmptySlots() {
+        return _numSlots - _usedSlots;
+    }
+
+    /** @return true if the slot holds a tuple */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < _numSlots && (_data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        _dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return _dirtier;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return iterator(_allColumns, _td);
+    }
+
+    /**
+     * Decodes only the given columns: the returned tuples read nothing from
+     * the minipages of the others.
+     */
+    public Iterator<Tuple> iterator(final int[] columns, final TupleDesc projected) {
+        final ByteBuffer bb = ByteBuffer.wrap(_data);
+        return new Iterator<Tuple>() {
+            private int _next = advance(0);
+
+            private int advance(int from) {
+                while (from < _numSlots && !isSlotUsed(from))
+                    from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return _next < _numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(projected);
+                try {
+                    for (int k = 0; k < columns.length; k++) {
+                        bb.position(fieldOffset(_next, columns[k]));
+                        t.setField(k, _td.getFieldType(columns[k]).parse(bb));
+                    }
+                } catch (ParseException e) {
+                    e.printStackTrace();
+                    throw new NoSuchElementException("parsing error!");
+                }
+                t.setRecordId(new RecordId(_pid, _next));
+                _next = advance(_next + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
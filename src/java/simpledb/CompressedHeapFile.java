@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored compressed, for
+ * cold tables that are read far more than they are written. Pages are
+ * grouped in extents of consecutive pages, each compressed with Deflater,
+ * and an extent map next to the file maps logical page numbers to where
+ * their extent is stored (see CompressedPageStore). readPage decompresses
+ * into an ordinary page for the BufferPool, so only the bytes on disk
+ * change: fixed-slot pages, which are mostly zero padding, shrink to a
+ * fraction of their size, at the cost of the CPU time to compress and
+ * decompress them.
+ * <p>
+ * Writing a page compresses its whole extent again, so updates cost more
+ * than in a plain HeapFile. A compressed file cannot be memory mapped, and
+ * has no free space sidecar: which pages have empty slots is only known
+ * while it is open.
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private final CompressedPageStore _store;
+
+    /**
+     * Opens a compressed heap file with pages in the fixed format.
+     *
+     * @throws IOException if f is not empty and not a compressed heap file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) throws IOException {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Opens a compressed heap file with pages in the given format.
+     *
+     * @throws IOException if f is not empty and not a compressed heap file
+     */
+    public CompressedHeapFile(File f, TupleDesc td, PageFormat format) throws IOException {
+        this(f, td, format, new CompressedPageStore(f));
+    }
+
+    private CompressedHeapFile(File f, TupleDesc td, PageFormat format, CompressedPageStore store) {
+        super(f, td, format, store);
+        this._store = store;
+    }
+
+    /**
+     * @return the sidecar file in which a compressed heap file keeps its
+     * extent map. Whoever rewrites the file should delete it.
+     */
+    public static File getExtentMapFile(File f) {
+        return CompressedPageStore.sidecarOf(f);
+    }
+
+    /** @return the bytes the pages take on disk, free space between extents included */
+    public long getStoredBytes() {
+        return _store.storedBytes();
+    }
+
+    /** @return the compressed bytes read from disk since the file was opened */
+    @Override
+    public long getBytesRead() {
+        return _store.bytesRead();
+    }
+
+    /** @return the number of times the data file has been opened */
+    @Override
+    public int getNumFileOpens() {
+        return _store.numOpens();
+    }
+}
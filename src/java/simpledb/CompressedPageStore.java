@@ -0,0 +1,296 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageStore keeps the pages of a CompressedHeapFile in extents of
+ * EXTENT_PAGES consecutive pages. Each extent is compressed with Deflater as
+ * a unit and stored wherever it fits in the data file.
+ * <p>
+ * An extent map in a sidecar file (see {@link #sidecarOf(File)}) maps
+ * logical page numbers to extents. Its format is a header of four ints
+ * (magic, page size, pages per extent, number of pages) followed by one
+ * entry per extent: the extent's offset in the data file (a long), its
+ * compressed length and the bytes reserved for it. An extent that has never
+ * been written has length 0 and reads as zeros.
+ * <p>
+ * Writing a page compresses its whole extent again. The extent is never
+ * written over: it goes to free space, and its map entry is only updated
+ * after that, so a write that stops half way leaves the old extent intact.
+ * The space it leaves behind is then free for later writes. Free space is
+ * not recorded; it is the space between the extents when the store is
+ * opened. Reads decompress a whole extent, so a few recently used extents
+ * are kept decompressed, which lets a sequential scan decompress each extent
+ * once. Operations run one at a time.
+ */
+class CompressedPageStore {
+
+    /** Pages compressed together. */
+    static final int EXTENT_PAGES = 16;
+
+    private static final int MAGIC = 0x48435a31; // "HCZ1"
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 16;
+    /** Extents kept decompressed. */
+    private static final int CACHED_EXTENTS = 8;
+    /** Reservations are rounded up to a multiple of this many bytes. */
+    private static final int ALIGNMENT = 512;
+
+    private final PositionalFile _data;
+    private final PositionalFile _map;
+    private final int _pageSize;
+    private int _numPages;
+    // per extent: offset in the data file, compressed length, bytes reserved
+    private long[] _offsets = new long[0];
+    private int[] _lengths = new int[0];
+    private int[] _capacities = new int[0];
+    // the first byte after the last reservation
+    private long _end;
+    // free space before _end, by offset: the number of bytes free there
+    private final TreeMap<Long, Integer> _free = new TreeMap<Long, Integer>();
+
+    private final Deflater _deflater = new Deflater();
+    private final Inflater _inflater = new Inflater();
+    private byte[] _compressed = new byte[0];
+    private long _bytesRead;
+
+    // most recently used extents, decompressed
+    private final LinkedHashMap<Integer, byte[]> _cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > CACHED_EXTENTS;
+        }
+    };
+
+    /**
+     * Opens the store of a data file through its extent map, or starts an
+     * empty store if the data file is empty.
+     *
+     * @throws IOException if the data file is not empty and has no extent
+     * map, or the map is for a different page size
+     */
+    CompressedPageStore(File dataFile) throws IOException {
+        File sidecar = sidecarOf(dataFile);
+        this._data = new PositionalFile(dataFile);
+        this._map = new PositionalFile(sidecar);
+        this._pageSize = BufferPool.getPageSize();
+        if (sidecar.length() < HEADER_SIZE) {
+            if (dataFile.length() > 0)
+                throw new IOException(dataFile + " has no extent map, it is not a compressed heap file");
+            return;
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        _map.read(0, header, HEADER_SIZE);
+        ByteBuffer bb = ByteBuffer.wrap(header);
+        if (bb.getInt() != MAGIC || bb.getInt() != _pageSize || bb.getInt() != EXTENT_PAGES)
+            throw new IOException(sidecar + " is not an extent map for pages of " + _pageSize + " bytes");
+        _numPages = bb.getInt();
+        int extents = (_numPages + EXTENT_PAGES - 1) / EXTENT_PAGES;
+        byte[] entries = new byte[extents * ENTRY_SIZE];
+        if (_map.read(HEADER_SIZE, entries, entries.length) < entries.length)
+            throw new IOException(sidecar + " is truncated");
+        grow(extents);
+        bb = ByteBuffer.wrap(entries);
+        TreeMap<Long, Integer> used = new TreeMap<Long, Integer>();
+        for (int e = 0; e < extents; e++) {
+            _offsets[e] = bb.getLong();
+            _lengths[e] = bb.getInt();
+            _capacities[e] = bb.getInt();
+            if (_capacities[e] > 0)
+                used.put(_offsets[e], _capacities[e]);
+        }
+        for (Map.Entry<Long, Integer> u : used.entrySet()) {
+            if (u.getKey() > _end)
+                _free.put(_end, (int) (u.getKey() - _end));
+            _end = Math.max(_end, u.getKey() + u.getValue());
+        }
+    }
+
+    /** @return the sidecar file holding the extent map of a data file */
+    static File sidecarOf(File dataFile) {
+        return new File(dataFile.getPath() + ".extents");
+    }
+
+    /** @return the number of pages in the store */
+    synchronized int numPages() {
+        return _numPages;
+    }
+
+    /** @return the bytes up to the end of the last extent, free space between extents included */
+    synchronized long storedBytes() {
+        return _end;
+    }
+
+    /** @return the compressed bytes read from the data file so far */
+    synchronized long bytesRead() {
+        return _bytesRead;
+    }
+
+    /** @return the number of times the data file has been opened */
+    int numOpens() {
+        return _data.getNumOpens();
+    }
+
+    /** Closes the data file and the extent map; they are opened again on use. */
+    synchronized void close() throws IOException {
+        _data.close();
+        _map.close();
+    }
+
+    private void grow(int extents) {
+        if (extents <= _offsets.length)
+            return;
+        _offsets = Arrays.copyOf(_offsets, extents);
+        _lengths = Arrays.copyOf(_lengths, extents);
+        _capacities = Arrays.copyOf(_capacities, extents);
+    }
+
+    /**
+     * Reads a page into page; pages past the end read as zeros.
+     */
+    synchronized void read(int pgNo, byte[] page) throws IOException {
+        if (pgNo >= _numPages) {
+            Arrays.fill(page, (byte) 0);
+            return;
+        }
+        byte[] extent = extent(pgNo / EXTENT_PAGES);
+        System.arraycopy(extent, (pgNo % EXTENT_PAGES) * _pageSize, page, 0, Math.min(page.length, _pageSize));
+    }
+
+    /**
+     * @return extent e decompressed, from the cache if it is there
+     */
+    private byte[] extent(int e) throws IOException {
+        byte[] extent = _cache.get(e);
+        if (extent != null)
+            return extent;
+        extent = new byte[EXTENT_PAGES * _pageSize];
+        if (e < _lengths.length && _lengths[e] > 0) {
+            byte[] compressed = new byte[_lengths[e]];
+            if (_data.read(_offsets[e], compressed, compressed.length) < compressed.length)
+                throw new IOException("extent " + e + " is truncated");
+            _bytesRead += compressed.length;
+            _inflater.reset();
+            _inflater.setInput(compressed);
+            try {
+                int n = 0;
+                while (!_inflater.finished() && n < extent.length) {
+                    int inflated = _inflater.inflate(extent, n, extent.length - n);
+                    if (inflated == 0 && (_inflater.needsInput() || _inflater.needsDictionary()))
+                        throw new IOException("extent " + e + " is corrupt");
+                    n += inflated;
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("extent " + e + " is corrupt: " + ex.getMessage());
+            }
+        }
+        _cache.put(e, extent);
+        return extent;
+    }
+
+    /**
+     * Writes n consecutive pages starting at page firstPage, taken from
+     * pages starting at offset off. Every extent they touch is compressed
+     * and written once.
+     */
+    synchronized void write(int firstPage, byte[] pages, int off, int n) throws IOException {
+        int oldNumPages = _numPages;
+        int pgNo = firstPage;
+        int done = 0;
+        while (done < n) {
+            int e = pgNo / EXTENT_PAGES;
+            int inExtent = pgNo % EXTENT_PAGES;
+            int count = Math.min(n - done, EXTENT_PAGES - inExtent);
+            // a write of the whole extent need not read it first
+            byte[] extent = count == EXTENT_PAGES ? new byte[EXTENT_PAGES * _pageSize] : extent(e);
+            System.arraycopy(pages, off + done * _pageSize, extent, inExtent * _pageSize, count * _pageSize);
+            _cache.put(e, extent);
+            _numPages = Math.max(_numPages, pgNo + count);
+            store(e, extent);
+            pgNo += count;
+            done += count;
+        }
+        if (_numPages != oldNumPages) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(_pageSize).putInt(EXTENT_PAGES).putInt(_numPages);
+            _map.write(0, header.array());
+        }
+    }
+
+    /**
+     * Compresses the pages of extent e that are in the store, writes them
+     * where they fit and records where in the extent map.
+     */
+    private void store(int e, byte[] extent) throws IOException {
+        int length = Math.min(EXTENT_PAGES, _numPages - e * EXTENT_PAGES) * _pageSize;
+        _deflater.reset();
+        _deflater.setInput(extent, 0, length);
+        _deflater.finish();
+        int n = 0;
+        while (!_deflater.finished()) {
+            if (n == _compressed.length)
+                _compressed = Arrays.copyOf(_compressed, Math.max(4096, 2 * _compressed.length));
+            n += _deflater.deflate(_compressed, n, _compressed.length - n);
+        }
+
+        grow(e + 1);
+        int capacity = (n + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        long offset = allocate(capacity);
+        _data.write(offset, _compressed, n);
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(offset).putInt(n).putInt(capacity);
+        _map.write(HEADER_SIZE + (long) e * ENTRY_SIZE, entry.array());
+
+        release(_offsets[e], _capacities[e]);
+        _offsets[e] = offset;
+        _lengths[e] = n;
+        _capacities[e] = capacity;
+    }
+
+    /**
+     * @return the offset of bytes of free space, the first that fit or at
+     * the end of the file
+     */
+    private long allocate(int bytes) {
+        for (Map.Entry<Long, Integer> f : _free.entrySet()) {
+            long offset = f.getKey();
+            int free = f.getValue();
+            if (free >= bytes) {
+                _free.remove(offset);
+                if (free > bytes)
+                    _free.put(offset + bytes, free - bytes);
+                return offset;
+            }
+        }
+        long offset = _end;
+        _end += bytes;
+        return offset;
+    }
+
+    /** Frees the bytes at offset, merging them with free space next to them. */
+    private void release(long offset, int bytes) {
+        if (bytes == 0)
+            return;
+        Map.Entry<Long, Integer> before = _free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            _free.remove(before.getKey());
+            offset = before.getKey();
+            bytes += before.getValue();
+        }
+        Integer after = _free.remove(offset + bytes);
+        if (after != null)
+            bytes += after;
+        if (offset + bytes == _end)
+            _end = offset;
+        else
+            _free.put(offset, bytes);
+    }
+}
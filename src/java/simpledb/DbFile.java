@@ -19,6 +19,15 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Builds the specified page from its on-disk bytes, as readPage does
+     * after reading them. Used by the BufferPool to bring back pages it
+     * parked outside the Java heap.
+     *
+     * @throws IOException if the bytes cannot be parsed
+     */
+    public Page decodePage(PageId id, byte[] data) throws IOException;
+
     /**
      * Push the specified page to disk.
      *
@@ -59,6 +68,31 @@ public interface DbFile {
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Removes a batch of tuples from the file on behalf of the specified
+     * transaction. Files that can find a tuple's page from its RecordId
+     * should visit each affected page once; by default the tuples are
+     * deleted one at a time.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to delete, all stored in this file
+     * @return An ArrayList contain the pages that were modified
+     * @throws DbException if a tuple cannot be deleted or is not a member
+     *   of the file
+     */
+    default ArrayList<Page> deleteTuples(TransactionId tid, Collection<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (Tuple t : tuples) {
+            for (Page p : deleteTuple(tid, t)) {
+                // dirty right away, so later deletions cannot evict it unwritten
+                p.markDirty(true, tid);
+                dirtied.add(p);
+            }
+        }
+        return dirtied;
+    }
+
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
      * iterator must use {@link BufferPool#getPage}, rather than
@@ -88,4 +122,11 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the files this DbFile keeps open. It opens them again if it is
+     * used afterwards. The Catalog closes its files when it is cleared.
+     */
+    default void close() throws IOException {
+    }
 }
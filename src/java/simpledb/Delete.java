@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
@@ -10,6 +11,9 @@ public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Tuples are handed to the buffer pool in batches of this many. */
+    private static final int BATCH_SIZE = 4096;
+
     private TransactionId tid;
     private DbIterator child;
     private boolean called;
@@ -54,22 +58,25 @@ public class Delete extends Operator {
      *
      * @return A 1-field tuple containing the number of deleted records.
      * @see Database#getBufferPool
-     * @see BufferPool#deleteTuple
+     * @see BufferPool#deleteTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if(called){
             return null;
         }
-        // Delete child and increment count.
+        // Delete child in batches, so each page is visited once per batch.
         int count = 0;
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
         while(this.child.hasNext()){
-            Tuple t = this.child.next();
-            try{
-                Database.getBufferPool().deleteTuple(this.tid, t);
-            } catch (IOException e){
-                throw new DbException("IOException Detected");
-            } finally{
-                count++;
+            batch.add(this.child.next());
+            count++;
+            if (batch.size() == BATCH_SIZE || !this.child.hasNext()) {
+                try{
+                    Database.getBufferPool().deleteTuples(this.tid, batch);
+                } catch (IOException e){
+                    throw new DbException("IOException Detected");
+                }
+                batch.clear();
             }
         }
 
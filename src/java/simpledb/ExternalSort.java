@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts a stream of tuples that may not fit in memory. It reads
+ * its input in runs of about a given number of bytes of heap, see
+ * MemoryFootprint, and sorts each run in memory. If the input takes more than
+ * one run, each sorted run is spilled to a temporary file in the tuples'
+ * binary format, and the runs are merged as the sorted tuples are read.
+ * <p>
+ * A run being merged holds one tuple and a read buffer in memory, so at
+ * most as many runs as read buffers fit in the memory are merged at once,
+ * and no fewer than two. Longer lists of runs are first merged, oldest
+ * first, into longer runs, until the rest can be merged as the tuples are
+ * read. A run's file is only opened when its merge starts. Temporary files
+ * are deleted when the sort is closed or the merge reaches their end.
+ */
+class ExternalSort implements Iterator<Tuple> {
+
+    private static final int RUN_BUFFER_BYTES = 8192;
+    /** Runs merged at once at most, whatever the memory, to bound the open files. */
+    static final int MAX_FAN_IN = 64;
+
+    private final TupleDesc _td;
+    private final Comparator<Tuple> _comparator;
+    // the only run, while the input fitted in memory
+    private Iterator<Tuple> _inMemory;
+    // runs merged at once at most
+    private final int _fanIn;
+    // spilled runs by their next tuple
+    private final PriorityQueue<Run> _merge;
+    // runs not merged into a longer one yet, oldest first
+    private final ArrayDeque<Run> _runs = new ArrayDeque<Run>();
+    private int _numRuns;
+    private int _numPasses;
+
+    /** A sorted run in a temporary file, read one tuple ahead once opened. */
+    private class Run {
+        final File file;
+        final int count;
+        DataInputStream in;
+        int remaining;
+        Tuple head;
+
+        Run(File file, int count) {
+            this.file = file;
+            this.count = count;
+            this.remaining = count;
+        }
+
+        /** @return false if the run has no more tuples, and is closed then */
+        boolean advance() throws IOException {
+            if (in == null && remaining > 0)
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_BUFFER_BYTES));
+            if (remaining == 0) {
+                head = null;
+                close();
+                return false;
+            }
+            remaining--;
+            Tuple t = new Tuple(_td);
+            try {
+                for (int j = 0; j < _td.numFields(); j++)
+                    t.setField(j, _td.getFieldType(j).parse(in));
+            } catch (ParseException e) {
+                throw new IOException("run " + file + " is corrupt");
+            }
+            head = t;
+            return true;
+        }
+
+        void close() {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                // only deleting it matters
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads and sorts all of the input, which must be open.
+     *
+     * @param memoryBytes the heap a run may take
+     */
+    ExternalSort(DbIterator input, Comparator<Tuple> comparator, long memoryBytes)
+            throws DbException, TransactionAbortedException, IOException {
+        this(input, comparator, memoryBytes,
+                (int) Math.max(2, Math.min(MAX_FAN_IN, memoryBytes / RUN_BUFFER_BYTES)));
+    }
+
+    /**
+     * Reads and sorts all of the input, which must be open, merging at most
+     * fanIn runs at once.
+     */
+    ExternalSort(DbIterator input, Comparator<Tuple> comparator, long memoryBytes, int fanIn)
+            throws DbException, TransactionAbortedException, IOException {
+        if (fanIn < 2)
+            throw new IllegalArgumentException("cannot merge fewer than two runs at once");
+        this._td = input.getTupleDesc();
+        this._comparator = comparator;
+        this._fanIn = fanIn;
+        this._merge = new PriorityQueue<Run>(11, new Comparator<Run>() {
+            @Override
+            public int compare(Run a, Run b) {
+                return _comparator.compare(a.head, b.head);
+            }
+        });
+        try {
+            ArrayList<Tuple> run = new ArrayList<Tuple>();
+            long runBytes = 0;
+            while (input.hasNext()) {
+                Tuple t = input.next();
+                run.add(t);
+                runBytes += MemoryFootprint.tuple(t) + MemoryFootprint.REFERENCE;
+                if (runBytes >= memoryBytes) {
+                    spill(run);
+                    run = new ArrayList<Tuple>();
+                    runBytes = 0;
+                }
+            }
+            Collections.sort(run, comparator);
+            if (_runs.isEmpty()) {
+                _inMemory = run.iterator();
+                return;
+            }
+            if (!run.isEmpty())
+                spill(run);
+            while (_runs.size() > _fanIn)
+                mergePass();
+            startMerge(_runs.size());
+        } catch (IOException | DbException | TransactionAbortedException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sorts run and writes it to a temporary file.
+     */
+    private void spill(ArrayList<Tuple> run) throws IOException {
+        Collections.sort(run, _comparator);
+        _runs.add(write(run.iterator(), run.size()));
+        _numRuns++;
+    }
+
+    /** Writes count tuples to a new temporary file, as a run. */
+    private Run write(Iterator<Tuple> tuples, int count) throws IOException {
+        File file = File.createTempFile("sortrun", ".dat");
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            for (int i = 0; i < count; i++) {
+                Tuple t = tuples.next();
+                for (int j = 0; j < _td.numFields(); j++)
+                    t.getField(j).serialize(out);
+            }
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            file.delete();
+            throw e;
+        }
+        out.close();
+        return new Run(file, count);
+    }
+
+    /** Opens the n oldest runs and puts them into the merge. */
+    private void startMerge(int n) throws IOException {
+        Iterator<Run> it = _runs.iterator();
+        for (int i = 0; i < n; i++) {
+            Run r = it.next();
+            if (r.advance())
+                _merge.add(r);
+        }
+    }
+
+    /**
+     * Merges the fanIn oldest runs into one, which goes to the back of the
+     * list, so every run is merged about as often as the others.
+     */
+    private void mergePass() throws IOException {
+        startMerge(_fanIn);
+        int count = 0;
+        for (int i = 0; i < _fanIn; i++)
+            count += _runs.removeFirst().count;
+        Run merged;
+        try {
+            merged = write(this, count);
+        } finally {
+            // closes and deletes the inputs, if the merge stopped early too
+            for (Run r : _merge)
+                r.close();
+            _merge.clear();
+        }
+        _runs.addLast(merged);
+        _numPasses++;
+    }
+
+    /** @return the number of runs spilled to disk, 0 if the input fitted in memory */
+    int getNumRuns() {
+        return _numRuns;
+    }
+
+    /** @return the number of runs merged into longer runs before the tuples could be read */
+    int getNumMergePasses() {
+        return _numPasses;
+    }
+
+    public boolean hasNext() {
+        return _inMemory != null ? _inMemory.hasNext() : !_merge.isEmpty();
+    }
+
+    /**
+     * @throws NoSuchElementException if there are no more tuples, or a run
+     * could not be read back
+     */
+    public Tuple next() {
+        if (_inMemory != null)
+            return _inMemory.next();
+        Run r = _merge.poll();
+        if (r == null)
+            throw new NoSuchElementException();
+        Tuple t = r.head;
+        try {
+            if (r.advance())
+                _merge.add(r);
+        } catch (IOException e) {
+            throw new NoSuchElementException("cannot read sorted run: " + e.getMessage());
+        }
+        return t;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Deletes the runs that have not been read to their end. */
+    void close() {
+        for (Run r : _runs)
+            r.close();
+        _merge.clear();
+        _inMemory = null;
+    }
+}
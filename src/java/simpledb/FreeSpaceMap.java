@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have an empty slot, so
+ * that an insert can go straight to such a page instead of reading the file
+ * from the front until it finds one.
+ * <p>
+ * It is a bitmap with one bit per page, kept in a sidecar file next to the
+ * heap file (see {@link #sidecarOf(File)}) and written a byte at a time as
+ * pages fill up and free up. The format is a header of three ints (magic,
+ * page size, number of pages covered) followed by the bitmap. Pages it does
+ * not cover yet, e.g. in a heap file written before the sidecar existed, are
+ * assumed to have free space.
+ * <p>
+ * The map is a hint: a page wrongly marked free costs one page read before
+ * the insert moves on, and a page wrongly marked full (a deletion that was
+ * rolled back, say) only wastes its free slots until a deletion on it sets
+ * the bit again. Tools that rewrite a heap file delete its sidecar.
+ */
+class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d31; // "FSM1"
+    private static final int HEADER_SIZE = 12;
+
+    // the sidecar, or null for a map kept in memory only
+    private final PositionalFile _io;
+    private final BitSet _free = new BitSet();
+    // pages the map knows about; pages at or above it are assumed to have space
+    private int _numPages;
+
+    /**
+     * Loads the map of a heap file from its sidecar, or starts an empty map if
+     * there is none, or it was written for a different page size or for more
+     * pages than the heap file has.
+     *
+     * @param heapPages the number of pages in the heap file
+     */
+    FreeSpaceMap(File heapFile, int heapPages) {
+        File sidecar = sidecarOf(heapFile);
+        this._io = new PositionalFile(sidecar);
+        if (sidecar.length() < HEADER_SIZE)
+            return;
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            _io.read(0, header, HEADER_SIZE);
+            ByteBuffer bb = ByteBuffer.wrap(header);
+            if (bb.getInt() != MAGIC || bb.getInt() != BufferPool.getPageSize())
+                return;
+            int numPages = bb.getInt();
+            if (numPages > heapPages)
+                return;
+            byte[] bits = new byte[(numPages + 7) / 8];
+            _io.read(HEADER_SIZE, bits, bits.length);
+            for (int i = 0; i < numPages; i++) {
+                if ((bits[i / 8] & (1 << (i % 8))) != 0)
+                    _free.set(i);
+            }
+            _numPages = numPages;
+        } catch (IOException e) {
+            // unreadable, start over; the map is only a hint
+            _free.clear();
+            _numPages = 0;
+        }
+    }
+
+    /**
+     * Starts an empty map that is kept in memory only, for a heap file that
+     * has no sidecar. Every page is assumed to have space until it is found
+     * full.
+     */
+    FreeSpaceMap() {
+        this._io = null;
+    }
+
+    /** @return the sidecar file holding the free space map of a heap file */
+    static File sidecarOf(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * @param from the first page to consider
+     * @param numPages the number of pages in the heap file
+     * @return the first page at or after from that may have an empty slot, or
+     * -1 if every page from there on is known to be full
+     */
+    synchronized int nextFree(int from, int numPages) {
+        int page = _free.nextSetBit(from);
+        if (page < 0 || page >= _numPages)
+            page = Math.max(from, _numPages);
+        return page < numPages ? page : -1;
+    }
+
+    /**
+     * Records whether a page has an empty slot, and writes the change to the
+     * sidecar if it is one.
+     */
+    synchronized void setFree(int pgNo, boolean free) {
+        if (pgNo < _numPages && _free.get(pgNo) == free)
+            return;
+        setFree(pgNo, pgNo + 1, free);
+    }
+
+    /**
+     * Records whether the pages from (inclusive) to to (exclusive) have empty
+     * slots, with a single write to the sidecar.
+     */
+    synchronized void setFree(int from, int to, boolean free) {
+        if (from >= to)
+            return;
+        int oldNumPages = _numPages;
+        if (to > _numPages) {
+            // pages skipped over are unknown, so they may have space
+            if (from > _numPages)
+                _free.set(_numPages, from);
+            _numPages = to;
+        }
+        _free.set(from, to, free);
+        if (_io == null)
+            return;
+        try {
+            int firstByte = Math.min(oldNumPages, from) / 8;
+            byte[] bits = new byte[(to - 1) / 8 - firstByte + 1];
+            for (int i = 0; i < bits.length; i++) {
+                for (int b = 0; b < 8; b++) {
+                    if (_free.get((firstByte + i) * 8 + b))
+                        bits[i] |= 1 << b;
+                }
+            }
+            _io.write(HEADER_SIZE + firstByte, bits);
+            if (_numPages != oldNumPages) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(BufferPool.getPageSize()).putInt(_numPages);
+                _io.write(0, header.array());
+            }
+        } catch (IOException e) {
+            // the in-memory map is still right; a stale sidecar is only a hint
+            e.printStackTrace();
+        }
+    }
+
+    /** Closes the sidecar; it is opened again if the map changes. */
+    void close() throws IOException {
+        if (_io != null)
+            _io.close();
+    }
+}
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
 
 /**
@@ -9,18 +11,54 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A HeapFile can instead store its pages in the slotted format
+ * of SlottedHeapPage or the columnar format of ColumnarHeapPage, see
+ * {@link PageFormat}.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** The layouts a HeapFile can store its pages in. */
+    public enum PageFormat {
+        /** Fixed-size slots and a used-slot bitmap, see {@link HeapPage}. */
+        FIXED,
+        /** A slot directory and variable-length records, see {@link SlottedHeapPage}. */
+        SLOTTED,
+        /** Fixed-size slots stored column by column, see {@link ColumnarHeapPage}. */
+        COLUMNAR
+    }
+
     private File _file;
+    private final PageFormat _format;
+    // where the pages of a CompressedHeapFile live; null for a plain file
+    private final CompressedPageStore _compressed;
+    // one channel for all page reads and writes of a plain file, null if compressed
+    private final PositionalFile _io;
+    // pages that may have an empty slot, for inserts
+    private final FreeSpaceMap _freeSpace;
     private TupleDesc _td;
     private int _numPages;
     private long _fileSize;
 
+    /** An iterator starts reading ahead after this many steps to the next page. */
+    private static final int SEQUENTIAL_STEPS_BEFORE_READ_AHEAD = 1;
+
+    /** A bulk load fills this many pages in memory before appending them. */
+    private static final int BULK_LOAD_PAGES = 256;
+
+    /** The file is mapped in segments of this many bytes. */
+    private static final long MAP_SEGMENT_BYTES = 64L << 20;
+    // mapped segments of the file in memory mapped mode, null otherwise;
+    // an entry is null until its segment is first read
+    private volatile MappedByteBuffer[] _segments;
+    // whether pages decode their tuples only as they are read
+    private volatile boolean _lazyDecoding;
+
+    // page-sized buffer that each thread serializes pages into before writing them
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFER = new ThreadLocal<ByteBuffer>();
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -29,12 +67,41 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the given format.
+     *
+     * @throws IllegalArgumentException if the page size is too large for
+     * the format
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, null);
+    }
+
+    /**
+     * Constructs a heap file whose pages are kept in the given compressed
+     * store instead of at fixed offsets in f, if compressed is not null.
+     */
+    HeapFile(File f, TupleDesc td, PageFormat format, CompressedPageStore compressed) {
         // some code goes here
+        if (format == PageFormat.SLOTTED && BufferPool.getPageSize() > SlottedHeapPage.MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("slotted pages can be at most " + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
         this._file = f;
+        this._format = format;
+        this._compressed = compressed;
+        // a compressed file is read and written through its store only
+        this._io = compressed == null ? new PositionalFile(f) : null;
         this._td = td;
         // precalculate number of pages
         _fileSize = f.length();
-        this._numPages = (int) Math.ceil(_fileSize/BufferPool.getPageSize());
+        if (compressed != null)
+            this._numPages = compressed.numPages();
+        else
+            this._numPages = (int) Math.ceil(_fileSize/BufferPool.getPageSize());
+        this._freeSpace = compressed == null ? new FreeSpaceMap(f, _numPages) : new FreeSpaceMap();
     }
 
     /**
@@ -61,6 +128,30 @@ public class HeapFile implements DbFile {
         return _file.getAbsoluteFile().hashCode();
     }
 
+    /**
+     * @return the bytes readPage and scans have read from the file since it
+     *         was created; pages of memory-mapped scans are not counted
+     */
+    public long getBytesRead() {
+        return _io.getBytesRead();
+    }
+
+    /** @return the number of times the file has been opened since this HeapFile was created */
+    public int getNumFileOpens() {
+        return _io.getNumOpens();
+    }
+
+    /**
+     * Closes the channels of the file and its sidecars.
+     */
+    public void close() throws IOException {
+        if (_io != null)
+            _io.close();
+        _freeSpace.close();
+        if (_compressed != null)
+            _compressed.close();
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * 
@@ -71,45 +162,176 @@ public class HeapFile implements DbFile {
         return _td;
     }
 
+    /** @return the format of this file's pages */
+    public PageFormat getPageFormat() {
+        return _format;
+    }
+
+    // see DbFile.java for javadocs
+    public Page decodePage(PageId pid, byte[] data) throws IOException {
+        if (_format == PageFormat.SLOTTED)
+            return new SlottedHeapPage((HeapPageId) pid, data);
+        if (_format == PageFormat.COLUMNAR)
+            return new ColumnarHeapPage((HeapPageId) pid, data);
+        return new HeapPage((HeapPageId) pid, data, _lazyDecoding);
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         HeapPageId hpid = (HeapPageId) pid;
         int pgNo = hpid.pageNumber();
-        int fileOffset = pgNo * BufferPool.getPageSize();
+        long fileOffset = (long) pgNo * BufferPool.getPageSize();
         try {
-            RandomAccessFile fi = new RandomAccessFile(_file, "r");
+            if (_compressed != null) {
+                byte[] data = new byte[BufferPool.getPageSize()];
+                _compressed.read(pgNo, data);
+                return decodePage(hpid, data);
+            }
+            if (_segments != null) {
+                ByteBuffer mapped = mappedPage(pgNo);
+                if (mapped != null && _format == PageFormat.FIXED)
+                    return new HeapPage(hpid, mapped, _lazyDecoding);
+                if (mapped != null) {
+                    byte[] data = new byte[BufferPool.getPageSize()];
+                    mapped.get(data);
+                    return decodePage(hpid, data);
+                }
+            }
             byte[] data = new byte[BufferPool.getPageSize()];
-            int readLen = Math.min(BufferPool.getPageSize(), (int)(_fileSize - fileOffset));
-            fi.seek(fileOffset);
-            fi.read(data, 0, readLen);
-            fi.close();
+            // a short last page reads as zero padded
+            _io.read(fileOffset, data, data.length);
 
-            return new HeapPage(hpid, data);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            return decodePage(hpid, data);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Switches memory mapped reads on or off. When on, readPage decodes pages
+     * straight out of a read-only mapping of the file instead of reading them
+     * into a fresh byte array, which suits read-mostly tables. Writes still go
+     * through the file, and the mapping sees them. Pages appended since the
+     * file was mapped are mapped when they are first read. The file must not
+     * shrink while it is mapped.
+     *
+     * @throws UnsupportedOperationException if the file is compressed
+     */
+    public void setMemoryMapped(boolean mapped) {
+        if (mapped && _compressed != null)
+            throw new UnsupportedOperationException("a compressed heap file cannot be memory mapped");
+        _segments = mapped ? new MappedByteBuffer[0] : null;
+    }
+
+    /** @return true if readPage decodes pages from a mapping of the file */
+    public boolean isMemoryMapped() {
+        return _segments != null;
+    }
+
+    /**
+     * Switches lazy decoding on or off for pages read from now on; it only
+     * applies to the fixed page format. A lazy
+     * page keeps the bytes it was read from and creates a slot's tuple only
+     * when an iterator reaches it, and the tuple parses a field only when it
+     * is first read, so a scan that looks at a few columns of a few rows
+     * does not pay for materializing every field of every page.
+     */
+    public void setLazyDecoding(boolean lazy) {
+        _lazyDecoding = lazy;
+    }
+
+    /** @return true if pages read from this file decode their tuples lazily */
+    public boolean isLazyDecoding() {
+        return _lazyDecoding;
+    }
+
+    /**
+     * @return a view of the mapped bytes of the given page, or null if the
+     * page is not entirely in the file or straddles two segments, in which
+     * case it has to be read normally
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pgNo * pageSize;
+        int segment = (int) (offset / MAP_SEGMENT_BYTES);
+        int start = (int) (offset % MAP_SEGMENT_BYTES);
+        if (start + pageSize > MAP_SEGMENT_BYTES)
+            return null;
+        MappedByteBuffer[] segments = _segments;
+        if (segments == null)
+            return null;
+        MappedByteBuffer map = segment < segments.length ? segments[segment] : null;
+        if (map == null || map.capacity() < start + pageSize) {
+            map = remap(segment, start + pageSize);
+            if (map == null)
+                return null;
+        }
+        ByteBuffer view = map.duplicate();
+        view.limit(start + pageSize);
+        view.position(start);
+        return view;
+    }
+
+    /**
+     * Maps a segment again, now that the file has grown past what was mapped.
+     *
+     * @param minLength the number of bytes of the segment that are needed
+     * @return the new mapping, or null if the file is still too short
+     */
+    private synchronized MappedByteBuffer remap(int segment, int minLength) throws IOException {
+        MappedByteBuffer[] segments = _segments;
+        if (segments == null)
+            return null;
+        if (segment < segments.length && segments[segment] != null
+                && segments[segment].capacity() >= minLength)
+            return segments[segment]; // another reader got here first
+        long segmentStart = segment * MAP_SEGMENT_BYTES;
+        long length = Math.min(MAP_SEGMENT_BYTES, _file.length() - segmentStart);
+        if (length < minLength)
+            return null;
+        MappedByteBuffer map = _io.map(segmentStart, length);
+        segments = Arrays.copyOf(segments, Math.max(segments.length, segment + 1));
+        segments[segment] = map;
+        _segments = segments;
+        return map;
+    }
+
+    /**
+     * @return the sidecar file in which a heap file keeps the map of its pages
+     * with free slots. Whoever rewrites a heap file should delete it.
+     */
+    public static File getFreeSpaceMapFile(File heapFile) {
+        return FreeSpaceMap.sidecarOf(heapFile);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         HeapPageId hpid = (HeapPageId) page.getId();
         int pgNo = hpid.pageNumber();
-        int fileOffset = pgNo * BufferPool.getPageSize();
+        long fileOffset = (long) pgNo * BufferPool.getPageSize();
         try {
-            RandomAccessFile fi = new RandomAccessFile(_file, "rw");
-            byte[] data = page.getPageData();
-            fi.seek(fileOffset);
-            fi.write(data);
-            fi.close();
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            if (page instanceof TuplePage) {
+                ByteBuffer buf = WRITE_BUFFER.get();
+                if (buf == null || buf.capacity() != BufferPool.getPageSize()) {
+                    buf = ByteBuffer.allocate(BufferPool.getPageSize());
+                    WRITE_BUFFER.set(buf);
+                }
+                buf.clear();
+                ((TuplePage) page).writePageData(buf);
+                buf.flip();
+                if (_compressed != null)
+                    _compressed.write(pgNo, buf.array(), 0, 1);
+                else
+                    _io.write(fileOffset, buf);
+            } else if (_compressed != null) {
+                _compressed.write(pgNo, page.getPageData(), 0, 1);
+            } else {
+                _io.write(fileOffset, page.getPageData());
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -139,42 +361,177 @@ public class HeapFile implements DbFile {
 
         ArrayList<Page> dirtied_pages = new ArrayList<>();
 
-        // Find next available page in file
-        for (int i = 0; i < _numPages; i++) {
+        // Find next available page in file, skipping pages the free space map knows are full
+        for (int i = _freeSpace.nextFree(0, _numPages); i >= 0; i = _freeSpace.nextFree(i + 1, _numPages)) {
             HeapPageId hpid = new HeapPageId(getId(), i);
-            HeapPage curpage = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
+            TuplePage curpage = (TuplePage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
             // Debug.log("curpage(%s) avail slots: (%d/%d)", curpage.getId(), curpage.getNumEmptySlots(), curpage.numSlots);
-            if (curpage.getNumEmptySlots() > 0) {
+            if (curpage.hasRoomFor(t)) {
                 curpage.insertTuple(t);
                 dirtied_pages.add(curpage);
+                _freeSpace.setFree(i, curpage.hasFreeSpace());
                 break;
             }
+            // a slotted page without room for t may still take a smaller
+            // tuple, but not looking at it again is the cheaper mistake
+            _freeSpace.setFree(i, false);
         }
 
         // If can't find available page in file
         if (dirtied_pages.isEmpty()) {
+            // appends are serialized with bulkLoad
+            synchronized (this) {
 
-            // create a new page and insert tuple
-            HeapPageId newhpid = new HeapPageId(getId(), _numPages);
-            HeapPage newpage = new HeapPage(newhpid, HeapPage.createEmptyPageData());
-            newpage.insertTuple(t);
+                // create a new page and insert tuple
+                HeapPageId newhpid = new HeapPageId(getId(), _numPages);
+                TuplePage newpage = (TuplePage) decodePage(newhpid, HeapPage.createEmptyPageData());
+                newpage.insertTuple(t);
 
-            // Append it to the physical file on disk
-            writePage(newpage);
+                // Append it to the physical file on disk
+                writePage(newpage);
+                _freeSpace.setFree(newhpid.pageNumber(), newpage.hasFreeSpace());
 
-            // Update numpages and filesize accordingly
-            _fileSize = _file.length();
-            _numPages = (int) Math.ceil(_fileSize/BufferPool.getPageSize());
+                // Update numpages and filesize accordingly
+                _fileSize = _file.length();
+                _numPages = newhpid.pageNumber() + 1;
 
-            // Add to dirtied_pages list
-            dirtied_pages.add(newpage);
+                // Add to dirtied_pages list
+                dirtied_pages.add(newpage);
 
-            Debug.log("Writing to a new page! (new pg count: %d, %d)", _numPages, numPages());
+                Debug.log("Writing to a new page! (new pg count: %d, %d)", _numPages, numPages());
+            }
         }
 
         return dirtied_pages;
     }
 
+    /**
+     * Appends the tuples of an open iterator to new pages at the end of the
+     * file. Pages are laid out in memory and written BULK_LOAD_PAGES at a
+     * time with one sequential write, after which the page count and the free
+     * space map are updated once. Existing pages are left alone, however much
+     * room they have.
+     * <p>
+     * Like the page insertTuple appends, the new pages go to disk at once
+     * without passing through the buffer pool, so aborting tid does not undo
+     * the load.
+     *
+     * @param tid the transaction performing the load
+     * @param tuples the tuples to append; each gets its new RecordId
+     * @return the number of tuples appended
+     * @throws DbException if a tuple does not match this file's TupleDesc
+     */
+    public synchronized int bulkLoad(TransactionId tid, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        if (_format != PageFormat.FIXED)
+            return bulkLoadPages(tuples);
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = _td.getSize();
+        int numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+
+        byte[] chunk = new byte[BULK_LOAD_PAGES * pageSize];
+        final ByteBuffer out = ByteBuffer.wrap(chunk);
+        DataOutputStream dos = new DataOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                out.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                out.put(b, off, len);
+            }
+        });
+
+        int count = 0;
+        int pages = 0; // full pages in the chunk
+        int slot = 0; // next slot of the page being filled
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (!_td.equals(t.getTupleDesc()))
+                throw new DbException(String.format("Tuple(%s) does not match the TupleDesc of HeapFile(%s)", t, getId()));
+            if (slot == numSlots) {
+                slot = 0;
+                if (++pages == BULK_LOAD_PAGES) {
+                    appendPages(chunk, pages, false);
+                    Arrays.fill(chunk, (byte) 0);
+                    pages = 0;
+                }
+            }
+            int page = pages * pageSize;
+            chunk[page + slot / 8] |= 1 << (slot % 8);
+            out.position(page + headerSize + slot * tupleSize);
+            for (int j = 0; j < _td.numFields(); j++)
+                t.getField(j).serialize(dos);
+            t.setRecordId(new RecordId(new HeapPageId(getId(), _numPages + pages), slot));
+            slot++;
+            count++;
+        }
+        if (slot > 0)
+            appendPages(chunk, pages + 1, slot < numSlots);
+        return count;
+    }
+
+    /**
+     * bulkLoad for formats other than FIXED: fills page objects
+     * and serializes each into the chunk once it has no room for the next
+     * tuple. The caller holds this file's monitor.
+     */
+    private int bulkLoadPages(DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] chunk = new byte[BULK_LOAD_PAGES * pageSize];
+        ByteBuffer out = ByteBuffer.wrap(chunk);
+
+        int count = 0;
+        int pages = 0; // full pages in the chunk
+        TuplePage page = null; // the page being filled
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (!_td.equals(t.getTupleDesc()))
+                throw new DbException(String.format("Tuple(%s) does not match the TupleDesc of HeapFile(%s)", t, getId()));
+            if (page != null && !page.hasRoomFor(t)) {
+                out.position(pages * pageSize);
+                page.writePageData(out);
+                page = null;
+                if (++pages == BULK_LOAD_PAGES) {
+                    appendPages(chunk, pages, false);
+                    pages = 0;
+                }
+            }
+            if (page == null) {
+                HeapPageId pid = new HeapPageId(getId(), _numPages + pages);
+                page = (TuplePage) decodePage(pid, HeapPage.createEmptyPageData());
+            }
+            page.insertTuple(t);
+            count++;
+        }
+        if (page != null) {
+            out.position(pages * pageSize);
+            page.writePageData(out);
+            appendPages(chunk, pages + 1, page.hasFreeSpace());
+        }
+        return count;
+    }
+
+    /**
+     * Writes the first n pages of chunk at the end of the file and accounts
+     * for them. The caller holds this file's monitor.
+     */
+    private void appendPages(byte[] chunk, int n, boolean lastHasSpace) throws IOException {
+        int first = _numPages;
+        if (_compressed != null)
+            _compressed.write(first, chunk, 0, n);
+        else
+            _io.write((long) first * BufferPool.getPageSize(), chunk, n * BufferPool.getPageSize());
+        _freeSpace.setFree(first, first + n - (lastHasSpace ? 1 : 0), false);
+        if (lastHasSpace)
+            _freeSpace.setFree(first + n - 1, true);
+        _numPages = first + n;
+        _fileSize = _file.length();
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -183,41 +540,93 @@ public class HeapFile implements DbFile {
 
         ArrayList<Page> dirtied_pages = new ArrayList<>();
 
-        // Traverse page to find page that contains the tuple to delete
-        for (int i = 0; i < _numPages; i++) {
-            HeapPageId hpid = new HeapPageId(getId(), i);
-            HeapPage curpage = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
-            try {
-                curpage.deleteTuple(t);
-                dirtied_pages.add(curpage);
-                return dirtied_pages;
-            } catch (DbException e) {
-                continue;
+        // the record id tells which page holds the tuple
+        HeapPageId hpid = pageOf(t);
+        TuplePage curpage = (TuplePage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
+        curpage.deleteTuple(t);
+        dirtied_pages.add(curpage);
+        _freeSpace.setFree(hpid.pageNumber(), true);
+        return dirtied_pages;
+    }
+
+    /**
+     * Deletes a batch of tuples, visiting each affected page once and in
+     * file order. Every tuple is checked to belong to this file before any
+     * is deleted.
+     */
+    @Override
+    public ArrayList<Page> deleteTuples(TransactionId tid, Collection<Tuple> tuples) throws DbException,
+            TransactionAbortedException {
+        TreeMap<Integer, ArrayList<Tuple>> byPage = new TreeMap<>();
+        for (Tuple t : tuples) {
+            int pgNo = pageOf(t).pageNumber();
+            ArrayList<Tuple> onPage = byPage.get(pgNo);
+            if (onPage == null) {
+                onPage = new ArrayList<>();
+                byPage.put(pgNo, onPage);
             }
+            onPage.add(t);
         }
 
-        if (dirtied_pages.isEmpty())
-            throw new DbException(String.format("Tuple(%s) cannot be find anywhere in HeapFile(%s)", t.toString(), getId()));
-
+        ArrayList<Page> dirtied_pages = new ArrayList<>();
+        for (Map.Entry<Integer, ArrayList<Tuple>> e : byPage.entrySet()) {
+            HeapPageId hpid = new HeapPageId(getId(), e.getKey());
+            TuplePage curpage = (TuplePage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
+            for (Tuple t : e.getValue())
+                curpage.deleteTuple(t);
+            // mark it now: reading the next pages may evict it before the
+            // buffer pool gets to cache the batch, and a clean page would be dropped
+            curpage.markDirty(true, tid);
+            dirtied_pages.add(curpage);
+            _freeSpace.setFree(e.getKey(), true);
+        }
         return dirtied_pages;
     }
 
+    /**
+     * @return the page of this file the tuple's record id points to
+     * @throws DbException if the tuple has no record id or it points elsewhere
+     */
+    private HeapPageId pageOf(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || rid.getPageId().pageNumber() < 0 || rid.getPageId().pageNumber() >= _numPages)
+            throw new DbException(String.format("Tuple(%s) cannot be find anywhere in HeapFile(%s)", t.toString(), getId()));
+        return new HeapPageId(getId(), rid.getPageId().pageNumber());
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that holds only the
+     * given columns of each, in that order. The tuples have a TupleDesc with
+     * those fields of this file's and keep their RecordIds. Pages in the
+     * columnar format decode only those columns, and lazily decoded pages
+     * only those fields.
+     *
+     * @param columns the indexes of the fields to keep, or null for all
+     * @throws IllegalArgumentException if a column is not a field of the file
+     */
+    public DbFileIterator iterator(final TransactionId tid, final int[] columns) {
+        final TupleDesc projected = columns == null ? _td : project(columns);
         return new DbFileIterator() {
 
             private boolean _isOpen = false;
-            private HeapPage _curPage = null;
+            private TuplePage _curPage = null;
             private Iterator<Tuple> _cursor = null;
+            // consecutive page-to-page steps taken so far, and the first page not yet prefetched
+            private int _sequentialSteps = 0;
+            private int _nextPrefetch = 0;
 
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
                 _isOpen = true;
-                HeapPageId hpid = new HeapPageId(getId(), 0);
-                _curPage = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
-                _cursor = _curPage.iterator();
+                startAt(0);
             }
 
             @Override
@@ -233,13 +642,45 @@ public class HeapFile implements DbFile {
                     if (nextPageNum == _numPages)
                         return false;
 
+                    _sequentialSteps++;
+                    readAhead(nextPageNum);
                     HeapPageId hpid = new HeapPageId(getId(), nextPageNum);
-                    _curPage = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
-                    _cursor = _curPage.iterator();
+                    _curPage = (TuplePage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
+                    _cursor = cursor(_curPage);
                     return _cursor.hasNext();
                 }
             }
 
+            /**
+             * Once the scan has moved on from its first page it is reading the
+             * file sequentially, so keep the next few pages after pgNo on their
+             * way into the BufferPool while the tuples of pgNo are consumed.
+             */
+            private void readAhead(int pgNo) {
+                if (_sequentialSteps < SEQUENTIAL_STEPS_BEFORE_READ_AHEAD)
+                    return;
+                BufferPool bp = Database.getBufferPool();
+                int end = Math.min(_numPages, pgNo + 1 + bp.getReadAheadPages());
+                for (int p = Math.max(_nextPrefetch, pgNo + 1); p < end; p++) {
+                    // the pool is under pressure, try again from here on the next page
+                    if (!bp.prefetchPage(new HeapPageId(getId(), p)))
+                        return;
+                    _nextPrefetch = p + 1;
+                }
+            }
+
+            private void startAt(int pgNo) throws DbException, TransactionAbortedException {
+                _sequentialSteps = 0;
+                _nextPrefetch = 0;
+                HeapPageId hpid = new HeapPageId(getId(), pgNo);
+                _curPage = (TuplePage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
+                _cursor = cursor(_curPage);
+            }
+
+            private Iterator<Tuple> cursor(TuplePage page) {
+                return columns == null ? page.iterator() : page.iterator(columns, projected);
+            }
+
             @Override
             public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
                 if (hasNext()) {
@@ -251,9 +692,7 @@ public class HeapFile implements DbFile {
 
             @Override
             public void rewind() throws DbException, TransactionAbortedException {
-                HeapPageId hpid = new HeapPageId(getId(), 0);
-                _curPage = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
-                _cursor = _curPage.iterator();
+                startAt(0);
             }
 
             @Override
@@ -265,5 +704,20 @@ public class HeapFile implements DbFile {
         };
     }
 
-}
+    /**
+     * @return the TupleDesc of the given fields of this file's, in that order
+     * @throws IllegalArgumentException if a column is not a field of the file
+     */
+    private TupleDesc project(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            if (columns[k] < 0 || columns[k] >= _td.numFields())
+                throw new IllegalArgumentException("HeapFile(" + getId() + ") has no column " + columns[k]);
+            types[k] = _td.getFieldType(columns[k]);
+            names[k] = _td.getFieldName(columns[k]);
+        }
+        return new TupleDesc(types, names);
+    }
 
+}
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 import static java.lang.Math.ceil;
 
@@ -13,16 +15,21 @@ import static java.lang.Math.ceil;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    // the page as read, in lazy mode: a used slot's tuple is only created
+    // when first asked for, and its fields when first read; null otherwise
+    final byte[] rawData;
 
+    // contents before the first modification since the last setBeforeImage;
+    // null while the page is unmodified, the page itself is its before image then
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
 
     private TransactionId _dirtier;
     private boolean _is_dirty;
@@ -44,29 +51,78 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a HeapPage from a set of bytes of data read from disk, decoding
+     * the tuples up front or, in lazy mode, only as they are used. A lazy
+     * page keeps data, which must not be changed afterwards.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, byte[] data, boolean lazy) throws IOException {
+        this(id, ByteBuffer.wrap(data), lazy);
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the buffer's position and its
+     * limit, in the format described above. The buffer's position is left
+     * unchanged, and the page keeps no reference to it, so it may be a view
+     * of a memory mapped file.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the buffer's position and its
+     * limit, decoding the tuples up front or, in lazy mode, only as they are
+     * used. A lazy page copies the bytes unless the buffer wraps a whole array.
+     *
+     * @see #HeapPage(HeapPageId, byte[], boolean)
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data, boolean lazy) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
         this._is_dirty = false;
         this._dirtier = null;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        ByteBuffer bb = data.slice();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        try {
+            bb.get(header);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("page " + id + " is shorter than its header");
+        }
+
         tuples = new Tuple[numSlots];
+        if (lazy) {
+            int length = Math.max(bb.capacity(), header.length + numSlots * td.getSize());
+            if (bb.hasArray() && bb.arrayOffset() == 0 && bb.array().length == length) {
+                rawData = bb.array();
+            } else {
+                // short pages read as zero padded, like the file
+                rawData = new byte[length];
+                bb.rewind();
+                bb.get(rawData, 0, bb.remaining());
+            }
+            return;
+        }
+        rawData = null;
         try{
             // allocate and read the actual records of this page
             for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
+                tuples[i] = readNextTuple(bb,i);
         }catch(NoSuchElementException e){
             e.printStackTrace();
         }
-        dis.close();
 
-        setBeforeImage();
+        // no before image yet: it is only taken when the page is first modified
     }
 
     /** Retrieve the number of tuples on this page.
@@ -99,7 +155,9 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return new HeapPage(pid,oldDataRef,rawData != null);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -108,11 +166,45 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * The current contents become the before image. They are only copied
+     * when the page is next modified, see captureBeforeImage.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /**
+     * Copy-on-first-write: called before every modification, saves the
+     * contents of the page unless an earlier modification already did.
+     */
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = getPageData();
+        }
+    }
+
+    public long getMemoryFootprint() {
+        // pid, td, header, tuples, rawData, oldData, oldDataLock, _dirtier + numSlots, _is_dirty
+        long size = MemoryFootprint.object(8 * MemoryFootprint.REFERENCE + 5)
+                + MemoryFootprint.byteArray(header.length)
+                + MemoryFootprint.referenceArray(tuples.length);
+        if (rawData != null)
+            size += MemoryFootprint.byteArray(rawData.length);
+        for (Tuple t : tuples) {
+            if (t != null)
+                size += MemoryFootprint.tuple(t);
+        }
+        synchronized(oldDataLock) {
+            if (oldData != null)
+                size += MemoryFootprint.byteArray(oldData.length);
         }
+        return size;
     }
 
     /**
@@ -124,20 +216,36 @@ public class HeapPage implements Page {
         // throw new UnsupportedOperationException("implement this");
     }
 
+    /**
+     * @return the tuple in slot i, creating it from rawData in lazy mode if
+     * it has not been asked for yet, or null if the slot is empty. Readers
+     * of a cached page may ask at once, so in lazy mode the slots are read
+     * and filled holding the tuples array, and each slot gets one Tuple.
+     */
+    private Tuple tuple(int i) {
+        if (rawData == null)
+            return tuples[i];
+        synchronized(tuples) {
+            Tuple t = tuples[i];
+            if (t == null && isSlotUsed(i)) {
+                t = new Tuple(td, rawData, header.length + i * td.getSize());
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+            }
+            return t;
+        }
+    }
+
     /**
      * Suck up tuples from the source file.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+    private Tuple readNextTuple(ByteBuffer bb, int slotId) throws NoSuchElementException {
         // if associated bit is not set, read forward to the next tuple, and
         // return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+            if (bb.remaining() < td.getSize())
+                throw new NoSuchElementException("error reading empty tuple");
+            bb.position(bb.position() + td.getSize());
             return null;
         }
 
@@ -147,7 +255,7 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(bb);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -170,64 +278,75 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * Serializes this page into out, starting at its position, in the format
+     * getPageData returns. The header is copied in bulk and every slot is
+     * written at its fixed offset, so nothing is allocated and out can be a
+     * page-sized buffer reused from one page to the next: every byte of the
+     * page is overwritten, including empty slots and the padding.
+     *
+     * @param out a buffer with at least BufferPool.getPageSize() bytes
+     * remaining; its position is moved past the page
+     */
+    public void writePageData(ByteBuffer out) {
+        int base = out.position();
+        int tupleSize = td.getSize();
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        out.put(header);
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<numSlots; i++) {
+            int slot = base + header.length + i * tupleSize;
+            out.position(slot);
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                zero(out, tupleSize);
+                continue;
+            }
 
+            // non-empty slot, never decoded: its bytes are still those read
+            Tuple t;
+            if (rawData == null)
+                t = tuples[i];
+            else {
+                synchronized(tuples) {
+                    t = tuples[i];
                 }
+            }
+            if (t == null) {
+                out.put(rawData, header.length + i * tupleSize, tupleSize);
                 continue;
             }
 
             // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(out);
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        out.position(base + header.length + numSlots * tupleSize);
+        zero(out, base + BufferPool.getPageSize() - out.position());
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Writes len zero bytes at out's position.
+     */
+    static void zero(ByteBuffer out, int len) {
+        if (out.hasArray()) {
+            int from = out.arrayOffset() + out.position();
+            Arrays.fill(out.array(), from, from + len, (byte) 0);
+            out.position(out.position() + len);
+        } else {
+            while (len-- > 0)
+                out.put((byte) 0);
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -254,15 +373,16 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                // Delete if found match
-                if (tuples[i].getRecordId().equals(t.getRecordId())) {
-                    markSlotUsed(i,false);
-                    //  t.setRecordId(null);
-                    Debug.log("Deleted tuple at position(%d)", i);
-                    return;
-                }
+        // the record id names the slot, no need to search for it
+        RecordId rid = t.getRecordId();
+        if (rid != null && pid.equals(rid.getPageId())) {
+            int i = rid.tupleno();
+            if (i >= 0 && i < numSlots && isSlotUsed(i)) {
+                captureBeforeImage();
+                markSlotUsed(i,false);
+                //  t.setRecordId(null);
+                Debug.log("Deleted tuple at position(%d)", i);
+                return;
             }
         }
         throw new DbException(String.format("Cannot find Tuple(%s) in HeapPage(%s)", t.toString(), pid.toString()));
@@ -283,6 +403,7 @@ public class HeapPage implements Page {
             for (int i=0; i < numSlots; i++) {
                 if (!isSlotUsed(i)) {
                     // Insert tuple and mark dirty
+                    captureBeforeImage();
                     t.setRecordId(new RecordId(getId(), i));
                     tuples[i] = t;
                     markSlotUsed(i, true);
@@ -317,6 +438,14 @@ public class HeapPage implements Page {
             return null;
     }
 
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public boolean hasFreeSpace() {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -369,7 +498,7 @@ public class HeapPage implements Page {
 
             @Override
             public Tuple next() {
-                return tuples[cursor++];
+                return tuple(cursor++);
             }
 
             @Override
@@ -380,6 +509,43 @@ public class HeapPage implements Page {
         return it;
     }
 
+    /**
+     * In lazy mode the tuples only decode the given columns.
+     *
+     * @see TuplePage#iterator(int[], TupleDesc)
+     */
+    public Iterator<Tuple> iterator(int[] columns, TupleDesc projected) {
+        return project(iterator(), columns, projected);
+    }
+
+    /**
+     * @return an iterator over tuples that holds only the given columns of
+     * each, with the projected TupleDesc and the same RecordIds
+     */
+    static Iterator<Tuple> project(final Iterator<Tuple> tuples, final int[] columns, final TupleDesc projected) {
+        return new Iterator<Tuple>() {
+            @Override
+            public boolean hasNext() {
+                return tuples.hasNext();
+            }
+
+            @Override
+            public Tuple next() {
+                Tuple t = tuples.next();
+                Tuple p = new Tuple(projected);
+                for (int k = 0; k < columns.length; k++)
+                    p.setField(k, t.getField(columns[k]));
+                p.setRecordId(t.getRecordId());
+                return p;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     /**
      * Helper function for calculating popcount for 8 bits.
      * @param s
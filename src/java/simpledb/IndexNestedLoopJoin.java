@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins an outer relation to a table stored in a
+ * BTreeFile keyed on the join field, by searching the index for the tuples
+ * that match each outer tuple instead of scanning the table.
+ * <p>
+ * The inner child is a SeqScan of that table, possibly under Filters. It is
+ * never opened: it names the table and the transaction, gives the inner
+ * TupleDesc, and its filters are applied to the tuples found in the index.
+ * <p>
+ * Equality joins read the outer relation BATCH_SIZE tuples at a time, sort
+ * each batch on the join field and search for its keys with one batched
+ * probe, see {@link BTreeFile#indexIterator(TransactionId, List)}, so the
+ * output of a batch comes in key order. Other comparisons search the index
+ * once per outer tuple.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Outer tuples sorted and probed together by an equality join. */
+    public static final int BATCH_SIZE = 1024;
+
+    private JoinPredicate _predicate;
+    private DbIterator _child1;
+    private DbIterator _child2;
+    private TransactionId _tid;
+    private BTreeFile _index;
+    // the filters of child2, applied to the tuples found
+    private ArrayList<Predicate> _innerFilters;
+
+    // the outer tuples being joined; the current one alone for other comparisons
+    private transient ArrayList<Tuple> _batch = new ArrayList<Tuple>();
+    private transient DbFileIterator _probe = null;
+    private transient Tuple _inner = null;
+    // the outer tuples of the batch with the key of _inner, and the next one to join
+    private transient int _groupStart = 0;
+    private transient int _groupEnd = 0;
+    private transient int _groupNext = 0;
+    private transient TupleDesc _td = null;
+
+    /**
+     * Constructor. Accepts the children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            A scan of the right(inner) relation, see
+     *            {@link #canProbe(JoinPredicate, DbIterator)}
+     * @throws IllegalArgumentException if child2 cannot be probed on p
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!canProbe(p, child2))
+            throw new IllegalArgumentException("cannot probe " + child2 + " for " + p);
+        this._predicate = p;
+        this._child1 = child1;
+        this._child2 = child2;
+        this._innerFilters = new ArrayList<Predicate>();
+        DbIterator it = child2;
+        while (it instanceof Filter) {
+            _innerFilters.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        SeqScan scan = (SeqScan) it;
+        this._tid = scan.getTransactionId();
+        this._index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+    }
+
+    /**
+     * @return true if child2 is a SeqScan, possibly under Filters, of all
+     *         the fields of a BTreeFile keyed on the second field of p, and
+     *         the index can search for the operator of p
+     */
+    public static boolean canProbe(JoinPredicate p, DbIterator child2) {
+        Predicate.Op op = p.getOperator();
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE)
+            return false;
+        while (child2 instanceof Filter)
+            child2 = ((Filter) child2).getChildren()[0];
+        if (!(child2 instanceof SeqScan))
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) child2).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == p.getField2()
+                && ((SeqScan) child2).getColumns() == null;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return _predicate;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(_child1.getTupleDesc(), _child2.getTupleDesc());
+    }
+
+    public String getJoinField1Name() {
+        return _child1.getTupleDesc().getFieldName(_predicate.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return _child2.getTupleDesc().getFieldName(_predicate.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        _child1.open();
+        _td = getTupleDesc();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        _child1.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        _child1.rewind();
+        reset();
+    }
+
+    private void reset() {
+        if (_probe != null)
+            _probe.close();
+        _probe = null;
+        _inner = null;
+        _batch.clear();
+        _groupStart = _groupEnd = _groupNext = 0;
+    }
+
+    /** @return the operator the inner key must satisfy against the outer key */
+    private Predicate.Op innerOp() {
+        switch (_predicate.getOperator()) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return _predicate.getOperator();
+        }
+    }
+
+    /**
+     * Starts a probe of the index for the next outer tuples, unless there
+     * are none.
+     *
+     * @return false when the outer relation is exhausted
+     */
+    private boolean nextProbe() throws DbException, TransactionAbortedException {
+        reset();
+        final int field1 = _predicate.getField1();
+        if (_predicate.getOperator() != Predicate.Op.EQUALS) {
+            if (!_child1.hasNext())
+                return false;
+            _batch.add(_child1.next());
+            _probe = _index.indexIterator(_tid, new IndexPredicate(innerOp(), _batch.get(0).getField(field1)));
+        } else {
+            while (_batch.size() < BATCH_SIZE && _child1.hasNext())
+                _batch.add(_child1.next());
+            if (_batch.isEmpty())
+                return false;
+            Collections.sort(_batch, new Comparator<Tuple>() {
+                @Override
+                public int compare(Tuple a, Tuple b) {
+                    Field fa = a.getField(field1);
+                    Field fb = b.getField(field1);
+                    return fa.compare(Predicate.Op.LESS_THAN, fb) ? -1 : fa.equals(fb) ? 0 : 1;
+                }
+            });
+            ArrayList<Field> keys = new ArrayList<Field>();
+            for (Tuple t : _batch)
+                keys.add(t.getField(field1));
+            _probe = _index.indexIterator(_tid, keys);
+        }
+        _probe.open();
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of an outer tuple and an inner tuple
+     * found in the index that passes the filters of the inner child.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (_inner != null && _groupNext < _groupEnd)
+                return merge(_batch.get(_groupNext++), _inner);
+            if (_probe != null && _probe.hasNext()) {
+                _inner = _probe.next();
+                if (!passesFilters(_inner)) {
+                    _inner = null;
+                    continue;
+                }
+                if (_predicate.getOperator() != Predicate.Op.EQUALS) {
+                    _groupStart = 0;
+                    _groupEnd = 1;
+                } else {
+                    // the keys of the probe and the batch both ascend
+                    Field key = _inner.getField(_predicate.getField2());
+                    int field1 = _predicate.getField1();
+                    if (_groupEnd > _groupStart && !_batch.get(_groupStart).getField(field1).equals(key))
+                        _groupStart = _groupEnd;
+                    while (!_batch.get(_groupStart).getField(field1).equals(key))
+                        _groupStart++;
+                    _groupEnd = _groupStart;
+                    while (_groupEnd < _batch.size() && _batch.get(_groupEnd).getField(field1).equals(key))
+                        _groupEnd++;
+                }
+                _groupNext = _groupStart;
+                continue;
+            }
+            if (!nextProbe())
+                return null;
+        }
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (Predicate p : _innerFilters) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int numFields1 = t1.getTupleDesc().numFields();
+        int numFields2 = t2.getTupleDesc().numFields();
+        Tuple newTuple = new Tuple(_td);
+        newTuple.setRecordId(t1.getRecordId());
+        for (int i = 0; i < numFields1; i++)
+            newTuple.setField(i, t1.getField(i));
+        for (int i = 0; i < numFields2; i++)
+            newTuple.setField(i + numFields1, t2.getField(i));
+        return newTuple;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this._child1, this._child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this._child1 = children[0];
+        this._child2 = children[1];
+    }
+}
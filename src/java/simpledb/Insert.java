@@ -13,6 +13,7 @@ public class Insert extends Operator {
     private TransactionId tid;
     private DbIterator child;
     private int tableId;
+    private boolean bulkLoad;
     private boolean called;
 
     /**
@@ -30,6 +31,29 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t,DbIterator child, int tableId)
             throws DbException {
+        this(t, child, tableId, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableId
+     *            The table in which to insert tuples.
+     * @param bulkLoad
+     *            If true, the tuples are appended in bulk through
+     *            BufferPool.bulkLoad, which is much faster but is not undone
+     *            if the transaction aborts.
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     */
+    public Insert(TransactionId t, DbIterator child, int tableId, boolean bulkLoad)
+            throws DbException {
+        this.bulkLoad = bulkLoad;
         this.tid = t;
         this.child = child;
         this.tableId = tableId;
@@ -71,6 +95,7 @@ public class Insert extends Operator {
      *         null if called more than once.
      * @see Database#getBufferPool
      * @see BufferPool#insertTuple
+     * @see BufferPool#bulkLoad
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if(called){  // return null if called more than once.
@@ -79,6 +104,13 @@ public class Insert extends Operator {
 
         // Insert child and increment count.
         int count = 0;
+        if (bulkLoad) {
+            try {
+                count = Database.getBufferPool().bulkLoad(tid, tableId, child);
+            } catch (IOException e) {
+                throw new DbException("IOException detected.");
+            }
+        }
         while(this.child.hasNext()){
             Tuple t = this.child.next();
             try{
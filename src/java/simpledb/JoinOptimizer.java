@@ -68,7 +68,9 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj.indexJoin && IndexNestedLoopJoin.canProbe(p, plan2)) {
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
             j = (DbIterator) new HashEquiJoin(p, plan1, plan2);
         } else {
             j = new Join(p, plan1, plan2);
@@ -105,15 +107,68 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join, with an index nested-loop join as a
+     * choice only if the right-hand side is a base table.
+     *
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean rightIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 5.
             return card1 + cost1 + cost2;
         } else {
-            return cost1 + cost2 + card1 * card2;
+            double cost = cost1 + cost2 + card1 * card2;
+            if (rightIsTable)
+                cost = Math.min(cost, estimateIndexJoinCost(j, card1, cost1, cost2));
+            return cost;
         }
     }
 
+    /**
+     * Estimate the cost of an IndexNestedLoopJoin: one scan of the left-hand
+     * side, plus for each of its tuples a search of the B+ tree of the
+     * right-hand table from the root down to a leaf, reading a page per
+     * level at the cost of a page of the right-hand table's scan.
+     *
+     * @return the cost, or Double.MAX_VALUE if the right-hand table is not
+     *         a BTreeFile keyed on the join field or the join operator
+     *         cannot use it
+     */
+    double estimateIndexJoinCost(LogicalJoinNode j, int card1, double cost1,
+            double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || p == null || j.t2Alias == null
+                || j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE)
+            return Double.MAX_VALUE;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return Double.MAX_VALUE;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return Double.MAX_VALUE;
+        BTreeFile bf = (BTreeFile) f;
+        if (!bf.getTupleDesc().getFieldName(bf.keyField()).equals(j.f2PureName))
+            return Double.MAX_VALUE;
+
+        int pages = Math.max(1, bf.numPages());
+        // children per internal page, as BTreeInternalPage.getMaxEntries counts
+        // them; a string key kept at its length is taken to be half the longest
+        Type keyType = bf.getTupleDesc().getFieldType(bf.keyField());
+        int keyBytes = bf.hasVariableLengthKeys() && keyType == Type.STRING_TYPE ? 1 + Type.STRING_LEN / 2
+                : keyType.getLen();
+        int keyBits = (keyBytes + BTreeInternalPage.INDEX_SIZE) * 8;
+        int fanout = Math.max(2, (BufferPool.getPageSize() * 8 - 2 * BTreeInternalPage.INDEX_SIZE * 8 - 9)
+                / (keyBits + 1) + 1);
+        int levels = 1 + (int) Math.ceil(Math.log(pages) / Math.log(fanout));
+        double probeCost = levels * cost2 / pages;
+        return cost1 + card1 * (probeCost + 1);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -320,6 +375,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a base table, which an index join may search
+        boolean t1IsTable = true, t2IsTable = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -355,6 +412,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                t1IsTable = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -371,6 +429,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                t2IsTable = false;
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
@@ -384,10 +443,12 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1IsTable);
+        boolean indexJoin = t2IsTable
+                && estimateIndexJoinCost(j, t1card, t1cost, t2cost) <= cost1;
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -395,9 +456,16 @@ public class JoinOptimizer {
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
+            indexJoin = t1IsTable
+                    && estimateIndexJoinCost(j2, t2card, t2cost, t1cost) <= cost2;
         }
         if (cost1 >= bestCostSoFar)
             return null;
+        if (indexJoin) {
+            // the node is shared with other subplans, mark a copy
+            j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName, j.f2PureName, j.p);
+            j.indexJoin = true;
+        }
 
         CostCard cc = new CostCard();
 
@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * logical times of its last K accesses, and the victim is the page whose
+ * K-th most recent access lies furthest in the past. Pages referenced fewer
+ * than K times have an infinite backward distance and go first, oldest
+ * last access first, which keeps one-off scan pages from pushing out pages
+ * that are used over and over.
+ * <p>
+ * The access history of evicted pages is retained for up to capacity pages,
+ * so a page that comes straight back is not treated as brand new.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        final long[] history; // history[0] is the most recent access, 0 means none
+
+        Entry(PageId pid, long[] history) {
+            this.pid = pid;
+            this.history = history;
+        }
+    }
+
+    private final int _k;
+    private long _clock;
+    private final HashMap<PageId, Entry> _resident;
+    private final TreeSet<Entry> _byDistance;
+    private final LinkedHashMap<PageId, long[]> _retained;
+
+    /**
+     * @param k the number of accesses to remember per page, at least 1
+     * @param capacity the number of pages the owning pool can hold; also the
+     *                 number of evicted pages whose history is retained
+     */
+    public LRUKPolicy(int k, final int capacity) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this._k = k;
+        this._clock = 0;
+        this._resident = new HashMap<>();
+        this._byDistance = new TreeSet<>(new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                int c = Long.compare(a.history[_k - 1], b.history[_k - 1]);
+                if (c != 0)
+                    return c;
+                // timestamps are unique, so this is a total order
+                return Long.compare(a.history[0], b.history[0]);
+            }
+        });
+        this._retained = new LinkedHashMap<PageId, long[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public void recordInsert(PageId pid) {
+        if (_resident.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        long[] history = _retained.remove(pid);
+        if (history == null)
+            history = new long[_k];
+        Entry e = new Entry(pid, history);
+        touch(e);
+        _resident.put(pid, e);
+        _byDistance.add(e);
+    }
+
+    public void recordAccess(PageId pid) {
+        Entry e = _resident.get(pid);
+        if (e == null)
+            return;
+        _byDistance.remove(e);
+        touch(e);
+        _byDistance.add(e);
+    }
+
+    public void recordRemove(PageId pid) {
+        Entry e = _resident.remove(pid);
+        if (e != null)
+            _byDistance.remove(e);
+    }
+
+    public PageId evict() {
+        Entry victim = _byDistance.pollFirst();
+        if (victim == null)
+            return null;
+        _resident.remove(victim.pid);
+        _retained.put(victim.pid, victim.history);
+        return victim.pid;
+    }
+
+    public Iterator<PageId> candidates() {
+        final Iterator<Entry> it = _byDistance.iterator();
+        return new Iterator<PageId>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public PageId next() {
+                return it.next().pid;
+            }
+        };
+    }
+
+    public void evict(PageId pid) {
+        Entry victim = _resident.remove(pid);
+        if (victim == null)
+            return;
+        _byDistance.remove(victim);
+        _retained.put(victim.pid, victim.history);
+    }
+
+    public int size() {
+        return _resident.size();
+    }
+
+    private void touch(Entry e) {
+        System.arraycopy(e.history, 0, e.history, 1, _k - 1);
+        e.history[0] = ++_clock;
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least-recently-used replacement. The pages are kept in an access-ordered
+ * LinkedHashMap, so the map's doubly linked entry list is the LRU list: an
+ * access relinks its entry in O(1) and the eldest entry is the victim.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    private final LinkedHashMap<PageId, Boolean> _recency;
+
+    public LRUPolicy() {
+        this._recency = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public void recordInsert(PageId pid) {
+        _recency.put(pid, Boolean.TRUE);
+    }
+
+    public void recordAccess(PageId pid) {
+        _recency.get(pid); // moves pid to the MRU end
+    }
+
+    public void recordRemove(PageId pid) {
+        _recency.remove(pid);
+    }
+
+    public PageId evict() {
+        Iterator<PageId> it = _recency.keySet().iterator();
+        if (!it.hasNext())
+            return null;
+        PageId victim = it.next();
+        it.remove();
+        return victim;
+    }
+
+    public Iterator<PageId> candidates() {
+        return Collections.unmodifiableSet(_recency.keySet()).iterator();
+    }
+
+    public void evict(PageId pid) {
+        _recency.remove(pid);
+    }
+
+    public int size() {
+        return _recency.size();
+    }
+}
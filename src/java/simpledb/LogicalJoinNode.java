@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether the join searches an index of t2 on f2 for the tuples of t1,
+     * see IndexNestedLoopJoin. Set by the JoinOptimizer. */
+    public boolean indexJoin;
+
     public LogicalJoinNode() {
     }
 
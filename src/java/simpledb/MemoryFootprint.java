@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * Rough estimates of how many bytes of heap the objects making up a cached
+ * page occupy, assuming a 64-bit JVM with compressed references: 12 byte
+ * object headers, 16 byte array headers, 4 byte references, and everything
+ * padded to 8 bytes. Used by Page.getMemoryFootprint.
+ */
+class MemoryFootprint {
+
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    private MemoryFootprint() {
+    }
+
+    /** @return size rounded up to the 8 byte object alignment */
+    static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /** @return the size of an object with the given bytes of fields */
+    static long object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    static long byteArray(int length) {
+        return align(ARRAY_HEADER + length);
+    }
+
+    static long intArray(int length) {
+        return align(ARRAY_HEADER + 4L * length);
+    }
+
+    static long referenceArray(int length) {
+        return align(ARRAY_HEADER + (long) REFERENCE * length);
+    }
+
+    /** @return the size of a field object, including what it points to */
+    static long field(Field f) {
+        if (f instanceof StringField) {
+            // StringField(value, maxSize) -> String(value, hash, coder) -> byte[]
+            String s = ((StringField) f).getValue();
+            return object(REFERENCE + 4) + object(REFERENCE + 8) + byteArray(s.length());
+        }
+        return object(4); // IntField
+    }
+
+    /** @return the size of a tuple with its field list, fields and record id */
+    static long tuple(Tuple t) {
+        // Tuple(td, rid, fields, source + offset, undecoded) -> ArrayList(size, elementData, modCount) -> Object[];
+        // fields a lazy tuple has not parsed yet are counted with its page
+        int numFields = t.getTupleDesc().numFields();
+        long size = object(4 * REFERENCE + 8) + object(REFERENCE + 8) + referenceArray(numFields);
+        for (int i = 0; i < numFields; i++) {
+            Field f = t.peekField(i);
+            if (f != null)
+                size += field(f);
+        }
+        if (t.getRecordId() != null)
+            size += object(REFERENCE + 4) + object(8); // RecordId(pid, tupleNo) and its PageId
+        return size;
+    }
+}
@@ -56,4 +56,11 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * @return an estimate of the bytes of heap this page occupies while it
+     * is cached, including its before-image. Used by the BufferPool to keep
+     * within its byte budget.
+     */
+    public long getMemoryFootprint();
 }
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PageArena keeps the raw bytes of clean pages in fixed size frames of
+ * pre-allocated, off-heap memory (direct ByteBuffers). It is the second tier
+ * of a BufferPool partition: pages leave the on-heap tier as bytes, and are
+ * decoded back into Page objects by their DbFile when they are requested
+ * again. Parked pages cost no heap beyond an index entry, so the arena can
+ * be much larger than the Java heap.
+ * <p>
+ * A page is either decoded or parked, never both: take() removes it from the
+ * arena. When the arena is full, the page that was parked longest ago is
+ * dropped; it is clean, so it can always be read from disk again.
+ * <p>
+ * Not thread safe: each BufferPool partition owns its own arena and only
+ * calls it while holding its monitor.
+ */
+public class PageArena {
+
+    /** Frames per direct buffer; keeps each allocation small. */
+    private static final int FRAMES_PER_CHUNK = 256;
+
+    private final int _frameSize;
+    private final int _numFrames;
+    private final ByteBuffer[] _chunks;
+    private final int[] _lengths; // bytes used in each frame
+    private final int[] _free; // stack of unused frames
+    private int _numFree;
+    // frame of each parked page, oldest first
+    private final LinkedHashMap<PageId, Integer> _frames;
+
+    /**
+     * Allocates the arena up front.
+     *
+     * @param numFrames the number of pages the arena can hold
+     * @param frameSize the largest page, in bytes, that fits in a frame
+     */
+    public PageArena(int numFrames, int frameSize) {
+        this._frameSize = frameSize;
+        this._numFrames = numFrames;
+        this._chunks = new ByteBuffer[(numFrames + FRAMES_PER_CHUNK - 1) / FRAMES_PER_CHUNK];
+        for (int i = 0; i < _chunks.length; i++) {
+            int frames = Math.min(FRAMES_PER_CHUNK, numFrames - i * FRAMES_PER_CHUNK);
+            _chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this._lengths = new int[numFrames];
+        this._free = new int[numFrames];
+        for (int i = 0; i < numFrames; i++)
+            _free[i] = numFrames - 1 - i;
+        this._numFree = numFrames;
+        this._frames = new LinkedHashMap<>();
+    }
+
+    /**
+     * Copies the bytes of a clean page into a frame, replacing any earlier
+     * copy and dropping the oldest parked page if the arena is full.
+     *
+     * @return false if the page does not fit in a frame and was not parked
+     */
+    public boolean put(PageId pid, byte[] data) {
+        if (data.length > _frameSize || _numFrames == 0)
+            return false;
+        Integer frame = _frames.remove(pid);
+        if (frame == null) {
+            if (_numFree == 0)
+                frame = _frames.remove(_frames.keySet().iterator().next());
+            else
+                frame = _free[--_numFree];
+        }
+        ByteBuffer chunk = _chunks[frame / FRAMES_PER_CHUNK];
+        chunk.position((frame % FRAMES_PER_CHUNK) * _frameSize);
+        chunk.put(data);
+        _lengths[frame] = data.length;
+        _frames.put(pid, frame);
+        return true;
+    }
+
+    /**
+     * Removes a page from the arena and returns its bytes.
+     *
+     * @return the page's bytes, or null if it is not parked here
+     */
+    public byte[] take(PageId pid) {
+        Integer frame = _frames.remove(pid);
+        if (frame == null)
+            return null;
+        byte[] data = new byte[_lengths[frame]];
+        ByteBuffer chunk = _chunks[frame / FRAMES_PER_CHUNK];
+        chunk.position((frame % FRAMES_PER_CHUNK) * _frameSize);
+        chunk.get(data);
+        _free[_numFree++] = frame;
+        return data;
+    }
+
+    /**
+     * Drops a page from the arena, if it is parked here.
+     */
+    public void remove(PageId pid) {
+        Integer frame = _frames.remove(pid);
+        if (frame != null)
+            _free[_numFree++] = frame;
+    }
+
+    /** @return true if the page is parked here */
+    public boolean contains(PageId pid) {
+        return _frames.containsKey(pid);
+    }
+
+    /** @return the ids of the parked pages, oldest first */
+    public Set<PageId> pageIds() {
+        return Collections.unmodifiableSet(_frames.keySet());
+    }
+
+    /** @return the number of parked pages */
+    public int size() {
+        return _frames.size();
+    }
+
+    /** @return the number of frames */
+    public int capacity() {
+        return _numFrames;
+    }
+}
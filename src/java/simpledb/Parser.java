@@ -581,7 +581,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "bufferpool" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -682,12 +682,20 @@ public class Parser {
                         break;
                     }
 
-                    long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
-                    long time = System.currentTimeMillis() - startTime;
-                    System.out.printf("----------------\n%.2f seconds\n\n",
-                            ((double) time / 1000.0));
+                    String console = cmd.replaceAll("\\s+", " ");
+                    if (console.equalsIgnoreCase("bufferpool stats;")) {
+                        System.out.print(Database.getBufferPool().getMetrics().dump());
+                    } else if (console.equalsIgnoreCase("bufferpool reset;")) {
+                        Database.getBufferPool().getMetrics().reset();
+                        System.out.println("Buffer pool metrics reset.");
+                    } else {
+                        long startTime = System.currentTimeMillis();
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
+                        long time = System.currentTimeMillis() - startTime;
+                        System.out.printf("----------------\n%.2f seconds\n\n",
+                                ((double) time / 1000.0));
+                    }
 
                     // Grab the remainder of the line
                     line = line.substring(split + 1);
@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PositionalFile keeps one FileChannel open for the lifetime of a DbFile and
+ * reads and writes pages at absolute offsets (pread/pwrite), so page I/O
+ * costs one system call instead of an open, a seek and a close, and
+ * concurrent readers never share a file position.
+ * <p>
+ * The channel is opened on first use, read only, so read-only files can be
+ * read and reading a file that does not exist does not create it; the first
+ * write opens it again for writing. If it gets closed underneath us, e.g.
+ * because a thread was interrupted in the middle of an I/O, the next call
+ * opens it again. Whoever drops the DbFile should {@link #close} it.
+ */
+class PositionalFile {
+
+    private final File _file;
+    private volatile FileChannel _channel;
+    // whether _channel was opened for writing
+    private volatile boolean _writable;
+    // times the file was opened, and bytes read by read()
+    private volatile int _numOpens;
+    private final AtomicLong _bytesRead = new AtomicLong();
+
+    PositionalFile(File file) {
+        this._file = file;
+    }
+
+    /**
+     * @return the open channel, reopened for writing if write is set and it
+     * is read only
+     * @throws FileNotFoundException if the file does not exist and write is
+     * not set, or it cannot be opened for writing
+     */
+    private FileChannel channel(boolean write) throws IOException {
+        FileChannel ch = _channel;
+        if (ch != null && ch.isOpen() && (_writable || !write))
+            return ch;
+        synchronized (this) {
+            if (_channel != null && _channel.isOpen() && (_writable || !write))
+                return _channel;
+            boolean writable = write || _writable;
+            FileChannel old = _channel;
+            _channel = new RandomAccessFile(_file, writable ? "rw" : "r").getChannel();
+            _writable = writable;
+            _numOpens++;
+            // readers still on the read-only channel retry on the new one
+            if (old != null)
+                old.close();
+            return _channel;
+        }
+    }
+
+    /**
+     * Reads up to len bytes starting at the given file offset into buf.
+     * Bytes past the end of the file are left untouched.
+     *
+     * @return the number of bytes read, 0 if offset is at or past the end
+     */
+    int read(long offset, byte[] buf, int len) throws IOException {
+        if (_channel == null && !_file.exists())
+            return 0;
+        FileChannel ch = channel(false);
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        try {
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, offset + bb.position()) < 0)
+                    break;
+            }
+        } catch (ClosedChannelException e) {
+            // closed by another thread's interrupt; ours still works after reopening
+            if (Thread.currentThread().isInterrupted())
+                throw e;
+            return read(offset, buf, len);
+        }
+        _bytesRead.addAndGet(bb.position());
+        return bb.position();
+    }
+
+    /**
+     * Writes all of data at the given file offset, growing the file if needed.
+     */
+    void write(long offset, byte[] data) throws IOException {
+        write(offset, data, data.length);
+    }
+
+    /**
+     * Writes the first len bytes of data at the given file offset, growing
+     * the file if needed.
+     */
+    void write(long offset, byte[] data, int len) throws IOException {
+        write(offset, ByteBuffer.wrap(data, 0, len));
+    }
+
+    /**
+     * Writes the bytes between data's position and its limit at the given
+     * file offset, growing the file if needed. The position ends at the limit.
+     */
+    void write(long offset, ByteBuffer data) throws IOException {
+        FileChannel ch = channel(true);
+        int start = data.position();
+        try {
+            while (data.hasRemaining())
+                ch.write(data, offset + data.position() - start);
+        } catch (ClosedChannelException e) {
+            if (Thread.currentThread().isInterrupted())
+                throw e;
+            data.position(start);
+            write(offset, data);
+        }
+    }
+
+    /**
+     * Appends data at the current end of the file.
+     *
+     * @return the offset it was written at
+     */
+    synchronized long append(byte[] data) throws IOException {
+        long offset = channel(true).size();
+        write(offset, data);
+        return offset;
+    }
+
+    /**
+     * Maps a region of the file into memory, read only. The mapping stays
+     * valid after the channel is closed, and sees later writes through this
+     * channel.
+     */
+    MappedByteBuffer map(long offset, long length) throws IOException {
+        return channel(false).map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /** @return the number of times the file was opened, for reading or for writing */
+    int getNumOpens() {
+        return _numOpens;
+    }
+
+    /** @return the number of bytes read by {@link #read}; mapped regions are not counted */
+    long getBytesRead() {
+        return _bytesRead.get();
+    }
+
+    /** Closes the channel; the next read or write opens it again, read only. */
+    synchronized void close() throws IOException {
+        if (_channel != null)
+            _channel.close();
+        _channel = null;
+        _writable = false;
+    }
+}
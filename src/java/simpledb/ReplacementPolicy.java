@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs room for a new one. The BufferPool owns the pages; a policy
+ * only tracks PageIds and whatever history it needs to rank them.
+ * <p>
+ * The BufferPool reports every page that becomes resident (recordInsert),
+ * every hit on a resident page (recordAccess) and every page it drops for
+ * other reasons, e.g. discardPage (recordRemove). When the pool is full it
+ * walks candidates() to the first page it may evict, e.g. one that is not
+ * dirty under NO STEAL, and calls evict(pid) on it; the pages it passes
+ * over keep their place and history.
+ * <p>
+ * Implementations need not be thread safe: each BufferPool partition owns
+ * its own policy instance and only calls it while holding its monitor.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy.Kind)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * The replacement policies that can be selected when a BufferPool is
+     * constructed.
+     */
+    public enum Kind {
+        /** Least recently used page. */
+        LRU,
+        /** Second-chance clock over a circular list of reference bits. */
+        CLOCK,
+        /** LRU-2: largest backward distance to the second-to-last access. */
+        LRU_K,
+        /** 2Q: pages seen once live in a FIFO and must be re-referenced to get into the LRU. */
+        TWO_Q,
+        /** ARC: adaptive split between recently and frequently used pages. */
+        ARC;
+
+        /**
+         * Creates a new policy of this kind.
+         *
+         * @param capacity the number of pages the owning pool can hold
+         */
+        public ReplacementPolicy create(int capacity) {
+            switch (this) {
+                case CLOCK:
+                    return new ClockPolicy();
+                case LRU_K:
+                    return new LRUKPolicy(2, capacity);
+                case TWO_Q:
+                    return new TwoQPolicy(capacity);
+                case ARC:
+                    return new ARCPolicy(capacity);
+                case LRU:
+                default:
+                    return new LRUPolicy();
+            }
+        }
+    }
+
+    /**
+     * A page that was not resident has been added to the pool.
+     */
+    public void recordInsert(PageId pid);
+
+    /**
+     * A resident page has been requested again.
+     */
+    public void recordAccess(PageId pid);
+
+    /**
+     * A resident page has been dropped from the pool without going through
+     * evict(). Unknown pages are ignored.
+     */
+    public void recordRemove(PageId pid);
+
+    /**
+     * Choose a victim among the resident pages and stop tracking it: the
+     * first page candidates() returns.
+     *
+     * @return the page to evict, or null if no page is resident
+     */
+    public PageId evict();
+
+    /**
+     * Returns the resident pages in the order this policy would evict them,
+     * without changing any state. The iterator is only valid until the
+     * policy is next called.
+     */
+    public Iterator<PageId> candidates();
+
+    /**
+     * Stop tracking a resident page that candidates() returned, updating
+     * the policy's history as if evict() had chosen it.
+     */
+    public void evict(PageId pid);
+
+    /**
+     * @return the number of resident pages this policy is tracking
+     */
+    public int size();
+}
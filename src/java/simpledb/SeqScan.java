@@ -17,6 +17,10 @@ public class SeqScan implements DbIterator {
     private TupleDesc _td;
     private DbFile _dbFile;
     private DbFileIterator _dbFileIterator;
+    // the fields of the table the scan returns, null for all of them
+    private int[] _columns;
+    // whether next() projects the tuples itself, for files that cannot
+    private boolean _projectTuples;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -35,16 +39,38 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some fields of the table.
+     * Its tuples hold those fields in the given order, and its TupleDesc
+     * names them as the three-argument constructor does. A HeapFile reads
+     * only these columns from pages that store columns apart, see
+     * {@link HeapFile.PageFormat#COLUMNAR}.
+     *
+     * @param columns
+     *            the indexes of the table's fields to return, or null for
+     *            all of them
+     * @throws IllegalArgumentException if a column is not a field of the table
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         // some code goes here
         this._tid = tid;
         this._tableId = tableid;
         this._tableAlias = _tableAlias;
+        this._columns = columns;
 
         // prefix tuple field with table alias
         updateTupleFieldPrefix(tableid, tableAlias);
 
         this._dbFile = Database.getCatalog().getDatabaseFile(tableid);
-        this._dbFileIterator = _dbFile.iterator(tid);
+        if (columns != null && _dbFile instanceof HeapFile) {
+            this._dbFileIterator = ((HeapFile) _dbFile).iterator(tid, columns);
+        } else {
+            this._dbFileIterator = _dbFile.iterator(tid);
+            this._projectTuples = columns != null;
+        }
     }
 
     /**
@@ -65,6 +91,28 @@ public class SeqScan implements DbIterator {
         return _tableAlias;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return _tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return _tid;
+    }
+
+    /**
+     * @return the indexes of the table's fields this scan returns, or null
+     *         if it returns them all
+     */
+    public int[] getColumns() {
+        return _columns;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -87,11 +135,15 @@ public class SeqScan implements DbIterator {
 
     private void updateTupleFieldPrefix(int tableid, String tableAlias) {
         TupleDesc origTd = Database.getCatalog().getTupleDesc(tableid);
-        String[] fieldAr = new String[origTd.numFields()];
-        Type[] typeAr = new Type[origTd.numFields()];
-        for (int i = 0; i < origTd.numFields(); i++) {
-            fieldAr[i] = String.format("%s.%s", tableAlias, origTd.getFieldName(i));
-            typeAr[i] = origTd.getFieldType(i);
+        int numFields = _columns == null ? origTd.numFields() : _columns.length;
+        String[] fieldAr = new String[numFields];
+        Type[] typeAr = new Type[numFields];
+        for (int i = 0; i < numFields; i++) {
+            int field = _columns == null ? i : _columns[i];
+            if (field < 0 || field >= origTd.numFields())
+                throw new IllegalArgumentException("table " + tableid + " has no column " + field);
+            fieldAr[i] = String.format("%s.%s", tableAlias, origTd.getFieldName(field));
+            typeAr[i] = origTd.getFieldType(field);
         }
         this._td = new TupleDesc(typeAr, fieldAr);
     }
@@ -128,7 +180,14 @@ public class SeqScan implements DbIterator {
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return _dbFileIterator.next();
+        Tuple t = _dbFileIterator.next();
+        if (!_projectTuples)
+            return t;
+        Tuple p = new Tuple(_td);
+        for (int i = 0; i < _columns.length; i++)
+            p.setField(i, t.getField(_columns[i]));
+        p.setRecordId(t.getRecordId());
+        return p;
     }
 
     public void close() {
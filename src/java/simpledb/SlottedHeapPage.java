@@ -0,0 +1,346 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a page of a HeapFile in the slotted format, which stores
+ * variable-length records through a slot directory, so that a string takes
+ * the bytes of its value instead of Type.STRING_LEN.
+ * <p>
+ * A page starts with a header of two ints: the number of entries in the slot
+ * directory and the number of bytes taken by records. The slot directory
+ * follows, one entry of two unsigned shorts per slot: the offset of the
+ * slot's record in the page, 0 for an empty slot, and the record's length.
+ * Records are packed at the end of the page and grow towards the directory.
+ * In a record an int field takes 4 bytes, and a string field an unsigned
+ * short length followed by that many bytes. A page of zeros is empty.
+ * <p>
+ * The page keeps its tuples decoded and packs the records again each time it
+ * is serialized, so the space of deleted records is reused without a
+ * separate compaction step. Slot numbers, and with them RecordIds, do not
+ * move.
+ *
+ * @see HeapFile.PageFormat#SLOTTED
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 4;
+
+    /** Offsets in the page are unsigned shorts, so pages can be no larger. */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
+    private final HeapPageId _pid;
+    private final TupleDesc _td;
+    // the tuple in each slot of the directory, null for an empty slot
+    private final ArrayList<Tuple> _slots = new ArrayList<>();
+    private int _emptySlots;
+    // bytes the page takes when serialized: header, directory and records
+    private int _usedBytes;
+
+    // contents before the first modification since the last setBeforeImage;
+    // null while the page is unmodified, the page itself is its before image then
+    private byte[] _oldData;
+    private final Object _oldDataLock = new Object();
+
+    private TransactionId _dirtier;
+
+    /**
+     * Create a SlottedHeapPage from a page of bytes read from disk, in the
+     * format described above.
+     *
+     * @throws IOException if the slot directory points outside the page
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this._pid = id;
+        this._td = Database.getCatalog().getTupleDesc(id.getTableId());
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        try {
+            int numSlots = bb.getInt(0);
+            for (int i = 0; i < numSlots; i++) {
+                int entry = HEADER_SIZE + i * SLOT_SIZE;
+                int offset = bb.getShort(entry) & 0xffff;
+                int length = bb.getShort(entry + 2) & 0xffff;
+                if (offset == 0) {
+                    _slots.add(null);
+                    continue;
+                }
+                bb.limit(offset + length);
+                bb.position(offset);
+                Tuple t = readRecord(bb);
+                if (bb.hasRemaining())
+                    throw new IOException("record " + i + " of page " + id + " is longer than its fields");
+                t.setRecordId(new RecordId(id, i));
+                _slots.add(t);
+                bb.limit(bb.capacity());
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            // BufferUnderflowException is an IndexOutOfBoundsException too
+            throw new IOException("page " + id + " has a corrupt slot directory");
+        }
+        _usedBytes = HEADER_SIZE + _slots.size() * SLOT_SIZE;
+        for (Tuple t : _slots) {
+            if (t == null)
+                _emptySlots++;
+            else
+                _usedBytes += recordSize(t);
+        }
+        // no before image yet: it is only taken when the page is first modified
+    }
+
+    /**
+     * Reads one record at bb's position.
+     */
+    private Tuple readRecord(ByteBuffer bb) {
+        Tuple t = new Tuple(_td);
+        for (int j = 0; j < _td.numFields(); j++) {
+            if (_td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(bb.getInt()));
+            } else {
+                byte[] bs = new byte[bb.getShort() & 0xffff];
+                bb.get(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Writes t as a record at out's position.
+     */
+    private void writeRecord(Tuple t, ByteBuffer out) {
+        for (int j = 0; j < _td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (_td.getFieldType(j) == Type.INT_TYPE) {
+                out.putInt(((IntField) f).getValue());
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                out.putShort((short) len);
+                for (int i = 0; i < len; i++)
+                    out.put((byte) s.charAt(i));
+            }
+        }
+    }
+
+    /** @return the number of bytes t takes as a record */
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < _td.numFields(); j++) {
+            if (_td.getFieldType(j) == Type.INT_TYPE)
+                size += 4;
+            else
+                size += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+        }
+        return size;
+    }
+
+    /** @return the number of bytes the smallest record of the table's schema takes */
+    private int minRecordSize() {
+        int size = 0;
+        for (int j = 0; j < _td.numFields(); j++)
+            size += _td.getFieldType(j) == Type.INT_TYPE ? 4 : 2;
+        return size;
+    }
+
+    /** @return true if a record of the given size fits in the free space */
+    private boolean fits(int recordSize) {
+        return _usedBytes + recordSize + (_emptySlots > 0 ? 0 : SLOT_SIZE) <= BufferPool.getPageSize();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (_oldDataLock) {
+                oldDataRef = _oldData;
+            }
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return new SlottedHeapPage(_pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * The current contents become the before image. They are only copied
+     * when the page is next modified, see captureBeforeImage.
+     */
+    public void setBeforeImage() {
+        synchronized (_oldDataLock) {
+            _oldData = null;
+        }
+    }
+
+    /**
+     * Copy-on-first-write: called before every modification, saves the
+     * contents of the page unless an earlier modification already did.
+     */
+    private void captureBeforeImage() {
+        synchronized (_oldDataLock) {
+            if (_oldData == null)
+                _oldData = getPageData();
+        }
+    }
+
+    public long getMemoryFootprint() {
+        // _pid, _td, _slots, _oldData, _oldDataLock, _dirtier + _emptySlots, _usedBytes
+        long size = MemoryFootprint.object(6 * MemoryFootprint.REFERENCE + 8)
+                + MemoryFootprint.object(MemoryFootprint.REFERENCE + 8)
+                + MemoryFootprint.referenceArray(_slots.size());
+        for (Tuple t : _slots) {
+            if (t != null)
+                size += MemoryFootprint.tuple(t);
+        }
+        synchronized (_oldDataLock) {
+            if (_oldData != null)
+                size += MemoryFootprint.byteArray(_oldData.length);
+        }
+        return size;
+    }
+
+    public HeapPageId getId() {
+        return _pid;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    public void writePageData(ByteBuffer out) {
+        int base = out.position();
+        int end = base + BufferPool.getPageSize();
+        // records are packed downwards from the end of the page
+        int recordStart = end;
+        for (int i = 0; i < _slots.size(); i++) {
+            int entry = base + HEADER_SIZE + i * SLOT_SIZE;
+            Tuple t = _slots.get(i);
+            if (t == null) {
+                out.putInt(entry, 0);
+                continue;
+            }
+            int size = recordSize(t);
+            recordStart -= size;
+            out.position(recordStart);
+            writeRecord(t, out);
+            out.putShort(entry, (short) (recordStart - base));
+            out.putShort(entry + 2, (short) size);
+        }
+        out.putInt(base, _slots.size());
+        out.putInt(base + 4, end - recordStart);
+        out.position(base + HEADER_SIZE + _slots.size() * SLOT_SIZE);
+        HeapPage.zero(out, recordStart - out.position());
+        out.position(end);
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!_td.equals(t.getTupleDesc()))
+            throw new DbException(String.format("Tuple(%s) does not match the TupleDesc of SlottedHeapPage(%s)", t, _pid));
+        int size = recordSize(t);
+        if (!fits(size))
+            throw new DbException(String.format("SlottedHeapPage(%s) has no room for Tuple(%s)", _pid, t));
+        captureBeforeImage();
+        int slot = _slots.size();
+        if (_emptySlots > 0) {
+            slot = _slots.indexOf(null);
+            _slots.set(slot, t);
+            _emptySlots--;
+        } else {
+            _slots.add(t);
+            _usedBytes += SLOT_SIZE;
+        }
+        _usedBytes += size;
+        t.setRecordId(new RecordId(_pid, slot));
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        // the record id names the slot, no need to search for it
+        RecordId rid = t.getRecordId();
+        if (rid != null && _pid.equals(rid.getPageId())) {
+            int i = rid.tupleno();
+            if (i >= 0 && i < _slots.size() && _slots.get(i) != null) {
+                captureBeforeImage();
+                _usedBytes -= recordSize(_slots.get(i));
+                _slots.set(i, null);
+                _emptySlots++;
+                return;
+            }
+        }
+        throw new DbException(String.format("Cannot find Tuple(%s) in SlottedHeapPage(%s)", t, _pid));
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return fits(recordSize(t));
+    }
+
+    public boolean hasFreeSpace() {
+        return fits(minRecordSize());
+    }
+
+    /** @return the number of slots in the directory, used or not */
+    public int getNumSlots() {
+        return _slots.size();
+    }
+
+    /** @return the number of free bytes between the slot directory and the records */
+    public int getFreeBytes() {
+        return BufferPool.getPageSize() - _usedBytes;
+    }
+
+    /** @return true if the slot holds a tuple */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < _slots.size() && _slots.get(i) != null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        _dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return _dirtier;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int _next = advance(0);
+
+            private int advance(int from) {
+                while (from < _slots.size() && _slots.get(from) == null)
+                    from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return _next < _slots.size();
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = _slots.get(_next);
+                _next = advance(_next + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public Iterator<Tuple> iterator(int[] columns, TupleDesc projected) {
+        return HeapPage.project(iterator(), columns, projected);
+    }
+}
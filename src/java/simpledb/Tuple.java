@@ -4,13 +4,17 @@ package simpledb;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import static simpledb.Type.STRING_LEN;
 
@@ -27,6 +31,15 @@ public class Tuple implements Serializable {
     private RecordId _recordId;
     private ArrayList<Field> _tupleFields = new ArrayList<>();
 
+    // for a tuple decoded lazily: the page bytes holding its fields and where
+    // they start, until every field has been read; fields not read yet are null.
+    // Tuples of a cached page are shared between threads, so these and the
+    // fields not read yet are only touched holding the tuple's monitor; a
+    // field once read never changes, and Fields are immutable
+    private transient byte[] _source;
+    private transient int _offset;
+    private transient int _undecoded;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -54,6 +67,58 @@ public class Tuple implements Serializable {
         }
     }
 
+    /**
+     * Create a tuple whose fields are serialized in source starting at
+     * offset, and are only parsed when first read.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[], boolean)
+     */
+    Tuple(TupleDesc td, byte[] source, int offset) {
+        _tupleDesc = td;
+        _source = source;
+        _offset = offset;
+        _undecoded = td.numFields();
+        for (int i = 0; i < _undecoded; i++)
+            _tupleFields.add(null);
+    }
+
+    /**
+     * Parses field i out of the source bytes, unless another thread has
+     * already, and returns it.
+     */
+    private synchronized Field decode(int i) {
+        Field f = _tupleFields.get(i);
+        if (f != null || _source == null)
+            return f;
+        int offset = _offset;
+        for (int j = 0; j < i; j++)
+            offset += _tupleDesc.getFieldType(j).getLen();
+        Type type = _tupleDesc.getFieldType(i);
+        try {
+            f = type.parse(ByteBuffer.wrap(_source, offset, type.getLen()));
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        _tupleFields.set(i, f);
+        if (--_undecoded == 0)
+            _source = null;
+        return f;
+    }
+
+    /** Parses every field not read yet. */
+    private synchronized void decodeAll() {
+        if (_source == null)
+            return;
+        for (int i = 0; i < _tupleFields.size(); i++)
+            decode(i);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -92,8 +157,21 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        if (i >= 0 && i < _tupleFields.size())
-            _tupleFields.set(i, f);
+        if (i >= 0 && i < _tupleFields.size()) {
+            if (_source != null)
+                setUndecodedField(i, f);
+            else
+                _tupleFields.set(i, f);
+        }
+    }
+
+    /**
+     * Sets field i of a tuple decoded lazily, which then need not be parsed.
+     */
+    private synchronized void setUndecodedField(int i, Field f) {
+        if (_source != null && _tupleFields.get(i) == null && --_undecoded == 0)
+            _source = null;
+        _tupleFields.set(i, f);
     }
 
     /**
@@ -104,12 +182,24 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        if (i >= 0 && i < _tupleFields.size())
-            return _tupleFields.get(i);
+        if (i >= 0 && i < _tupleFields.size()) {
+            Field f = _tupleFields.get(i);
+            // a field not read yet, or read by another thread since
+            if (f == null)
+                f = decode(i);
+            return f;
+        }
         else
             return null;
     }
 
+    /**
+     * @return the ith field if it has been set or read, without parsing it
+     */
+    Field peekField(int i) {
+        return _tupleFields.get(i);
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -120,6 +210,7 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
+        decodeAll();
         String content = "";
         for (int i = 0; i < _tupleFields.size(); i++) {
             Field f = _tupleFields.get(i);
@@ -138,6 +229,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        decodeAll();
         return _tupleFields.iterator();
     }
 
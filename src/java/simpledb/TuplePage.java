@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of a HeapFile, in whichever format the file uses: it
+ * holds tuples addressed by slot number and can add and remove them.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ * @see ColumnarHeapPage
+ * @see HeapFile.PageFormat
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     * @throws DbException if the tuple does not fit on the page
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the tuple the RecordId of t points to from the page.
+     * @throws DbException if that slot is not on this page or is empty
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /** @return true if t would fit on the page */
+    public boolean hasRoomFor(Tuple t);
+
+    /** @return true if the smallest tuple of the table's schema would fit on the page */
+    public boolean hasFreeSpace();
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order; calling
+     * remove on it throws an UnsupportedOperationException
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * @return an iterator over the tuples on this page like iterator(), each
+     * holding only the given columns, in that order, and with the projected
+     * TupleDesc; pages decode as little of the other columns as their
+     * format allows
+     */
+    public Iterator<Tuple> iterator(int[] columns, TupleDesc projected);
+
+    /**
+     * Serializes this page into out, starting at its position, in the format
+     * getPageData returns, and moves the position past the page. Every byte
+     * of the page is written, so out may be a reused buffer.
+     */
+    public void writePageData(ByteBuffer out);
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * 2Q replacement (Johnson and Shasha), a scan resistant variant of LRU.
+ * <p>
+ * A page read for the first time goes into A1in, a FIFO of about a quarter
+ * of the pool. When it is pushed out of A1in only its id is remembered, in
+ * the A1out ghost queue. A page that misses again while it is still in
+ * A1out has proven it is reused and is promoted into Am, which is managed
+ * as plain LRU. A sequential scan therefore only ever cycles through A1in
+ * and cannot flush the hot pages (e.g. B+ tree internal pages) living in Am.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+
+    private final int _kin;
+    private final LinkedHashMap<PageId, Boolean> _a1in; // resident, FIFO
+    private final LinkedHashMap<PageId, Boolean> _a1out; // ghosts, FIFO
+    private final LinkedHashMap<PageId, Boolean> _am; // resident, LRU
+
+    /**
+     * @param capacity the number of pages the owning pool can hold
+     */
+    public TwoQPolicy(int capacity) {
+        this._kin = Math.max(1, capacity / 4);
+        final int kout = Math.max(1, capacity / 2);
+        this._a1in = new LinkedHashMap<>();
+        this._a1out = new LinkedHashMap<PageId, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                return size() > kout;
+            }
+        };
+        this._am = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public void recordInsert(PageId pid) {
+        if (_am.containsKey(pid) || _a1in.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        if (_a1out.remove(pid) != null)
+            _am.put(pid, Boolean.TRUE);
+        else
+            _a1in.put(pid, Boolean.TRUE);
+    }
+
+    public void recordAccess(PageId pid) {
+        // hits in A1in are deliberately ignored, they are likely correlated
+        _am.get(pid);
+    }
+
+    public void recordRemove(PageId pid) {
+        if (_am.remove(pid) == null)
+            _a1in.remove(pid);
+    }
+
+    public PageId evict() {
+        if (_a1in.size() > _kin || (_am.isEmpty() && !_a1in.isEmpty())) {
+            PageId victim = removeEldest(_a1in);
+            _a1out.put(victim, Boolean.TRUE);
+            return victim;
+        }
+        return removeEldest(_am);
+    }
+
+    /**
+     * The queue evict() takes from, oldest first, then the other one.
+     */
+    public Iterator<PageId> candidates() {
+        if (_a1in.size() > _kin || _am.isEmpty())
+            return Stream.concat(_a1in.keySet().stream(), _am.keySet().stream()).iterator();
+        return Stream.concat(_am.keySet().stream(), _a1in.keySet().stream()).iterator();
+    }
+
+    public void evict(PageId pid) {
+        if (_a1in.remove(pid) != null)
+            _a1out.put(pid, Boolean.TRUE);
+        else
+            _am.remove(pid);
+    }
+
+    public int size() {
+        return _a1in.size() + _am.size();
+    }
+
+    private static PageId removeEldest(LinkedHashMap<PageId, Boolean> queue) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        if (!it.hasNext())
+            return null;
+        PageId pid = it.next();
+        it.remove();
+        return pid;
+    }
+}
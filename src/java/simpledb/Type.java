@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer bb) throws ParseException {
+            try {
+                return new IntField(bb.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,20 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer bb) throws ParseException {
+            try {
+                int start = bb.position();
+                int strLen = bb.getInt();
+                byte bs[] = new byte[strLen];
+                bb.get(bs);
+                bb.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +85,14 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at its position. Advances the
+   *   position past the field.
+   * @param bb The buffer to read from
+   * @throws ParseException if the buffer does not hold a field of this type
+   *   at its position.
+   */
+    public abstract Field parse(ByteBuffer bb) throws ParseException;
+
 }
@@ -0,0 +1,221 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.reset();
+	}
+
+	private static BTreeFile emptyFile() throws Exception {
+		File f = File.createTempFile("bulk", ".dat");
+		f.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+	}
+
+	/** @return rows (key, i) in a random order, keys in [0, max) */
+	private static ArrayList<Tuple> randomTuples(int rows, int max) {
+		Random random = new Random(rows);
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < rows; i++)
+			tuples.add(BTreeUtility.getBTreeTuple(new int[] { random.nextInt(max), i }));
+		return tuples;
+	}
+
+	private int load(BTreeFile bf, ArrayList<Tuple> tuples, boolean sorted, double fillFactor, long sortMemory)
+			throws Exception {
+		TupleIterator it = new TupleIterator(Utility.getTupleDesc(2), tuples);
+		it.open();
+		int n = bf.bulkLoad(tid, it, sorted, fillFactor, sortMemory);
+		it.close();
+		return n;
+	}
+
+	/** @return the number of tuples on each leaf, left to right along the sibling pointers */
+	private ArrayList<Integer> leafSizes(BTreeFile bf) throws Exception {
+		BTreePageId rootId = bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+		BTreeLeafPage leaf = bf.findLeafPage(tid, rootId, Permissions.READ_ONLY, null);
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		BTreePageId left = null;
+		while (true) {
+			assertEquals(left, leaf.getLeftSiblingId());
+			sizes.add(leaf.getNumTuples());
+			if (leaf.getRightSiblingId() == null)
+				return sizes;
+			left = leaf.getId();
+			leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, leaf.getRightSiblingId(), Permissions.READ_ONLY);
+		}
+	}
+
+	/** Asserts that a scan returns the keys of tuples in order. */
+	private void assertScan(BTreeFile bf, ArrayList<Tuple> tuples) throws Exception {
+		int[] keys = new int[tuples.size()];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = ((IntField) tuples.get(i).getField(0)).getValue();
+		Arrays.sort(keys);
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		for (int key : keys)
+			assertEquals(new IntField(key), it.next().getField(0));
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	@Test
+	public void testSortedLoad() throws Exception {
+		BTreeFile bf = emptyFile();
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < 20000; i++)
+			tuples.add(BTreeUtility.getBTreeTuple(new int[] { i, -i }));
+		assertEquals(20000, load(bf, tuples, true, 1.0, BTreeFile.DEFAULT_SORT_MEMORY));
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertScan(bf, tuples);
+		int perPage = BTreeUtility.getNumTuplesPerPage(2);
+		ArrayList<Integer> sizes = leafSizes(bf);
+		assertEquals((20000 + perPage - 1) / perPage, sizes.size());
+		for (int i = 0; i < sizes.size() - 2; i++)
+			assertEquals(perPage, (int) sizes.get(i));
+
+		// a loaded tree takes inserts and lookups like any other
+		for (int i = 0; i < 1000; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 2 * i + 1, 0 }));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(1001)));
+		it.open();
+		HashSet<Field> found = new HashSet<Field>();
+		while (it.hasNext())
+			found.add(it.next().getField(1));
+		assertEquals(new HashSet<Field>(Arrays.asList(new IntField(-1001), new IntField(0))), found);
+		it.close();
+	}
+
+	@Test
+	public void testUnsortedLoadSpills() throws Exception {
+		BTreeFile bf = emptyFile();
+		// duplicate keys, and runs of about 2000 tuples
+		ArrayList<Tuple> tuples = randomTuples(30000, 5000);
+		TupleIterator input = new TupleIterator(Utility.getTupleDesc(2), tuples);
+		input.open();
+		ExternalSort sort = new ExternalSort(input, new BTreeFileEncoder.TupleComparator(0), 100000);
+		assertTrue(sort.getNumRuns() > 10);
+		sort.close();
+
+		assertEquals(30000, load(bf, tuples, false, 1.0, 100000));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertScan(bf, tuples);
+	}
+
+	@Test
+	public void testMergePasses() throws Exception {
+		ArrayList<Tuple> tuples = randomTuples(30000, 5000);
+		TupleIterator input = new TupleIterator(Utility.getTupleDesc(2), tuples);
+		input.open();
+		// more than three runs take several passes of three runs each
+		ExternalSort sort = new ExternalSort(input, new BTreeFileEncoder.TupleComparator(0), 100000, 3);
+		assertTrue(sort.getNumRuns() > 10);
+		assertTrue(sort.getNumMergePasses() >= (sort.getNumRuns() - 3) / 2);
+		int count = 0;
+		int last = Integer.MIN_VALUE;
+		while (sort.hasNext()) {
+			int key = ((IntField) sort.next().getField(0)).getValue();
+			assertTrue(key >= last);
+			last = key;
+			count++;
+		}
+		sort.close();
+		assertEquals(30000, count);
+	}
+
+	@Test
+	public void testFillFactor() throws Exception {
+		int perPage = BTreeUtility.getNumTuplesPerPage(2);
+		ArrayList<Tuple> tuples = randomTuples(20000, Integer.MAX_VALUE);
+		int[] leaves = new int[2];
+		double[] fillFactors = { 0.5, 0.75 };
+		for (int i = 0; i < fillFactors.length; i++) {
+			BTreeFile bf = emptyFile();
+			load(bf, tuples, false, fillFactors[i], BTreeFile.DEFAULT_SORT_MEMORY);
+			BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+			ArrayList<Integer> sizes = leafSizes(bf);
+			leaves[i] = sizes.size();
+			for (int size : sizes)
+				assertTrue(size >= perPage / 2 && size <= perPage);
+			assertEquals((int) (fillFactors[i] * perPage), (int) sizes.get(0));
+		}
+		assertTrue(leaves[0] > leaves[1] * 1.4);
+	}
+
+	@Test
+	public void testSmallAndEmptyLoads() throws Exception {
+		BTreeFile bf = emptyFile();
+		assertEquals(0, load(bf, new ArrayList<Tuple>(), true, 1.0, BTreeFile.DEFAULT_SORT_MEMORY));
+		assertEquals(Arrays.asList(0), leafSizes(bf));
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 1, 2 }));
+		assertEquals(Arrays.asList(1), leafSizes(bf));
+
+		// one more than fits on a leaf
+		bf = emptyFile();
+		int perPage = BTreeUtility.getNumTuplesPerPage(2);
+		load(bf, randomTuples(perPage + 1, 100), false, 1.0, BTreeFile.DEFAULT_SORT_MEMORY);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(Arrays.asList((perPage + 1) / 2, perPage + 1 - (perPage + 1) / 2), leafSizes(bf));
+	}
+
+	@Test
+	public void testRejects() throws Exception {
+		BTreeFile bf = emptyFile();
+		ArrayList<Tuple> tuples = randomTuples(1000, 100);
+		try {
+			load(bf, tuples, false, 0.4, BTreeFile.DEFAULT_SORT_MEMORY);
+			fail("a fill factor under a half leaves pages under half full");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			load(bf, tuples, true, 1.0, BTreeFile.DEFAULT_SORT_MEMORY);
+			fail("the tuples are not sorted");
+		} catch (DbException e) {
+			// expected
+		}
+
+		bf = emptyFile();
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 1, 2 }));
+		try {
+			load(bf, tuples, false, 1.0, BTreeFile.DEFAULT_SORT_MEMORY);
+			fail("the file is not empty");
+		} catch (DbException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+	}
+}
@@ -30,6 +30,9 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 	@After
 	public void tearDown() throws Exception {
 		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
 	}
 
 	/**
@@ -201,6 +204,64 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * Unit test for BTreeFile.indexIterator() with a list of keys
+	 */
+	@Test public void multiKeyIndexIterator() throws Exception {
+		// small pages for a tree of three levels, and few distinct keys, so
+		// that runs of equal keys cross leaves
+		BufferPool.setPageSize(256);
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 20000, 400, null, tuples, 0);
+		Database.resetBufferPool(1000);
+		TreeMap<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+		for (ArrayList<Integer> tuple : tuples) {
+			Integer n = counts.get(tuple.get(0));
+			counts.put(tuple.get(0), n == null ? 1 : n + 1);
+		}
+
+		// keys in the file and not, below and above all of them, and repeated
+		Random rand = new Random(1);
+		ArrayList<Field> keys = new ArrayList<Field>();
+		for (int i = 0; i < 300; i++)
+			keys.add(new IntField(rand.nextInt(450) - 20));
+		keys.add(new IntField(17));
+		keys.add(new IntField(17));
+		Collections.sort(keys, new Comparator<Field>() {
+			public int compare(Field a, Field b) {
+				return ((IntField) a).getValue() - ((IntField) b).getValue();
+			}
+		});
+		ArrayList<Integer> expected = new ArrayList<Integer>();
+		for (Field key : new LinkedHashSet<Field>(keys)) {
+			Integer n = counts.get(((IntField) key).getValue());
+			for (int i = 0; n != null && i < n; i++)
+				expected.add(((IntField) key).getValue());
+		}
+
+		DbFileIterator it = bigFile.indexIterator(tid, keys);
+		it.open();
+		for (int pass = 0; pass < 2; pass++) {
+			ArrayList<Integer> found = new ArrayList<Integer>();
+			while (it.hasNext())
+				found.add(((IntField) it.next().getField(0)).getValue());
+			assertEquals(expected, found);
+			it.rewind();
+		}
+		it.close();
+
+		it = bigFile.indexIterator(tid, Arrays.asList((Field) new IntField(-1), new IntField(5), new IntField(3)));
+		it.open();
+		try {
+			while (it.hasNext())
+				it.next();
+			fail("the keys are not sorted");
+		} catch (DbException e) {
+			// expected
+		}
+		it.close();
+	}
+
 	/**
 	 * JUnit suite target
 	 */
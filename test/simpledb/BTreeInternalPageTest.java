@@ -313,6 +313,46 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChild(), against a linear search
+	 * of the entries on a page with empty slots between them
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 1; i < entries.size(); i += 3)
+			page.deleteKeyAndRightChild(entries.get(i));
+		entries.clear();
+		it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+
+		assertEquals(entries.get(0).getLeftChild(), page.findChild(null));
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int k = 0; k < 70000; k += 997)
+			keys.add(k);
+		for (BTreeEntry e : entries) {
+			int k = ((IntField) e.getKey()).getValue();
+			keys.add(k - 1);
+			keys.add(k);
+			keys.add(k + 1);
+		}
+		for (int k : keys) {
+			Field key = new IntField(k);
+			BTreePageId expected = entries.get(entries.size() - 1).getRightChild();
+			for (BTreeEntry e : entries) {
+				if (key.compare(Predicate.Op.LESS_THAN_OR_EQ, e.getKey())) {
+					expected = e.getLeftChild();
+					break;
+				}
+			}
+			assertEquals("key " + k, expected, page.findChild(key));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -295,6 +295,42 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.lowerBound() and upperBound(), against a
+	 * linear search of a page with duplicate keys and empty slots between them
+	 */
+	@Test public void binarySearch() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, BTreeLeafPage.createEmptyPageData(), 0);
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < 300; i++)
+			tuples.add(BTreeUtility.getBTreeTuple(new int[] { i / 3, i }));
+		Collections.shuffle(tuples, new Random(42));
+		for (Tuple t : tuples)
+			page.insertTuple(t);
+		for (int i = 0; i < tuples.size(); i += 4)
+			page.deleteTuple(tuples.get(i));
+
+		for (int k = -1; k <= 101; k++) {
+			Field key = new IntField(k);
+			int lower = page.getMaxTuples();
+			int upper = page.getMaxTuples();
+			Iterator<Tuple> it = page.reverseIterator();
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (t.getField(0).compare(Predicate.Op.GREATER_THAN_OR_EQ, key))
+					lower = t.getRecordId().tupleno();
+				if (t.getField(0).compare(Predicate.Op.GREATER_THAN, key))
+					upper = t.getRecordId().tupleno();
+			}
+			assertEquals("lower bound of " + k, lower, page.lowerBound(key));
+			assertEquals("upper bound of " + k, upper, page.upperBound(key));
+		}
+
+		// iterating from the lower bound starts at the tuple in that slot
+		int slot = page.lowerBound(new IntField(50));
+		assertEquals(slot, page.iterator(slot).next().getRecordId().tupleno());
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.deleteTuple() with false tuples
 	 */
@@ -0,0 +1,336 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeSeparatorTest extends SimpleDbTestBase {
+	private static final TupleDesc TD = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+
+	private TransactionId tid;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private static BTreeFile emptyFile() throws Exception {
+		File f = File.createTempFile("strings", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, 0, TD);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		return bf;
+	}
+
+	/**
+	 * @return an empty file in the format written before internal pages kept
+	 *         string keys at their length
+	 */
+	private static BTreeFile legacyFile() throws Exception {
+		File f = File.createTempFile("legacy", ".dat");
+		f.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(f);
+		out.write(BTreeFileEncoder.convertToRootPtrPage(1, BTreePageId.LEAF, 0, false));
+		out.write(BTreeLeafPage.createEmptyPageData());
+		out.close();
+		BTreeFile bf = new BTreeFile(f, 0, TD);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		return bf;
+	}
+
+	private static Tuple tuple(String key, int value) {
+		Tuple t = new Tuple(TD);
+		t.setField(0, new StringField(key, Type.STRING_LEN));
+		t.setField(1, new IntField(value));
+		return t;
+	}
+
+	private static StringField key(String s) {
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	/** A prefix longer than any fixed cut of a key would be. */
+	private static final String LONG_PREFIX = "customer/orders/2024/line-items/shipping/";
+
+	/**
+	 * @return keys in a random order, many of them sharing long prefixes,
+	 *         and some repeated
+	 */
+	private static ArrayList<String> randomKeys(int n) {
+		String[] prefixes = { "", "a", "aaaa", "aaaab", "abcdefghij", "abcdefghik", LONG_PREFIX,
+				LONG_PREFIX + "x" };
+		Random random = new Random(n);
+		ArrayList<String> keys = new ArrayList<String>();
+		for (int i = 0; i < n; i++)
+			keys.add(prefixes[random.nextInt(prefixes.length)] + random.nextInt(n / 4));
+		return keys;
+	}
+
+	/** Asserts that searches of bf find the keys it holds, and only them. */
+	private void assertSearches(BTreeFile bf, List<String> keys) throws Exception {
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+		for (String k : keys)
+			counts.put(k, counts.containsKey(k) ? counts.get(k) + 1 : 1);
+
+		// a scan returns the keys in order
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		ArrayList<String> scanned = new ArrayList<String>();
+		while (it.hasNext())
+			scanned.add(((StringField) it.next().getField(0)).getValue());
+		it.close();
+		ArrayList<String> sorted = new ArrayList<String>(keys);
+		Collections.sort(sorted);
+		assertEquals(sorted, scanned);
+
+		ArrayList<Field> probes = new ArrayList<Field>();
+		for (Map.Entry<String, Integer> e : counts.entrySet()) {
+			it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(e.getKey())));
+			it.open();
+			int n = 0;
+			while (it.hasNext()) {
+				assertEquals(key(e.getKey()), it.next().getField(0));
+				n++;
+			}
+			it.close();
+			assertEquals(e.getKey(), (int) e.getValue(), n);
+			probes.add(key(e.getKey()));
+			if (!counts.containsKey(e.getKey() + "0"))
+				probes.add(key(e.getKey() + "0"));
+		}
+
+		// the batched probe finds the same tuples
+		Collections.sort(probes, new Comparator<Field>() {
+			public int compare(Field a, Field b) {
+				return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+			}
+		});
+		it = bf.indexIterator(tid, probes);
+		it.open();
+		int found = 0;
+		while (it.hasNext()) {
+			assertTrue(probes.contains(it.next().getField(0)));
+			found++;
+		}
+		it.close();
+		int expected = 0;
+		for (Field p : probes) {
+			Integer n = counts.get(((StringField) p).getValue());
+			expected += n == null ? 0 : n;
+		}
+		assertEquals(expected, found);
+
+		// ranges start after a key with a long shared prefix
+		String from = "abcdefghij5";
+		it = bf.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN, key(from)));
+		it.open();
+		int greater = 0;
+		while (it.hasNext()) {
+			assertTrue(((StringField) it.next().getField(0)).getValue().compareTo(from) > 0);
+			greater++;
+		}
+		it.close();
+		assertEquals(counts.tailMap(from, false).values().stream().mapToInt(Integer::intValue).sum(), greater);
+	}
+
+	@Test
+	public void separator() {
+		assertEquals(key("apr"), BTreeInternalPage.separator(key("apple"), key("apricot")));
+		assertEquals(key("abc"), BTreeInternalPage.separator(key("ab"), key("abcd")));
+		assertEquals(key("b"), BTreeInternalPage.separator(key("azzzz"), key("b")));
+		// equal keys, and keys alike for longer than any fixed cut
+		assertEquals(key("same"), BTreeInternalPage.separator(key("same"), key("same")));
+		assertEquals(key(LONG_PREFIX + "b"), BTreeInternalPage.separator(key(LONG_PREFIX + "a9"),
+				key(LONG_PREFIX + "b1")));
+		assertEquals(key("abcdef"), BTreeInternalPage.separator(null, key("abcdef")));
+		assertEquals(new IntField(7), BTreeInternalPage.separator(new IntField(3), new IntField(7)));
+	}
+
+	@Test
+	public void fanout() throws Exception {
+		BTreeFile legacy = legacyFile();
+		BTreeFile bf = emptyFile();
+		assertFalse(legacy.hasVariableLengthKeys());
+		assertTrue(bf.hasVariableLengthKeys());
+		byte[] empty = BTreePage.createEmptyPageData();
+		BTreeInternalPage legacyPage = new BTreeInternalPage(new BTreePageId(legacy.getId(), 1,
+				BTreePageId.INTERNAL), empty, 0);
+		BTreeInternalPage page = new BTreeInternalPage(new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL),
+				empty, 0);
+
+		// a full page of ten character keys
+		int entries = 0;
+		while (page.hasRoomForEntry()) {
+			page.insertEntry(new BTreeEntry(key(String.format("key%07d", entries)),
+					new BTreePageId(bf.getId(), entries + 2, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), entries + 3, BTreePageId.LEAF)));
+			entries++;
+		}
+		assertTrue(entries > 5 * legacyPage.getMaxEntries());
+		assertFalse(page.isLessThanHalfFull());
+		assertTrue(legacyPage.isLessThanHalfFull());
+	}
+
+	@Test
+	public void pageRoundTrip() throws Exception {
+		BTreeFile bf = emptyFile();
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pid, BTreePage.createEmptyPageData(), 0);
+		String longest = LONG_PREFIX + LONG_PREFIX + LONG_PREFIX + LONG_PREFIX;
+		longest = longest.substring(0, Type.STRING_LEN);
+		page.insertEntry(new BTreeEntry(key("abcdefgh"), new BTreePageId(bf.getId(), 2, BTreePageId.LEAF),
+				new BTreePageId(bf.getId(), 3, BTreePageId.LEAF)));
+		page.insertEntry(new BTreeEntry(key(longest), new BTreePageId(bf.getId(), 3, BTreePageId.LEAF),
+				new BTreePageId(bf.getId(), 4, BTreePageId.LEAF)));
+		BTreeInternalPage read = new BTreeInternalPage(pid, page.getPageData(), 0);
+		assertArrayEquals(page.getPageData(), read.getPageData());
+		Iterator<BTreeEntry> it = read.iterator();
+		assertEquals(key("abcdefgh"), it.next().getKey());
+		assertEquals(key(longest), it.next().getKey());
+		assertFalse(it.hasNext());
+		assertEquals(new BTreePageId(bf.getId(), 2, BTreePageId.LEAF), read.findChild(key("abcdefgh")));
+		assertEquals(new BTreePageId(bf.getId(), 3, BTreePageId.LEAF), read.findChild(key("abcdefghi")));
+		assertEquals(new BTreePageId(bf.getId(), 4, BTreePageId.LEAF), read.findChild(key("d")));
+	}
+
+	@Test
+	public void legacyFileStaysReadable() throws Exception {
+		// a file written before keeps its format, and stays readable when opened again
+		BufferPool.setPageSize(1024);
+		Database.resetBufferPool(1000);
+		BTreeFile bf = legacyFile();
+		ArrayList<String> keys = randomKeys(1000);
+		for (int i = 0; i < keys.size(); i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(keys.get(i), i));
+		assertSearches(bf, keys);
+		Database.getBufferPool().flushAllPages();
+		Database.getBufferPool().transactionComplete(tid);
+
+		Database.resetBufferPool(1000);
+		BTreeFile reopened = new BTreeFile(bf.getFile(), 0, TD);
+		Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+		assertFalse(reopened.hasVariableLengthKeys());
+		tid = new TransactionId();
+		assertSearches(reopened, keys);
+	}
+
+	@Test
+	public void pagesPerSearch() throws Exception {
+		// keys alike in their first 41 characters still get keys of their
+		// own between leaves, so a search reads one page per level
+		BufferPool.setPageSize(1024);
+		Database.resetBufferPool(1000);
+		BTreeFile bf = emptyFile();
+		Random random = new Random(7);
+		ArrayList<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++)
+			keys.add(LONG_PREFIX + random.nextInt(1000000));
+		for (int i = 0; i < keys.size(); i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(keys.get(i), i));
+		assertSearches(bf, keys);
+
+		// internal levels below the root pointer
+		int levels = 0;
+		BTreePageId pid = bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			levels++;
+			pid = ((BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY))
+					.iterator().next().getLeftChild();
+		}
+		assertTrue(levels >= 2);
+
+		for (String k : keys.subList(0, 200)) {
+			BufferPool pool = Database.getBufferPool();
+			long pages = pool.getNumHits() + pool.getNumMisses();
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(k)));
+			it.open();
+			while (it.hasNext())
+				it.next();
+			it.close();
+			// the root pointer, a page per level, the leaf, and the next leaf
+			// when the key ends a leaf
+			pages = pool.getNumHits() + pool.getNumMisses() - pages;
+			assertTrue(k + " read " + pages + " pages", pages <= levels + 3);
+		}
+	}
+
+	@Test
+	public void insertsAndDeletes() throws Exception {
+		// small pages for a deep tree
+		BufferPool.setPageSize(1024);
+		Database.resetBufferPool(1000);
+		BTreeFile bf = emptyFile();
+		ArrayList<String> keys = randomKeys(3000);
+		for (int i = 0; i < keys.size(); i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(keys.get(i), i));
+		assertTrue(bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId().pgcateg() == BTreePageId.INTERNAL);
+		assertSearches(bf, keys);
+
+		// delete half the tuples, which merges and steals; a search finds
+		// each one, as deletes move the tuples that remain
+		ArrayList<String> kept = new ArrayList<String>(keys.subList(keys.size() / 2, keys.size()));
+		for (String k : keys.subList(0, keys.size() / 2)) {
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(k)));
+			it.open();
+			Tuple t = it.next();
+			it.close();
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		assertSearches(bf, kept);
+	}
+
+	@Test
+	public void bulkLoad() throws Exception {
+		BufferPool.setPageSize(1024);
+		Database.resetBufferPool(1000);
+		BTreeFile bf = emptyFile();
+		ArrayList<String> keys = randomKeys(3000);
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < keys.size(); i++)
+			tuples.add(tuple(keys.get(i), i));
+		TupleIterator input = new TupleIterator(TD, tuples);
+		input.open();
+		assertEquals(keys.size(), bf.bulkLoad(tid, input, false, 1.0));
+		input.close();
+		assertSearches(bf, keys);
+
+		// and inserts into a loaded tree find their leaves
+		ArrayList<String> more = new ArrayList<String>(keys);
+		for (int i = 0; i < 500; i++) {
+			String k = keys.get(i) + "x";
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k, i));
+			more.add(k);
+		}
+		assertSearches(bf, more);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeSeparatorTest.class);
+	}
+}
@@ -0,0 +1,792 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /**
+     * HeapPageId that counts how often it is compared. A hash lookup
+     * compares the key it is given once; a list scan compares it with every
+     * element it passes.
+     */
+    static class CountingPageId extends HeapPageId {
+        static final AtomicLong comparisons = new AtomicLong();
+
+        CountingPageId(int tableId, int pgNo) {
+            super(tableId, pgNo);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            comparisons.incrementAndGet();
+            return super.equals(o);
+        }
+    }
+
+    /**
+     * Minimal in-memory page, so the pool can be filled with 100k pages
+     * without touching the disk or the 128MB test heap.
+     */
+    static class StubPage implements Page {
+        private final PageId pid;
+        private TransactionId dirtier;
+        // tests change it to stand for a page that grew in place
+        volatile long footprint;
+
+        StubPage(PageId pid) {
+            this(pid, 1000);
+        }
+
+        StubPage(PageId pid, long footprint) {
+            this.pid = pid;
+            this.footprint = footprint;
+        }
+
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return dirtier; }
+        public void markDirty(boolean dirty, TransactionId tid) { dirtier = dirty ? tid : null; }
+        public byte[] getPageData() { return new byte[0]; }
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() { }
+        public long getMemoryFootprint() { return footprint; }
+    }
+
+    /**
+     * DbFile that fabricates a StubPage for any page number, counts reads and
+     * records the page numbers it is asked to write. Reads can be slowed down,
+     * and reads of one page number can be made to fail. Inserting the tuple
+     * (n) dirties page n.
+     */
+    static class StubFile extends TestUtil.SkeletonFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger decodes = new AtomicInteger();
+        final List<Integer> writes = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile int readDelayMillis = 0;
+        volatile int failingPage = -1;
+
+        StubFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(1));
+        }
+
+        @Override
+        public Page readPage(PageId id) throws NoSuchElementException {
+            reads.incrementAndGet();
+            if (readDelayMillis > 0) {
+                try {
+                    Thread.sleep(readDelayMillis);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (id.pageNumber() == failingPage)
+                throw new IllegalArgumentException("cannot read " + id);
+            return new StubPage(id);
+        }
+
+        @Override
+        public Page decodePage(PageId id, byte[] data) {
+            decodes.incrementAndGet();
+            return new StubPage(id);
+        }
+
+        @Override
+        public void writePage(Page p) {
+            writes.add(p.getId().pageNumber());
+        }
+
+        @Override
+        public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) {
+            int pgNo = ((IntField) t.getField(0)).getValue();
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            dirtied.add(new StubPage(new HeapPageId(getId(), pgNo)));
+            return dirtied;
+        }
+    }
+
+    private StubFile file;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = new StubFile(SystemTestUtil.getUUID().hashCode());
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    /**
+     * A hit must not read the page again, and a full pool evicts the least
+     * recently used page.
+     */
+    @Test public void lruEviction() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        PageId p0 = new HeapPageId(file.getId(), 0);
+        PageId p1 = new HeapPageId(file.getId(), 1);
+        PageId p2 = new HeapPageId(file.getId(), 2);
+        PageId p3 = new HeapPageId(file.getId(), 3);
+
+        Page page0 = bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+        assertEquals(3, file.reads.get());
+
+        // touch p0 so that p1 becomes the LRU page
+        assertSame(page0, bp.getPage(tid, p0, Permissions.READ_ONLY));
+        assertEquals(3, file.reads.get());
+
+        bp.getPage(tid, p3, Permissions.READ_ONLY);
+        assertEquals(4, file.reads.get());
+
+        // p0, p2 and p3 are still resident, p1 was evicted
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+        bp.getPage(tid, p3, Permissions.READ_ONLY);
+        assertEquals(4, file.reads.get());
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertEquals(5, file.reads.get());
+    }
+
+    /**
+     * Requests for random cached pages land anywhere in the recency order,
+     * halfway along it on average. Whatever the size of the pool, every such
+     * request is a hit that neither reads the page again nor evicts a page,
+     * and it compares the requested PageId with the same few cached ones: a
+     * structure that searched its pages would make more comparisons the
+     * larger the pool.
+     */
+    @Test public void hitsAtEveryPoolSize() throws Exception {
+        long perHit = -1;
+        for (int numPages : new int[] {50, 1000, 10000, 100000}) {
+            BufferPool bp = Database.resetBufferPool(numPages);
+            for (int i = 0; i < numPages; i++)
+                bp.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+            int readsBefore = file.reads.get();
+            long hitsBefore = bp.getNumHits();
+            long missesBefore = bp.getNumMisses();
+            int hits = numPages * 4;
+            Random r = new Random(numPages);
+            // a new PageId per request, so no lookup can get by on identity alone
+            CountingPageId.comparisons.set(0);
+            for (int i = 0; i < hits; i++)
+                bp.getPage(tid, new CountingPageId(file.getId(), r.nextInt(numPages)), Permissions.READ_ONLY);
+            long comparisons = CountingPageId.comparisons.get();
+            assertEquals("hits must not go to the DbFile", readsBefore, file.reads.get());
+            assertEquals(hits, bp.getNumHits() - hitsBefore);
+            assertEquals(missesBefore, bp.getNumMisses());
+            assertEquals(numPages, bp.getNumCachedPages());
+
+            assertEquals(numPages + " pages: comparisons per hit", 0, comparisons % hits);
+            if (perHit < 0)
+                perHit = comparisons / hits;
+            assertEquals(numPages + " pages: comparisons per hit", perHit, comparisons / hits);
+        }
+        assertTrue(perHit + " comparisons per hit", perHit > 0 && perHit <= 4);
+    }
+
+    /**
+     * Runs body on numThreads threads at once and rethrows the first failure.
+     */
+    private static void runConcurrently(int numThreads, final ThreadBody body) throws Exception {
+        runConcurrently(numThreads, body, null);
+    }
+
+    /**
+     * Like runConcurrently(numThreads, body), but opens the start latch once
+     * every thread is running.
+     */
+    private static void runConcurrently(int numThreads, final ThreadBody body, CountDownLatch start)
+            throws Exception {
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        body.run(id);
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+        }
+        for (Thread t : threads)
+            t.start();
+        if (start != null) {
+            // give the threads a moment to block on the latch
+            Thread.sleep(20);
+            start.countDown();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (!failures.isEmpty())
+            throw new AssertionError(failures.get(0));
+    }
+
+    interface ThreadBody {
+        void run(int threadId) throws Exception;
+    }
+
+    /**
+     * Threads that miss on the same pages at the same time must all end up
+     * with the same Page object.
+     */
+    @Test public void concurrentMissesShareOnePage() throws Exception {
+        final int numPages = 512;
+        final BufferPool bp = Database.resetBufferPool(numPages * 2);
+        final Page[][] seen = new Page[8][numPages];
+        runConcurrently(8, new ThreadBody() {
+            public void run(int threadId) throws Exception {
+                TransactionId t = new TransactionId();
+                for (int i = 0; i < numPages; i++) {
+                    // half the threads walk backwards so they meet in the middle
+                    int pgNo = threadId % 2 == 0 ? i : numPages - 1 - i;
+                    seen[threadId][pgNo] = bp.getPage(t, new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
+                }
+            }
+        });
+        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+            for (int t = 1; t < seen.length; t++)
+                assertSame(seen[0][pgNo], seen[t][pgNo]);
+        }
+        assertEquals(numPages, bp.getNumCachedPages());
+        assertEquals("each page must be read exactly once", numPages, file.reads.get());
+        bp.checkInvariants();
+    }
+
+    /**
+     * Threads that miss on the same page while it is being read wait for that
+     * read instead of issuing their own.
+     */
+    @Test public void singleFlightLoad() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final PageId pid = new HeapPageId(file.getId(), 7);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Page[] seen = new Page[16];
+        file.readDelayMillis = 200;
+        runConcurrently(seen.length, new ThreadBody() {
+            public void run(int threadId) throws Exception {
+                start.await();
+                seen[threadId] = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+            }
+        }, start);
+        assertEquals(1, file.reads.get());
+        for (Page p : seen)
+            assertSame(seen[0], p);
+        assertEquals(1, bp.getNumMisses());
+        assertEquals(seen.length - 1, bp.getNumHits());
+    }
+
+    /**
+     * A failed read is reported to every thread waiting on it and is not
+     * cached, so the next request tries the disk again.
+     */
+    @Test public void failedLoadIsSharedAndRetried() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final PageId pid = new HeapPageId(file.getId(), 3);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        file.readDelayMillis = 200;
+        file.failingPage = 3;
+        runConcurrently(8, new ThreadBody() {
+            public void run(int threadId) throws Exception {
+                start.await();
+                try {
+                    bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                } catch (IllegalArgumentException e) {
+                    failures.incrementAndGet();
+                }
+            }
+        }, start);
+        assertEquals(8, failures.get());
+        assertEquals(1, file.reads.get());
+        assertEquals(0, bp.getNumCachedPages());
+
+        file.failingPage = -1;
+        assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+        assertEquals(2, file.reads.get());
+        bp.checkInvariants();
+    }
+
+    /**
+     * A prefetched page is read once, in the background, and a later getPage
+     * for it is a hit even if the read has not finished yet.
+     */
+    @Test public void prefetchIsSharedWithGetPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PageId pid = new HeapPageId(file.getId(), 5);
+        file.readDelayMillis = 100;
+        assertTrue(bp.prefetchPage(pid));
+        // already on its way, nothing more to do
+        assertTrue(bp.prefetchPage(pid));
+        assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+        assertEquals(1, file.reads.get());
+        assertEquals(1, bp.getNumPrefetches());
+        assertEquals(1, bp.getNumHits());
+        assertEquals(0, bp.getNumMisses());
+        bp.checkInvariants();
+    }
+
+    /**
+     * Prefetching stops once a quarter of the pool holds prefetched pages
+     * nobody has asked for, and resumes when they are used or dropped.
+     */
+    @Test public void prefetchStopsUnderPressure() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8); // room for 2 unused prefetches
+        PageId p0 = new HeapPageId(file.getId(), 0);
+        PageId p1 = new HeapPageId(file.getId(), 1);
+        PageId p2 = new HeapPageId(file.getId(), 2);
+        assertTrue(bp.prefetchPage(p0));
+        assertTrue(bp.prefetchPage(p1));
+        assertFalse(bp.prefetchPage(p2));
+
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        assertTrue(bp.prefetchPage(p2));
+        assertFalse(bp.prefetchPage(new HeapPageId(file.getId(), 3)));
+
+        bp.discardPage(p1);
+        assertTrue(bp.prefetchPage(new HeapPageId(file.getId(), 3)));
+        assertEquals(4, bp.getNumPrefetches());
+        bp.checkInvariants();
+    }
+
+    /**
+     * Dirties the given pages through BufferPool.insertTuple.
+     */
+    private void dirty(BufferPool bp, int... pgNos) throws Exception {
+        for (int pgNo : pgNos)
+            bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(pgNo));
+    }
+
+    /**
+     * Waits up to five seconds for the background writer to bring the pool
+     * down to the given number of dirty pages.
+     */
+    private static void awaitDirtyPages(BufferPool bp, int atMost) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getNumDirtyPages() > atMost && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertTrue(bp.getNumDirtyPages() + " pages still dirty", bp.getNumDirtyPages() <= atMost);
+    }
+
+    /**
+     * Between the watermarks the writer trickles pages out until the pool is
+     * back at the low watermark, and leaves the rest dirty.
+     */
+    @Test public void backgroundWriterTricklesToLowWatermark() throws Exception {
+        BufferPool bp = Database.resetBufferPool(40);
+        bp.setDirtyWatermarks(0.25, 0.75); // 10 and 30 pages
+        for (int i = 0; i < 20; i++)
+            dirty(bp, i);
+        awaitDirtyPages(bp, 10);
+        // give a pass that is still running time to finish
+        Thread.sleep(50);
+        assertEquals(20, file.writes.size() + bp.getNumDirtyPages());
+        assertEquals(file.writes.size(), bp.getNumBackgroundWrites());
+        assertTrue(bp.getNumDirtyPages() > 0);
+        bp.checkInvariants();
+    }
+
+    /**
+     * Above the high watermark the writer empties the pool down to the low
+     * watermark in one pass, writing in page order whatever order the pages
+     * were dirtied in.
+     */
+    @Test public void backgroundWriterWritesInPageOrder() throws Exception {
+        BufferPool bp = Database.resetBufferPool(40);
+        // keep the writer idle while the pages are dirtied back to front
+        bp.setDirtyWatermarks(1, 1);
+        for (int i = 30; i > 0; i--)
+            dirty(bp, i);
+        assertEquals(30, bp.getNumDirtyPages());
+        assertTrue(file.writes.isEmpty());
+
+        bp.setDirtyWatermarks(0, 0.25);
+        dirty(bp, 0);
+        awaitDirtyPages(bp, 0);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i <= 30; i++)
+            expected.add(i);
+        assertEquals(expected, file.writes);
+        bp.checkInvariants();
+    }
+
+    /**
+     * The writer leaves a dirty page alone while an insertTuple that got it
+     * READ_WRITE is still changing it, and writes it once the change is in.
+     */
+    @Test public void backgroundWriterSkipsPagesBeingChanged() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(40);
+        final AtomicBoolean block = new AtomicBoolean();
+        final CountDownLatch inside = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // inserting tuple (0) while block is set changes the cached page 0 in
+        // place, and does not finish until released
+        final StubFile changing = new StubFile(SystemTestUtil.getUUID().hashCode()) {
+            @Override
+            public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) {
+                if (!block.get())
+                    return super.insertTuple(tid, t);
+                ArrayList<Page> dirtied = new ArrayList<Page>();
+                try {
+                    dirtied.add(bp.getPage(tid, new HeapPageId(getId(), 0), Permissions.READ_WRITE));
+                    inside.countDown();
+                    release.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return dirtied;
+            }
+        };
+        Database.getCatalog().addTable(changing, SystemTestUtil.getUUID());
+        bp.setDirtyWatermarks(1, 1);
+        bp.insertTuple(tid, changing.getId(), Utility.getHeapTuple(0));
+        bp.insertTuple(tid, changing.getId(), Utility.getHeapTuple(1));
+
+        block.set(true);
+        final Throwable[] failure = new Throwable[1];
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    bp.insertTuple(tid, changing.getId(), Utility.getHeapTuple(0));
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        inserter.start();
+        inside.await();
+        block.set(false);
+
+        // wake the writer up: it writes pages 1 and 2, and not page 0
+        bp.setDirtyWatermarks(0, 0);
+        bp.insertTuple(tid, changing.getId(), Utility.getHeapTuple(2));
+        awaitDirtyPages(bp, 1);
+        Thread.sleep(50);
+        assertFalse(changing.writes.contains(0));
+        assertEquals(1, bp.getNumDirtyPages());
+
+        release.countDown();
+        inserter.join();
+        assertNull(failure[0]);
+        awaitDirtyPages(bp, 0);
+        assertTrue(changing.writes.contains(0));
+        bp.checkInvariants();
+    }
+
+    /**
+     * Under NO STEAL neither the writer nor eviction may write a dirty page,
+     * so eviction takes clean pages only and fails when there are none.
+     */
+    @Test public void noStealKeepsDirtyPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setSteal(false);
+        bp.setDirtyWatermarks(0, 0);
+        dirty(bp, 0, 1, 2);
+        bp.getPage(tid, new HeapPageId(file.getId(), 3), Permissions.READ_ONLY);
+        // page 3 is the only clean page, so it makes room for page 4
+        bp.getPage(tid, new HeapPageId(file.getId(), 4), Permissions.READ_ONLY);
+        assertTrue(file.writes.isEmpty());
+        assertEquals(3, bp.getNumDirtyPages());
+
+        dirty(bp, 4);
+        try {
+            bp.getPage(tid, new HeapPageId(file.getId(), 5), Permissions.READ_ONLY);
+            fail("every page is dirty, nothing can be evicted");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(file.writes.isEmpty());
+        bp.checkInvariants();
+
+        // committing writes the transaction's pages, after which they can go
+        bp.flushPages(tid);
+        assertEquals(4, file.writes.size());
+        assertEquals(0, bp.getNumDirtyPages());
+        assertEquals(5, bp.getPage(tid, new HeapPageId(file.getId(), 5), Permissions.READ_ONLY).getId().pageNumber());
+        bp.checkInvariants();
+    }
+
+    /**
+     * The page limit holds for a partitioned pool as a whole: pages that all
+     * map to one partition fill every frame, and under NO STEAL a partition
+     * holding nothing but dirty pages makes room by evicting a clean page of
+     * another partition.
+     */
+    @Test public void partitionedPoolFillsEveryFrame() throws Exception {
+        final int numPages = 256;
+        BufferPool bp = Database.resetBufferPool(numPages);
+        int n = bp.getNumPartitions();
+        assertTrue(n > 1);
+        // page numbers n apart land in the same partition
+        for (int i = 0; i < numPages; i++)
+            bp.getPage(tid, new HeapPageId(file.getId(), i * n), Permissions.READ_ONLY);
+        int reads = file.reads.get();
+        for (int i = 0; i < numPages; i++)
+            bp.getPage(tid, new HeapPageId(file.getId(), i * n), Permissions.READ_ONLY);
+        assertEquals("the pool must hold all of its pages", reads, file.reads.get());
+        assertEquals(numPages, bp.getNumCachedPages());
+        bp.getPage(tid, new HeapPageId(file.getId(), numPages * n), Permissions.READ_ONLY);
+        assertEquals(numPages, bp.getNumCachedPages());
+        bp.checkInvariants();
+
+        bp = Database.resetBufferPool(numPages);
+        bp.setSteal(false);
+        bp.setDirtyWatermarks(0, 0);
+        for (int i = 0; i < numPages / 2; i++) {
+            dirty(bp, i * n);
+            bp.getPage(tid, new HeapPageId(file.getId(), i * n + 1), Permissions.READ_ONLY);
+        }
+        assertEquals(numPages, bp.getNumCachedPages());
+        dirty(bp, numPages / 2 * n);
+        assertEquals(numPages, bp.getNumCachedPages());
+        assertEquals(numPages / 2 + 1, bp.getNumDirtyPages());
+        assertTrue(file.writes.isEmpty());
+        bp.checkInvariants();
+    }
+
+    /**
+     * A byte budget caps the pool below its page count.
+     */
+    @Test public void byteBudgetLimitsCachedBytes() throws Exception {
+        BufferPool bp = Database.resetBufferPool(100);
+        bp.setByteBudget(10 * 1000); // ten StubPages
+        for (int i = 0; i < 30; i++)
+            bp.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+        assertEquals(10, bp.getNumCachedPages());
+        assertEquals(10 * 1000, bp.getCachedBytes());
+        assertEquals(10 * 1000, bp.getCachedBytes(file.getId()));
+        bp.checkInvariants();
+    }
+
+    /**
+     * A page that grows after it was cached is measured again when it is
+     * written out.
+     */
+    @Test public void footprintRemeasuredOnWrite() throws Exception {
+        BufferPool bp = Database.resetBufferPool(100);
+        bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(3));
+        assertEquals(1000, bp.getCachedBytes());
+        StubPage p = (StubPage) bp.getPage(tid, new HeapPageId(file.getId(), 3), Permissions.READ_ONLY);
+        p.footprint = 3000;
+        assertEquals(1000, bp.getCachedBytes());
+        bp.flushAllPages();
+        assertEquals(3000, bp.getCachedBytes());
+        assertEquals(3000, bp.getCachedBytes(file.getId()));
+        bp.checkInvariants();
+    }
+
+    /**
+     * Reads the first n pages of the given file.
+     */
+    private void scan(BufferPool bp, DbFile f, int n) throws Exception {
+        for (int i = 0; i < n; i++)
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * A scan of a big table cannot evict a small table's working set if the
+     * small table has a reservation, or if the big table has a quota.
+     */
+    @Test public void quotaAndReservationProtectWorkingSet() throws Exception {
+        StubFile big = new StubFile(SystemTestUtil.getUUID().hashCode());
+        Database.getCatalog().addTable(big, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(20);
+        bp.setTableReservation(file.getId(), 5 * 1000);
+        scan(bp, file, 5);
+        scan(bp, big, 100);
+        scan(bp, file, 5);
+        assertEquals("the reserved pages must stay cached", 5, file.reads.get());
+        assertEquals(15 * 1000, bp.getCachedBytes(big.getId()));
+        bp.checkInvariants();
+
+        big.reads.set(0);
+        file.reads.set(0);
+        bp = Database.resetBufferPool(20);
+        bp.setTableQuota(big.getId(), 8 * 1000);
+        scan(bp, file, 5);
+        scan(bp, big, 100);
+        scan(bp, file, 5);
+        assertEquals("the scan must only evict its own pages", 5, file.reads.get());
+        assertEquals(8 * 1000, bp.getCachedBytes(big.getId()));
+        bp.checkInvariants();
+
+        // without either, the scan flushes the small table out
+        file.reads.set(0);
+        bp = Database.resetBufferPool(20);
+        scan(bp, file, 5);
+        scan(bp, big, 100);
+        scan(bp, file, 5);
+        assertEquals(10, file.reads.get());
+    }
+
+    /**
+     * Clean pages evicted from the heap tier are parked off-heap and come
+     * back from there instead of from the DbFile.
+     */
+    @Test public void offHeapArenaServesEvictedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setOffHeapFrames(16);
+        scan(bp, file, 10);
+        assertEquals(10, file.reads.get());
+        assertEquals(6, bp.getNumOffHeapPages());
+
+        scan(bp, file, 10);
+        assertEquals("the second pass must not touch the disk", 10, file.reads.get());
+        assertEquals(10, bp.getNumOffHeapHits());
+        assertEquals(10, file.decodes.get());
+        bp.checkInvariants();
+
+        // discarded pages must not come back from the arena
+        bp.discardPage(new HeapPageId(file.getId(), 0));
+        bp.getPage(tid, new HeapPageId(file.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(11, file.reads.get());
+    }
+
+    /**
+     * Pages of a real HeapFile survive the round trip through the arena.
+     */
+    @Test public void offHeapArenaRoundTrip() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 12, null, tuples);
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setReadAheadPages(0);
+        bp.setOffHeapFrames(32);
+        SystemTestUtil.matchTuples(hf, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(12, bp.getNumOffHeapHits());
+        bp.checkInvariants();
+    }
+
+    /**
+     * The metrics break hits, misses, evictions, flushes and bytes down by
+     * table and page category.
+     */
+    @Test public void metricsPerTableAndCategory() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setDirtyWatermarks(1, 1);
+        StubFile other = new StubFile(SystemTestUtil.getUUID().hashCode());
+        Database.getCatalog().addTable(other, "metrics_other");
+
+        scan(bp, file, 6);
+        bp.getPage(tid, new HeapPageId(file.getId(), 5), Permissions.READ_ONLY);
+        bp.getPage(tid, new BTreePageId(other.getId(), 1, BTreePageId.LEAF), Permissions.READ_ONLY);
+        dirty(bp, 7);
+        bp.flushPages(tid);
+
+        BufferPoolMetrics metrics = bp.getMetrics();
+        BufferPoolMetrics.Counters heap = metrics.get(file.getId(), BufferPoolMetrics.PageCategory.HEAP);
+        assertEquals(1, heap.getHits());
+        assertEquals(6, heap.getMisses());
+        assertEquals(1, heap.getDirtyFlushes());
+        assertEquals(6L * BufferPool.getPageSize(), heap.getBytesRead());
+        assertEquals(BufferPool.getPageSize(), heap.getBytesWritten());
+        assertEquals(7, heap.getPageLatency().getCount());
+        assertEquals(6, heap.getReadLatency().getCount());
+
+        BufferPoolMetrics.Counters leaf = metrics.get(other.getId(), BufferPoolMetrics.PageCategory.BTREE_LEAF);
+        assertEquals(1, leaf.getMisses());
+        assertEquals(0, metrics.getTable(other.getId()).getHits());
+        assertEquals(0, metrics.get(file.getId(), BufferPoolMetrics.PageCategory.BTREE_LEAF).getMisses());
+
+        // six heap pages, a leaf and the dirtied page went through a pool of four
+        assertEquals(4, metrics.getTotal().getEvictions());
+        assertEquals(bp.getNumHits(), metrics.getTotal().getHits());
+        assertEquals(bp.getNumMisses(), metrics.getTotal().getMisses());
+
+        String dump = metrics.dump();
+        assertTrue(dump, dump.contains("metrics_other"));
+        assertTrue(dump, dump.contains("BTREE_LEAF"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getTotal().getMisses());
+        assertTrue(metrics.getTableIds().isEmpty());
+    }
+
+    /**
+     * getPage latency includes the wait for the disk, and the histogram's
+     * percentiles bound it from above.
+     */
+    @Test public void metricsRecordLatency() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        file.readDelayMillis = 20;
+        bp.getPage(tid, new HeapPageId(file.getId(), 0), Permissions.READ_ONLY);
+        file.readDelayMillis = 0;
+        for (int i = 0; i < 98; i++)
+            bp.getPage(tid, new HeapPageId(file.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(file.getId(), 1), Permissions.READ_ONLY);
+
+        BufferPoolMetrics.LatencyHistogram latency = bp.getMetrics().getTable(file.getId()).getPageLatency();
+        assertEquals(100, latency.getCount());
+        assertTrue(latency.getMaxNanos() >= 20000000L);
+        assertTrue(latency.getPercentileNanos(1.0) >= 20000000L);
+        assertTrue(latency.getPercentileNanos(0.5) < 20000000L);
+        assertTrue(latency.getPercentileNanos(0.5) <= latency.getPercentileNanos(0.99));
+        assertTrue(bp.getMetrics().getTable(file.getId()).getReadLatency().getMaxNanos() >= 20000000L);
+    }
+
+    /**
+     * Many threads hit, miss and discard pages of a small partitioned pool.
+     * Afterwards the pool may not be over capacity, the page tables and the
+     * replacement policies must agree, and every call must be accounted for.
+     */
+    @Test public void concurrentStress() throws Exception {
+        final int poolPages = 256;
+        final int filePages = 1024;
+        final int opsPerThread = 20000;
+        final int numThreads = 8;
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            final BufferPool bp = new BufferPool(poolPages, kind, 8);
+            final AtomicInteger getPageCalls = new AtomicInteger();
+            runConcurrently(numThreads, new ThreadBody() {
+                public void run(int threadId) throws Exception {
+                    Random r = new Random(threadId);
+                    TransactionId t = new TransactionId();
+                    for (int i = 0; i < opsPerThread; i++) {
+                        // skewed: most requests go to a hot set that fits in the pool
+                        int pgNo = r.nextInt(4) == 0 ? r.nextInt(filePages) : r.nextInt(poolPages / 2);
+                        PageId pid = new HeapPageId(file.getId(), pgNo);
+                        if (r.nextInt(100) == 0) {
+                            bp.discardPage(pid);
+                        } else {
+                            Page p = bp.getPage(t, pid, Permissions.READ_ONLY);
+                            getPageCalls.incrementAndGet();
+                            assertEquals(pid, p.getId());
+                        }
+                        if (i % 5000 == 0)
+                            bp.checkInvariants();
+                    }
+                }
+            });
+            bp.checkInvariants();
+            assertEquals(kind.toString(), getPageCalls.get(), bp.getNumHits() + bp.getNumMisses());
+            assertTrue(kind.toString(), bp.getNumCachedPages() <= poolPages);
+            assertTrue(kind + " should have hits on the hot set", bp.getNumHits() > bp.getNumMisses());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
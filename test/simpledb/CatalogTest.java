@@ -1,7 +1,10 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +96,32 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * The schema file picks the page format of each table, and whether it is compressed
+     */
+    @Test public void loadSchemaPageFormat() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        String fixed = "t" + r.nextInt(Integer.MAX_VALUE), slotted = "t" + r.nextInt(Integer.MAX_VALUE),
+                compressed = "t" + r.nextInt(Integer.MAX_VALUE), columnar = "t" + r.nextInt(Integer.MAX_VALUE);
+        new File(schema.getParent(), compressed + ".dat").deleteOnExit();
+        CompressedHeapFile.getExtentMapFile(new File(schema.getParent(), compressed + ".dat")).deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(fixed + " (a int, b string)\n" + slotted + " (a int, b string) slotted\n"
+                + compressed + " (a int) slotted compressed\n" + columnar + " (a int, b int) columnar\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(fixed));
+        HeapFile s = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(slotted));
+        assertEquals(HeapFile.PageFormat.FIXED, f.getPageFormat());
+        assertEquals(HeapFile.PageFormat.SLOTTED, s.getPageFormat());
+        HeapFile c = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(compressed));
+        assertTrue(c instanceof CompressedHeapFile);
+        assertEquals(HeapFile.PageFormat.SLOTTED, c.getPageFormat());
+        HeapFile p = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(columnar));
+        assertEquals(HeapFile.PageFormat.COLUMNAR, p.getPageFormat());
+    }
+
     /**
      * JUnit suite target
      */
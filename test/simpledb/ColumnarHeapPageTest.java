@@ -0,0 +1,189 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnarHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "a", "b", "c" });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("row " + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    /**
+     * A page of zeros is empty and has the slots of a HeapPage, and each
+     * column is stored in a minipage of its own.
+     */
+    @Test public void minipages() throws Exception {
+        ColumnarHeapPage page = new ColumnarHeapPage(pid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        int numSlots = new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots();
+        assertEquals(numSlots, page.getNumSlots());
+
+        while (page.hasFreeSpace())
+            page.insertTuple(tuple(page.getNumSlots() - page.getNumEmptySlots()));
+        ByteBuffer bb = ByteBuffer.wrap(page.getPageData());
+        int header = (numSlots + 7) / 8;
+        int thirdColumn = header + numSlots * (Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen());
+        for (int i = 0; i < numSlots; i++) {
+            assertEquals(i, bb.getInt(header + 4 * i));
+            assertEquals(-i, bb.getInt(thirdColumn + 4 * i));
+        }
+    }
+
+    /**
+     * getPageData and the constructor round trip, RecordIds included.
+     */
+    @Test public void roundTrip() throws Exception {
+        ColumnarHeapPage page = new ColumnarHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i));
+
+        ColumnarHeapPage copy = new ColumnarHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            assertEquals(TD, t.getTupleDesc());
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("row " + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(new IntField(-i), t.getField(2));
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * A projected iterator returns the chosen columns in the chosen order.
+     */
+    @Test public void projection() throws Exception {
+        ColumnarHeapPage page = new ColumnarHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i));
+        TupleDesc projected = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new String[] { "c", "a" });
+        Iterator<Tuple> it = page.iterator(new int[] { 2, 0 }, projected);
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(projected, t.getTupleDesc());
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            assertEquals(new IntField(-i), t.getField(0));
+            assertEquals(new IntField(i), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleting leaves a hole the iterator skips, the next insert reuses it,
+     * and the before image is the page as it was until the first change.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        ColumnarHeapPage page = new ColumnarHeapPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 3; i++) {
+            tuples.add(tuple(i));
+            page.insertTuple(tuples.get(i));
+        }
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        page.deleteTuple(tuples.get(1));
+        assertFalse(page.isSlotUsed(1));
+
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(new RecordId(pid, 0), it.next().getRecordId());
+        assertEquals(new RecordId(pid, 2), it.next().getRecordId());
+        assertFalse(it.hasNext());
+
+        Tuple t = tuple(99);
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 1), t.getRecordId());
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+
+        try {
+            page.deleteTuple(tuple(1));
+            fail("a tuple without a RecordId is not on the page");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A HeapFile in the columnar format inserts, deletes and bulk loads
+     * through ColumnarHeapPages, and a SeqScan over a few of its columns
+     * returns just those, as it does over a file in the fixed format.
+     */
+    @Test public void columnarHeapFile() throws Exception {
+        for (HeapFile.PageFormat format : new HeapFile.PageFormat[] { HeapFile.PageFormat.COLUMNAR,
+                HeapFile.PageFormat.FIXED }) {
+            File f = File.createTempFile("columnar", ".dat");
+            f.deleteOnExit();
+            HeapFile.getFreeSpaceMapFile(f).deleteOnExit();
+            HeapFile hf = new HeapFile(f, TD, format);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            TransactionId tid = new TransactionId();
+
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            for (int i = 0; i < 1000; i++)
+                tuples.add(tuple(i));
+            TupleIterator source = new TupleIterator(TD, tuples);
+            source.open();
+            assertEquals(1000, hf.bulkLoad(tid, source));
+            Database.getBufferPool().deleteTuple(tid, tuples.get(999));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000));
+
+            Database.getBufferPool().flushAllPages();
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            SeqScan scan = new SeqScan(tid, hf.getId(), "t", new int[] { 2 });
+            assertEquals(1, scan.getTupleDesc().numFields());
+            assertEquals("t.c", scan.getTupleDesc().getFieldName(0));
+            scan.open();
+            int n = 0;
+            long sum = 0;
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                assertEquals(1, t.getTupleDesc().numFields());
+                sum += ((IntField) t.getField(0)).getValue();
+                n++;
+            }
+            scan.close();
+            assertEquals(1000, n);
+            assertEquals(-(1000L * 1001 / 2 - 999), sum);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarHeapPageTest.class);
+    }
+}
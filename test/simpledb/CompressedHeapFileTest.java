@@ -0,0 +1,192 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private File file;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("compressed", ".dat");
+        file.deleteOnExit();
+        HeapFile.getFreeSpaceMapFile(file).deleteOnExit();
+        CompressedHeapFile.getExtentMapFile(file).deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    private CompressedHeapFile open() throws IOException {
+        CompressedHeapFile hf = new CompressedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return hf;
+    }
+
+    /** @return { the number of tuples, the sum of their first column } */
+    private long[] scan(HeapFile hf) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long n = 0, sum = 0;
+        while (it.hasNext()) {
+            sum += ((IntField) it.next().getField(0)).getValue();
+            n++;
+        }
+        it.close();
+        return new long[] { n, sum };
+    }
+
+    /**
+     * Pages written in bulk read back after the file is opened again, and
+     * take a fraction of their size on disk.
+     */
+    @Test public void bulkLoadAndReopen() throws Exception {
+        CompressedHeapFile hf = open();
+        int n = 504 * 40 + 7; // more than two extents
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++)
+            tuples.add(Utility.getHeapTuple(i % 100, 2));
+        TupleIterator source = new TupleIterator(Utility.getTupleDesc(2), tuples);
+        source.open();
+        assertEquals(n, hf.bulkLoad(tid, source));
+        assertEquals(41, hf.numPages());
+        assertTrue(hf.getStoredBytes() < 41L * BufferPool.getPageSize() / 4);
+
+        hf = open();
+        assertEquals(41, hf.numPages());
+        long[] result = scan(hf);
+        assertEquals(n, result[0]);
+        long sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += i % 100;
+        assertEquals(sum, result[1]);
+        assertTrue(hf.getBytesRead() > 0);
+        assertTrue(hf.getBytesRead() <= hf.getStoredBytes());
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool reach the compressed pages,
+     * including a new page and an extent that outgrows its space.
+     */
+    @Test public void updatesAreWrittenBack() throws Exception {
+        CompressedHeapFile hf = open();
+        for (int i = 0; i < 600; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(2, hf.numPages());
+
+        hf = open();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            all.add(it.next());
+        it.close();
+        assertEquals(600, all.size());
+        for (int i = 300; i < 600; i++)
+            Database.getBufferPool().deleteTuple(tid, all.get(i));
+        Database.getBufferPool().flushAllPages();
+
+        hf = open();
+        long[] result = scan(hf);
+        assertEquals(300, result[0]);
+        assertEquals(299L * 300 / 2, result[1]);
+    }
+
+    /**
+     * Extents are written out of place, and the space they leave is reused,
+     * so rewriting the same pages does not grow the file. A compressed file
+     * keeps no free space sidecar.
+     */
+    @Test public void rewritesReuseSpace() throws Exception {
+        CompressedHeapFile hf = open();
+        for (int i = 0; i < 600; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().flushAllPages();
+        long stored = hf.getStoredBytes();
+
+        for (int round = 0; round < 50; round++) {
+            hf = open();
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            Tuple t = it.next();
+            it.close();
+            Database.getBufferPool().deleteTuple(tid, t);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(round, 2));
+            Database.getBufferPool().flushAllPages();
+        }
+        assertTrue(hf.getStoredBytes() <= 3 * stored);
+        assertFalse(HeapFile.getFreeSpaceMapFile(file).exists());
+
+        hf = open();
+        assertEquals(600, scan(hf)[0]);
+    }
+
+    /**
+     * A rewritten extent goes to free space and leaves the old one intact
+     * until its map entry points elsewhere; a later rewrite reuses the
+     * space, also after the store is opened again.
+     */
+    @Test public void extentsAreWrittenOutOfPlace() throws Exception {
+        CompressedPageStore store = new CompressedPageStore(file);
+        byte[] page = new byte[BufferPool.getPageSize()];
+        page[0] = 1;
+        store.write(0, page, 0, 1);
+        long first = store.storedBytes();
+        byte[] before = Files.readAllBytes(file.toPath());
+
+        page[0] = 2;
+        store.write(0, page, 0, 1);
+        assertEquals(2 * first, store.storedBytes());
+        assertArrayEquals(before, Arrays.copyOf(Files.readAllBytes(file.toPath()), before.length));
+        store.close();
+
+        // the space in front is found free again, and the end is given back
+        store = new CompressedPageStore(file);
+        byte[] read = new byte[BufferPool.getPageSize()];
+        store.read(0, read);
+        assertEquals(2, read[0]);
+        page[0] = 3;
+        store.write(0, page, 0, 1);
+        assertEquals(first, store.storedBytes());
+        store.close();
+
+        store = new CompressedPageStore(file);
+        store.read(0, read);
+        assertEquals(3, read[0]);
+        store.close();
+    }
+
+    /**
+     * A plain heap file is not mistaken for a compressed one.
+     */
+    @Test(expected = IOException.class)
+    public void plainFileIsRejected() throws Exception {
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        new CompressedHeapFile(plain.getFile(), Utility.getTupleDesc(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
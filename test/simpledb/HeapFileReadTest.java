@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -121,6 +122,92 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A scan that has moved past its first page reads the following pages
+     * ahead, so only the first two pages miss in the BufferPool.
+     */
+    @Test
+    public void testIteratorReadsAhead() throws Exception {
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        assertEquals(40, bigFile.numPages());
+
+        for (int readAhead : new int[] { 0, BufferPool.DEFAULT_READ_AHEAD_PAGES }) {
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            bp.setReadAheadPages(readAhead);
+            DbFileIterator it = bigFile.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            assertEquals(504 * 40, count);
+            assertEquals(40, bp.getNumHits() + bp.getNumMisses());
+            if (readAhead == 0) {
+                assertEquals(0, bp.getNumPrefetches());
+                assertEquals(40, bp.getNumMisses());
+            } else {
+                assertEquals(38, bp.getNumPrefetches());
+                assertEquals(2, bp.getNumMisses());
+            }
+        }
+    }
+
+    /**
+     * Memory mapped reads decode the same pages as normal reads, and pages
+     * appended after the file was mapped are mapped when first read.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        mapped.setMemoryMapped(true);
+        assertTrue(mapped.isMemoryMapped());
+        for (int i = 0; i < 2; i++) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), i);
+            HeapPage page = (HeapPage) mapped.readPage(pid);
+            assertEquals(0, page.getNumEmptySlots());
+            mapped.setMemoryMapped(false);
+            assertArrayEquals(mapped.readPage(pid).getPageData(), page.getPageData());
+            mapped.setMemoryMapped(true);
+        }
+
+        // both pages are full, so this appends page 2 to the file
+        mapped.insertTuple(tid, Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(3, mapped.numPages());
+        HeapPage appended = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 2));
+        assertEquals(503, appended.getNumEmptySlots());
+        assertTrue(appended.isSlotUsed(0));
+    }
+
+    /**
+     * Reading opens the file read only: a read-only file can be read, and
+     * reading a file that does not exist does not create it.
+     */
+    @Test
+    public void readOnly() throws Exception {
+        hf.close();
+        assertTrue(hf.getFile().setReadOnly());
+        try {
+            HeapFile readOnly = new HeapFile(hf.getFile(), td);
+            HeapPage page = (HeapPage) readOnly.readPage(new HeapPageId(readOnly.getId(), 0));
+            assertEquals(484, page.getNumEmptySlots());
+            readOnly.close();
+        } finally {
+            hf.getFile().setWritable(true);
+        }
+
+        File missing = new File(hf.getFile().getPath() + ".missing");
+        HeapFile empty = new HeapFile(missing, td);
+        Database.getCatalog().addTable(empty, SystemTestUtil.getUUID());
+        assertEquals(0, empty.numPages());
+        HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0));
+        assertEquals(504, page.getNumEmptySlots());
+        empty.close();
+        assertFalse(missing.exists());
+        assertFalse(HeapFile.getFreeSpaceMapFile(missing).exists());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,9 +1,14 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.systemtest.SystemTestUtil;
+
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
@@ -43,6 +48,105 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts skip the pages the free space map knows are full, also after the
+     * file is opened again, and go back to a page once a deletion frees a slot.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // no map yet: the first insert looks at every page before appending one
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(11, hf.numPages());
+        assertEquals(10, bp.getNumMisses());
+        assertTrue(HeapFile.getFreeSpaceMapFile(hf.getFile()).exists());
+
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Tuple t = Utility.getHeapTuple(2, 2);
+        reopened.insertTuple(tid, t);
+        assertEquals(10, t.getRecordId().getPageId().pageNumber());
+        assertEquals(1, bp.getNumHits() + bp.getNumMisses());
+
+        HeapPage page3 = (HeapPage) bp.getPage(tid, new HeapPageId(reopened.getId(), 3), Permissions.READ_ONLY);
+        reopened.deleteTuple(tid, page3.iterator().next());
+        t = Utility.getHeapTuple(3, 2);
+        reopened.insertTuple(tid, t);
+        assertEquals(3, t.getRecordId().getPageId().pageNumber());
+    }
+
+    /**
+     * Deletes go straight to the page named by the record id, and a batch
+     * reads each affected page once.
+     */
+    @Test public void deleteByRecordId() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int pgNo : new int[] { 7, 2 }) {
+            Iterator<Tuple> it = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo))).iterator();
+            for (int i = 0; i < 100; i++)
+                batch.add(it.next());
+        }
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.deleteTuple(tid, batch.remove(0));
+        assertEquals(1, bp.getNumMisses());
+        bp.deleteTuples(tid, batch);
+        assertEquals(3, bp.getNumHits() + bp.getNumMisses());
+        for (int pgNo : new int[] { 7, 2 }) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+            assertEquals(100, page.getNumEmptySlots());
+        }
+
+        // deleting again, or a tuple of another table, fails without a scan
+        try {
+            hf.deleteTuple(tid, batch.get(0));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        Tuple stranger = Utility.getHeapTuple(1, 2);
+        stranger.setRecordId(new RecordId(new HeapPageId(hf.getId() + 1, 0), 0));
+        try {
+            hf.deleteTuple(tid, stranger);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(6, bp.getNumHits() + bp.getNumMisses());
+    }
+
+    /**
+     * A bulk load appends full pages after the existing ones, and the free
+     * space map sends later inserts to the last, partly filled one.
+     */
+    @Test public void bulkLoad() throws Exception {
+        int n = 504 * 300 + 10; // more than one write of 256 pages
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        TupleIterator it = new TupleIterator(Utility.getTupleDesc(2), tuples);
+        it.open();
+        int before = empty.numPages();
+        assertEquals(n, empty.bulkLoad(tid, it));
+        assertEquals(before + 301, empty.numPages());
+        HeapPageId lastId = new HeapPageId(empty.getId(), before + 300);
+        assertEquals(new RecordId(lastId, 9), tuples.get(n - 1).getRecordId());
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPage last = (HeapPage) bp.getPage(tid, lastId, Permissions.READ_ONLY);
+        assertEquals(494, last.getNumEmptySlots());
+        Iterator<Tuple> onLast = last.iterator();
+        for (int i = 504 * 300; i < n; i++)
+            assertEquals(tuples.get(i).getField(0), onLast.next().getField(0));
+
+        Tuple t = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(lastId, t.getRecordId().getPageId());
+        assertEquals(2, bp.getNumHits() + bp.getNumMisses());
+    }
+
     /**
      * JUnit suite target
      */
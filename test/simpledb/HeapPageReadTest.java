@@ -10,8 +10,10 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -99,6 +101,81 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * A lazy page returns the same tuples, parses a field only when it is
+     * read, and writes back the bytes it was read from.
+     */
+    @Test public void lazyDecoding() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA, true);
+        Iterator<Tuple> it = page.iterator();
+
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            assertNull(tup.peekField(1));
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            assertNull(tup.peekField(0));
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        // changes show through, untouched slots keep their bytes
+        HeapPage lazy = new HeapPage(pid, EXAMPLE_DATA, true);
+        HeapPage eager = new HeapPage(pid, EXAMPLE_DATA);
+        lazy.deleteTuple(lazy.iterator().next());
+        eager.deleteTuple(eager.iterator().next());
+        lazy.insertTuple(Utility.getHeapTuple(7, 2));
+        eager.insertTuple(Utility.getHeapTuple(7, 2));
+        assertArrayEquals(eager.getPageData(), lazy.getPageData());
+    }
+
+    /**
+     * Threads reading a lazy page at once get one Tuple per slot, and each
+     * sees every field of it.
+     */
+    @Test public void lazyDecodingFromManyThreads() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            final HeapPage page = new HeapPage(pid, EXAMPLE_DATA, true);
+            final Tuple[][] seen = new Tuple[4][EXAMPLE_VALUES.length];
+            final Throwable[] failure = new Throwable[1];
+            Thread[] threads = new Thread[seen.length];
+            for (int n = 0; n < threads.length; n++) {
+                final int reader = n;
+                threads[n] = new Thread() {
+                    public void run() {
+                        try {
+                            Iterator<Tuple> it = page.iterator();
+                            for (int row = 0; it.hasNext(); row++) {
+                                Tuple tup = it.next();
+                                seen[reader][row] = tup;
+                                // readers start on different fields
+                                int first = (row + reader) % 2;
+                                assertEquals(EXAMPLE_VALUES[row][first], ((IntField) tup.getField(first)).getValue());
+                                assertEquals(EXAMPLE_VALUES[row][1 - first],
+                                        ((IntField) tup.getField(1 - first)).getValue());
+                            }
+                        } catch (Throwable e) {
+                            failure[0] = e;
+                        }
+                    }
+                };
+            }
+            for (Thread t : threads)
+                t.start();
+            for (Thread t : threads)
+                t.join();
+            if (failure[0] != null)
+                throw new AssertionError(failure[0]);
+            for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+                for (int n = 1; n < seen.length; n++)
+                    assertTrue(seen[0][row] == seen[n][row]);
+            }
+        }
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -1,9 +1,12 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -88,6 +91,57 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
+    /**
+     * The footprint estimate grows as tuples are added, and by a whole page
+     * when the first change takes the before image.
+     */
+    @Test public void memoryFootprint() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        long before = page.getMemoryFootprint();
+        assertTrue(before > BufferPool.getPageSize());
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertTrue(page.getMemoryFootprint() > before + BufferPool.getPageSize());
+    }
+
+    /**
+     * writePageData overwrites every byte of a reused buffer with what
+     * getPageData returns.
+     */
+    @Test public void writePageDataIntoReusedBuffer() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(5, 2));
+        byte[] garbage = new byte[BufferPool.getPageSize() + 8];
+        Arrays.fill(garbage, (byte) 0x5a);
+        ByteBuffer buf = ByteBuffer.wrap(garbage);
+        buf.position(4);
+        page.writePageData(buf);
+        assertEquals(4 + BufferPool.getPageSize(), buf.position());
+        assertArrayEquals(page.getPageData(),
+                Arrays.copyOfRange(garbage, 4, 4 + BufferPool.getPageSize()));
+        assertEquals(0x5a, garbage[garbage.length - 1]);
+    }
+
+    /**
+     * The before image is the page as it was read until the first change,
+     * keeps that content through later changes, and moves forward on
+     * setBeforeImage.
+     */
+    @Test public void beforeImageIsTakenOnFirstWrite() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+    }
+
     @Test(expected=DbException.class)
         public void deleteNonexistentTuple() throws Exception {
         HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> outerTuples;
+    private HeapFile outer;
+    private ArrayList<ArrayList<Integer>> innerTuples;
+    private BTreeFile inner;
+
+    /**
+     * Set up initial resources for each unit test: more outer tuples than a
+     * batch, and duplicate keys on both sides.
+     */
+    @Before public void createTables() throws Exception {
+        tid = new TransactionId();
+        outerTuples = new ArrayList<ArrayList<Integer>>();
+        outer = SystemTestUtil.createRandomHeapFile(2, 2500, 600, null, outerTuples);
+        innerTuples = new ArrayList<ArrayList<Integer>>();
+        inner = BTreeUtility.createRandomBTreeFile(2, 3000, 500, null, innerTuples, 0);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the outer and inner tuples that pass op and the filter, concatenated and sorted */
+    private ArrayList<String> expected(int outerRows, Predicate.Op op, Predicate innerFilter) {
+        ArrayList<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> o : outerTuples.subList(0, outerRows)) {
+            for (ArrayList<Integer> i : innerTuples) {
+                if (!new IntField(o.get(0)).compare(op, new IntField(i.get(0))))
+                    continue;
+                if (innerFilter != null && !innerFilter.filter(BTreeUtility.getBTreeTuple(i)))
+                    continue;
+                expected.add(o + "" + i);
+            }
+        }
+        Collections.sort(expected);
+        return expected;
+    }
+
+    /** @return the tuples of the join, as in expected */
+    private static ArrayList<String> actual(DbIterator join) throws Exception {
+        ArrayList<String> actual = new ArrayList<String>();
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            actual.add("[" + t.getField(0) + ", " + t.getField(1) + "][" + t.getField(2) + ", " + t.getField(3) + "]");
+        }
+        Collections.sort(actual);
+        return actual;
+    }
+
+    /** @return the first rows of the outer table */
+    private DbIterator outerScan(final int rows) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (ArrayList<Integer> o : outerTuples.subList(0, rows))
+            tuples.add(BTreeUtility.getBTreeTuple(o));
+        return new TupleIterator(Utility.getTupleDesc(2), tuples);
+    }
+
+    /**
+     * An equality join finds what a hash join finds, over several batches.
+     */
+    @Test public void eqJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"),
+                new SeqScan(tid, inner.getId(), "i"));
+        assertEquals(TupleDesc.merge(new SeqScan(tid, outer.getId(), "o").getTupleDesc(),
+                new SeqScan(tid, inner.getId(), "i").getTupleDesc()), join.getTupleDesc());
+        join.open();
+        ArrayList<String> expected = expected(outerTuples.size(), Predicate.Op.EQUALS, null);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual(join));
+
+        join.rewind();
+        assertEquals(expected, actual(join));
+        join.close();
+    }
+
+    /**
+     * Inequalities search the index once per outer tuple.
+     */
+    @Test public void inequalityJoins() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(0, op, 0), outerScan(20),
+                    new SeqScan(tid, inner.getId(), "i"));
+            join.open();
+            assertEquals(expected(20, op, null), actual(join));
+            join.close();
+        }
+    }
+
+    /**
+     * Filters over the inner scan apply to the tuples found in the index.
+     */
+    @Test public void filteredInner() throws Exception {
+        Predicate filter = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(250));
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                outerScan(outerTuples.size()), new Filter(filter, new SeqScan(tid, inner.getId(), "i")));
+        join.open();
+        assertEquals(expected(outerTuples.size(), Predicate.Op.EQUALS, filter), actual(join));
+        join.close();
+    }
+
+    /**
+     * Only a scan of all of a B+ tree keyed on the join field can be probed.
+     */
+    @Test public void canProbe() throws Exception {
+        JoinPredicate onKey = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        assertTrue(IndexNestedLoopJoin.canProbe(onKey, new SeqScan(tid, inner.getId(), "i")));
+        assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, inner.getId(), "i")));
+        assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                new SeqScan(tid, inner.getId(), "i")));
+        assertFalse(IndexNestedLoopJoin.canProbe(onKey, new SeqScan(tid, outer.getId(), "o")));
+        assertFalse(IndexNestedLoopJoin.canProbe(onKey, new SeqScan(tid, inner.getId(), "i", new int[] { 1, 0 })));
+        try {
+            new IndexNestedLoopJoin(onKey, new SeqScan(tid, inner.getId(), "i"), new SeqScan(tid, outer.getId(), "o"));
+            fail("a heap file has no index to probe");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -376,6 +376,75 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
                 && (result.get(0).t1Alias == "hobbies" || result.get(0).t2Alias == "hobbies"));
     }
 
+    /**
+     * Verify that a selective join against a table in a B+ tree keyed on the
+     * join field is costed and planned as an index nested-loop join, and a
+     * join on another field is not
+     */
+    @Test
+    public void indexJoinTest() throws Exception {
+        TransactionId tid = new TransactionId();
+        File temp = File.createTempFile("index", ".dat");
+        temp.deleteOnExit();
+        BTreeFile index = BTreeUtility.openBTreeFile(2, "c", temp, 0);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 100000; i++)
+            tuples.add(BTreeUtility.getBTreeTuple(new int[] { i, i % 20 }));
+        TupleIterator it = new TupleIterator(index.getTupleDesc(), tuples);
+        it.open();
+        index.bulkLoad(tid, it, true, 1.0);
+        it.close();
+        Database.getCatalog().addTable(index, "TI");
+        TableStats.setTableStats("TI", new TableStats(
+                Database.getCatalog().getTableId("TI"), 19));
+
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + ", TI WHERE " + tableName1
+                        + ".c1 = TI.c0;"), new Vector<LogicalJoinNode>());
+        double scanCost1 = stats1.estimateScanCost();
+        double scanCost2 = TableStats.getTableStats("TI").estimateScanCost();
+        LogicalJoinNode onKey = new LogicalJoinNode(tableName1, "TI", "c1",
+                "c0", Predicate.Op.EQUALS);
+        LogicalJoinNode onOther = new LogicalJoinNode(tableName1, "TI", "c1",
+                "c1", Predicate.Op.EQUALS);
+        double indexCost = jo.estimateJoinCost(onKey, 10, 100000, scanCost1,
+                scanCost2);
+        Assert.assertTrue(indexCost < scanCost1 + scanCost2);
+        Assert.assertEquals(scanCost1 + scanCost2 + 10 * 100000,
+                jo.estimateJoinCost(onOther, 10, 100000, scanCost1, scanCost2),
+                0.001);
+        // an index does not help to join every tuple of a large outer table
+        Assert.assertTrue(jo.estimateJoinCost(onKey, 1000000, 100000,
+                scanCost1, scanCost2) > scanCost1 + scanCost2);
+
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode("TI", tableName1, "c0", "c1",
+                Predicate.Op.EQUALS));
+        jo = new JoinOptimizer(p.generateLogicalPlan(tid, "SELECT * FROM "
+                + tableName1 + ", TI WHERE " + tableName1 + ".c1 = TI.c0;"),
+                nodes);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tableName1, stats1);
+        stats.put("TI", TableStats.getTableStats("TI"));
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        filterSelectivities.put(tableName1, 0.01);
+        filterSelectivities.put("TI", 1.0);
+        Vector<LogicalJoinNode> result = jo.orderJoins(stats,
+                filterSelectivities, false);
+        Assert.assertEquals("TI", result.get(0).t2Alias);
+        Assert.assertTrue(result.get(0).indexJoin);
+
+        // the plan probes the index
+        DbIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM "
+                + tableName1 + ", TI WHERE " + tableName1 + ".c1 = TI.c0 AND "
+                + tableName1 + ".c0 < 1;").physicalPlan(tid,
+                TableStats.getStatsMap(), false);
+        while (!(plan instanceof IndexNestedLoopJoin))
+            plan = ((Operator) plan).getChildren()[0];
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /**
      * Test a much-larger join ordering, to confirm that it executes in a
      * reasonable amount of time
@@ -0,0 +1,67 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class PageArenaTest {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    private static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (seed + i);
+        return data;
+    }
+
+    @Test public void takeReturnsParkedBytesOnce() {
+        // more frames than fit in one direct buffer
+        PageArena arena = new PageArena(300, 64);
+        for (int i = 0; i < 300; i++)
+            assertTrue(arena.put(pid(i), data(i % 64 + 1, i)));
+        assertEquals(300, arena.size());
+        for (int i = 299; i >= 0; i--)
+            assertArrayEquals(data(i % 64 + 1, i), arena.take(pid(i)));
+        assertEquals(0, arena.size());
+        assertNull(arena.take(pid(0)));
+    }
+
+    @Test public void fullArenaDropsOldestPage() {
+        PageArena arena = new PageArena(2, 16);
+        arena.put(pid(0), data(16, 0));
+        arena.put(pid(1), data(16, 1));
+        // parking page 0 again overwrites it and makes 1 the oldest
+        arena.put(pid(0), data(8, 42));
+        arena.put(pid(2), data(16, 2));
+        assertFalse(arena.contains(pid(1)));
+        assertArrayEquals(data(8, 42), arena.take(pid(0)));
+        assertArrayEquals(data(16, 2), arena.take(pid(2)));
+    }
+
+    @Test public void removeFreesFrame() {
+        PageArena arena = new PageArena(1, 16);
+        arena.put(pid(0), data(16, 0));
+        arena.remove(pid(0));
+        assertFalse(arena.contains(pid(0)));
+        assertTrue(arena.put(pid(1), data(16, 1)));
+        assertArrayEquals(data(16, 1), arena.take(pid(1)));
+    }
+
+    @Test public void oversizedPageIsNotParked() {
+        PageArena arena = new PageArena(4, 16);
+        assertFalse(arena.put(pid(0), data(17, 0)));
+        assertEquals(0, arena.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
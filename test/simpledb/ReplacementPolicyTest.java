@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class ReplacementPolicyTest {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Every policy must hand back each resident page exactly once, must
+     * ignore removed pages and must return null when empty.
+     */
+    @Test public void evictsEachResidentPageOnce() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = kind.create(8);
+            for (int i = 0; i < 8; i++)
+                policy.recordInsert(pid(i));
+            policy.recordAccess(pid(3));
+            policy.recordAccess(pid(5));
+            policy.recordRemove(pid(2));
+            policy.recordRemove(pid(42));
+            assertEquals(kind.toString(), 7, policy.size());
+
+            HashSet<PageId> victims = new HashSet<PageId>();
+            PageId victim;
+            while ((victim = policy.evict()) != null)
+                assertTrue(kind + " evicted " + victim + " twice", victims.add(victim));
+            assertEquals(kind.toString(), 7, victims.size());
+            assertFalse(kind.toString(), victims.contains(pid(2)));
+            assertEquals(kind.toString(), 0, policy.size());
+        }
+    }
+
+    private static ReplacementPolicy filled(ReplacementPolicy.Kind kind) {
+        ReplacementPolicy policy = kind.create(8);
+        for (int i = 0; i < 8; i++)
+            policy.recordInsert(pid(i));
+        policy.recordAccess(pid(3));
+        policy.recordAccess(pid(5));
+        policy.recordAccess(pid(3));
+        policy.evict();
+        policy.recordInsert(pid(8));
+        return policy;
+    }
+
+    /**
+     * candidates() lists the pages in the order evict() takes them, and a
+     * page passed over for another keeps its place: it is not promoted as a
+     * page coming back into the pool would be.
+     */
+    @Test public void candidatesInEvictionOrder() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = filled(kind);
+            ArrayList<PageId> order = new ArrayList<PageId>();
+            Iterator<PageId> it = policy.candidates();
+            while (it.hasNext())
+                order.add(it.next());
+            assertEquals(kind.toString(), policy.size(), order.size());
+            for (PageId expected : order)
+                assertEquals(kind.toString(), expected, policy.evict());
+            assertNull(kind.toString(), policy.evict());
+
+            policy = filled(kind);
+            it = policy.candidates();
+            PageId first = it.next();
+            PageId second = it.next();
+            policy.evict(second);
+            assertEquals(kind.toString(), 7, policy.size());
+            assertEquals(kind.toString(), first, policy.evict());
+        }
+    }
+
+    @Test public void lru() {
+        ReplacementPolicy policy = new LRUPolicy();
+        policy.recordInsert(pid(0));
+        policy.recordInsert(pid(1));
+        policy.recordInsert(pid(2));
+        policy.recordAccess(pid(0));
+        assertEquals(pid(1), policy.evict());
+        assertEquals(pid(2), policy.evict());
+        assertEquals(pid(0), policy.evict());
+        assertNull(policy.evict());
+    }
+
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy policy = new ClockPolicy();
+        policy.recordInsert(pid(0));
+        policy.recordInsert(pid(1));
+        policy.recordInsert(pid(2));
+        policy.recordAccess(pid(0));
+        policy.recordAccess(pid(1));
+        // the hand clears 0 and 1, then takes 2
+        assertEquals(pid(2), policy.evict());
+        // both reference bits are clear now, so it goes back to 0
+        assertEquals(pid(0), policy.evict());
+        policy.recordInsert(pid(3));
+        assertEquals(pid(1), policy.evict());
+        assertEquals(pid(3), policy.evict());
+    }
+
+    @Test public void lruKPrefersPagesSeenOnce() {
+        ReplacementPolicy policy = new LRUKPolicy(2, 4);
+        policy.recordInsert(pid(0));
+        policy.recordAccess(pid(0));
+        policy.recordInsert(pid(1));
+        policy.recordInsert(pid(2));
+        policy.recordAccess(pid(2));
+        policy.recordInsert(pid(3));
+        // 1 and 3 have one access each; 1 was touched longest ago
+        assertEquals(pid(1), policy.evict());
+        assertEquals(pid(3), policy.evict());
+        // 0's second-to-last access is older than 2's
+        assertEquals(pid(0), policy.evict());
+        assertEquals(pid(2), policy.evict());
+    }
+
+    @Test public void lruKRetainsHistory() {
+        ReplacementPolicy policy = new LRUKPolicy(2, 4);
+        policy.recordInsert(pid(0));
+        assertEquals(pid(0), policy.evict());
+        policy.recordInsert(pid(1));
+        // 0 comes back with two recorded accesses, so it beats the one-off page 1
+        policy.recordInsert(pid(0));
+        assertEquals(pid(1), policy.evict());
+        assertEquals(pid(0), policy.evict());
+    }
+
+    @Test public void twoQPromotesFromGhostQueue() {
+        ReplacementPolicy policy = new TwoQPolicy(8); // Kin = 2, Kout = 4
+        policy.recordInsert(pid(0));
+        policy.recordInsert(pid(1));
+        policy.recordInsert(pid(2));
+        assertEquals(pid(0), policy.evict()); // A1in over Kin, 0 becomes a ghost
+        policy.recordInsert(pid(0)); // ghost hit, 0 goes to Am
+        policy.recordInsert(pid(3));
+        policy.recordInsert(pid(4));
+        // a scan of once-seen pages only drains A1in
+        assertEquals(pid(1), policy.evict());
+        assertEquals(pid(2), policy.evict());
+        assertEquals(3, policy.size());
+        // A1in is down to Kin, so now Am gives up its LRU page
+        assertEquals(pid(0), policy.evict());
+    }
+
+    @Test public void arcProtectsFrequentPages() {
+        ReplacementPolicy policy = new ARCPolicy(4);
+        policy.recordInsert(pid(0));
+        policy.recordAccess(pid(0)); // 0 moves to T2
+        policy.recordInsert(pid(1));
+        policy.recordInsert(pid(2));
+        policy.recordInsert(pid(3));
+        // a scan pushes through T1 and leaves the frequent page alone
+        for (int i = 4; i < 20; i++) {
+            PageId victim = policy.evict();
+            assertFalse(pid(0).equals(victim));
+            policy.recordInsert(pid(i));
+        }
+        assertEquals(4, policy.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * A page of zeros is empty, and a short string takes its own length:
+     * an int, a 2 byte length, the characters and a 4 byte slot entry.
+     */
+    @Test public void emptyPageFillsByRecordSize() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        assertEquals(BufferPool.getPageSize() - 8, page.getFreeBytes());
+
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "0123456789")))
+            page.insertTuple(tuple(n++, "0123456789"));
+        assertEquals((BufferPool.getPageSize() - 8) / (4 + 2 + 10 + 4), n);
+        assertTrue(n > 6 * ((BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1)));
+        assertTrue(page.hasFreeSpace() == page.hasRoomFor(tuple(0, "")));
+    }
+
+    /**
+     * getPageData and the constructor round trip, RecordIds included.
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        String[] values = { "", "a", "abc", "a much longer string than the others" };
+        for (int i = 0; i < values.length; i++)
+            page.insertTuple(tuple(i, values[i]));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < values.length; i++) {
+            Tuple t = it.next();
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(values[i], ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * Deleting leaves a hole the iterator skips, RecordIds of the other
+     * tuples stay put, and the next insert reuses the slot and the bytes.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.hasRoomFor(tuple(tuples.size(), "xyz"))) {
+            Tuple t = tuple(tuples.size(), "xyz");
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        page.deleteTuple(tuples.get(1));
+        assertFalse(page.isSlotUsed(1));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        assertEquals(new RecordId(pid, 0), it.next().getRecordId());
+        assertEquals(new RecordId(pid, 2), it.next().getRecordId());
+
+        Tuple t = tuple(99, "abc");
+        assertTrue(copy.hasRoomFor(t));
+        assertFalse(copy.hasRoomFor(tuple(99, "longer than the hole")));
+        copy.insertTuple(t);
+        assertEquals(new RecordId(pid, 1), t.getRecordId());
+        assertEquals(tuples.size(), copy.getNumSlots());
+
+        try {
+            copy.deleteTuple(tuple(1, "xyz"));
+            fail("a tuple without a RecordId is not on the page");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The before image is the page as it was read until the first change.
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "one"));
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        page.insertTuple(tuple(2, "two"));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A HeapFile in the slotted format inserts, scans, deletes and bulk loads
+     * through SlottedHeapPages.
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFile.getFreeSpaceMapFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, TD, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++)
+            tuples.add(tuple(i, "row " + i));
+        TupleIterator source = new TupleIterator(TD, tuples);
+        source.open();
+        assertEquals(1000, hf.bulkLoad(tid, source));
+        int pages = hf.numPages();
+        assertTrue(pages < 1000 / 30);
+        for (int i = 0; i < 10; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000 + i, "extra"));
+        assertEquals(pages, hf.numPages());
+        Database.getBufferPool().deleteTuple(tid, tuples.get(0));
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(t.getRecordId().getPageId().pageNumber() < pages);
+            sum += ((IntField) t.getField(0)).getValue();
+            n++;
+        }
+        it.close();
+        assertEquals(1009, n);
+        assertEquals(1009L * 1010 / 2, sum);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -206,6 +206,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public Page decodePage(PageId id, byte[] data) throws IOException {
+            throw new RuntimeException("not implemented");
+        }
+
         public int numPages() {
             throw new RuntimeException("not implemented");
         }
@@ -380,6 +384,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            HeapFile.getFreeSpaceMapFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,131 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Index build benchmark: builds a B+ tree on the first of two random int
+ * columns, once by inserting the rows one at a time through the BufferPool,
+ * and once with BTreeFile.bulkLoad from the same unsorted rows, with a sort
+ * memory small enough that the sort spills to disk. Both indexes must hold
+ * every row; fails unless the bulk load asks the BufferPool for fewer pages
+ * than there are rows, while the inserts ask for a page per level per row,
+ * and its index takes fewer pages.
+ */
+public class BTreeBulkLoadBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 50000;
+    private static final long SORT_MEMORY = 256L << 10;
+
+    /** Generates rows with random keys without keeping them. */
+    private static DbIterator rows(final int rows) {
+        final TupleDesc td = Utility.getTupleDesc(2);
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+            private Random random = new Random(rows);
+            private int next = 0;
+
+            public void open() {
+            }
+
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(random.nextInt()));
+                t.setField(1, new IntField(next));
+                next++;
+                return t;
+            }
+
+            public void rewind() {
+                next = 0;
+                random = new Random(rows);
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    /** @return an empty B+ tree file in the catalog */
+    private static BTreeFile emptyIndex() throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+    }
+
+    /** @return the rows in the index, by a full scan */
+    private static int count(BTreeFile bf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /** @return the pages the build asked the BufferPool for, and the index in index[0] */
+    private static long build(int rows, boolean bulkLoad, BTreeFile[] index) throws Exception {
+        BTreeFile bf = emptyIndex();
+        // room for the whole index, so that inserts never evict a dirty page
+        BufferPool pool = Database.resetBufferPool(2 * rows / 100 + 100);
+        TransactionId tid = new TransactionId();
+        DbIterator source = rows(rows);
+        source.open();
+        if (bulkLoad) {
+            assertEquals(rows, bf.bulkLoad(tid, source, false, 1.0, SORT_MEMORY));
+        } else {
+            while (source.hasNext())
+                pool.insertTuple(tid, bf.getId(), source.next());
+        }
+        long pages = pool.getNumHits() + pool.getNumMisses();
+        // transactions do not flush yet
+        pool.flushAllPages();
+        source.close();
+        pool.transactionComplete(tid);
+        index[0] = bf;
+        return pages;
+    }
+
+    @Test public void bulkLoadVsInserts() throws Exception {
+        BTreeFile[] index = new BTreeFile[1];
+        long inserted = build(ROWS, false, index);
+        assertEquals(ROWS, count(index[0]));
+        int insertedPages = index[0].numPages();
+        long loaded = build(ROWS, true, index);
+        assertEquals(ROWS, count(index[0]));
+        int loadedPages = index[0].numPages();
+
+        // the root pointer, the root and a leaf at least
+        assertTrue(inserted >= 3L * ROWS);
+        assertTrue(String.format("bulk loading should ask for fewer pages than rows (%d)", loaded), loaded < ROWS);
+        assertTrue(String.format("bulk loaded pages should be fuller (%d vs %d pages)", loadedPages, insertedPages),
+                loadedPages < insertedPages);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeBulkLoadBenchmarkTest.class);
+    }
+}
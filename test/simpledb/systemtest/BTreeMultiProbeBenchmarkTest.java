@@ -0,0 +1,98 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Equality probes of a B+ tree whose pages are all in the BufferPool with a
+ * sorted list of keys, as an index nested-loop join over a sorted outer
+ * relation would make them: once with an EQUALS indexIterator per key, each
+ * descending from the root, and once with one batched indexIterator over
+ * all the keys. Both must return the same tuples; fails unless the batched
+ * probe asks the BufferPool for fewer pages than there are keys, while the
+ * probes one at a time ask for at least a root and a leaf per key.
+ */
+public class BTreeMultiProbeBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 200000;
+    private static final int PROBES = 50000;
+
+    /** @return the sum of the second field of the matches, one probe at a time */
+    private static long oneAtATime(TransactionId tid, BTreeFile f, ArrayList<Field> keys) throws Exception {
+        long sum = 0;
+        for (Field key : keys) {
+            DbFileIterator it = f.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+            it.open();
+            while (it.hasNext())
+                sum += ((IntField) it.next().getField(1)).getValue();
+            it.close();
+        }
+        return sum;
+    }
+
+    /** @return the sum of the second field of the matches, probed in one batch */
+    private static long batched(TransactionId tid, BTreeFile f, ArrayList<Field> keys) throws Exception {
+        long sum = 0;
+        DbFileIterator it = f.indexIterator(tid, keys);
+        it.open();
+        while (it.hasNext())
+            sum += ((IntField) it.next().getField(1)).getValue();
+        it.close();
+        return sum;
+    }
+
+    /** @return the pages the probes read, whether from the pool or from disk, and the checksum in sum[0] */
+    private static long probes(TransactionId tid, BTreeFile f, ArrayList<Field> keys, boolean batch,
+            long[] sum) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        long pages = pool.getNumHits() + pool.getNumMisses();
+        sum[0] = batch ? batched(tid, f, keys) : oneAtATime(tid, f, keys);
+        return pool.getNumHits() + pool.getNumMisses() - pages;
+    }
+
+    @Test public void oneAtATimeVsBatched() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, null, tuples, 0);
+        Database.resetBufferPool(2 * ROWS / 100);
+        TransactionId tid = new TransactionId();
+
+        // distinct keys present in the tree, sorted as a sort-merge of the outer side would leave them
+        Random rand = new Random(1);
+        ArrayList<Field> keys = new ArrayList<Field>();
+        for (int i = 0; i < PROBES; i++)
+            keys.add(new IntField(tuples.get(rand.nextInt(ROWS)).get(0)));
+        Collections.sort(keys, new Comparator<Field>() {
+            public int compare(Field a, Field b) {
+                return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+            }
+        });
+        for (int i = keys.size() - 1; i > 0; i--) {
+            if (keys.get(i).equals(keys.get(i - 1)))
+                keys.remove(i);
+        }
+
+        long[] oneAtATimeSum = new long[1];
+        long[] batchedSum = new long[1];
+        long oneAtATime = probes(tid, f, keys, false, oneAtATimeSum);
+        long batched = probes(tid, f, keys, true, batchedSum);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(oneAtATimeSum[0], batchedSum[0]);
+
+        assertTrue(oneAtATime >= 2L * keys.size());
+        assertTrue(String.format("batched probes should read fewer pages than there are keys (%d vs %d)",
+                batched, keys.size()), batched < keys.size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeMultiProbeBenchmarkTest.class);
+    }
+}
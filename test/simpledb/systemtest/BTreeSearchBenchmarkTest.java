@@ -0,0 +1,126 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Point lookups in a B+ tree whose pages are all in the BufferPool, walking
+ * each page linearly with its iterators as findLeafPage used to, or with
+ * the in-page binary searches findChild and lowerBound. Fails unless both
+ * find the same first tuple with each key, reading the same pages from
+ * the pool, none of them from disk.
+ */
+public class BTreeSearchBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 200000;
+    private static final int LOOKUPS = 50000;
+
+    /** @return the first tuple with a key >= key, found by linear search, or null */
+    private static Tuple linear(TransactionId tid, BTreePageId root, Field key) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        BTreePageId pid = root;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+            Iterator<BTreeEntry> it = page.iterator();
+            BTreeEntry e = null;
+            pid = null;
+            while (it.hasNext()) {
+                e = it.next();
+                if (key.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+                    pid = e.getLeftChild();
+                    break;
+                }
+            }
+            if (pid == null)
+                pid = e.getRightChild();
+        }
+        BTreeLeafPage leaf = (BTreeLeafPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        Iterator<Tuple> it = leaf.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getField(0).compare(Op.GREATER_THAN_OR_EQ, key))
+                return t;
+        }
+        return firstOfRightSibling(tid, leaf);
+    }
+
+    /** @return the first tuple with a key >= key, found by binary search, or null */
+    private static Tuple binary(TransactionId tid, BTreePageId root, Field key) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        BTreePageId pid = root;
+        while (pid.pgcateg() == BTreePageId.INTERNAL)
+            pid = ((BTreeInternalPage) bp.getPage(tid, pid, Permissions.READ_ONLY)).findChild(key);
+        BTreeLeafPage leaf = (BTreeLeafPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        Iterator<Tuple> it = leaf.iterator(leaf.lowerBound(key));
+        return it.hasNext() ? it.next() : firstOfRightSibling(tid, leaf);
+    }
+
+    /**
+     * A key equal to the separator of two leaves is in the right one, and
+     * the search for it ends in the left one.
+     */
+    private static Tuple firstOfRightSibling(TransactionId tid, BTreeLeafPage leaf) throws Exception {
+        if (leaf.getRightSiblingId() == null)
+            return null;
+        leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, leaf.getRightSiblingId(), Permissions.READ_ONLY);
+        return leaf.iterator().next();
+    }
+
+    /** @return the pages the lookups read from the pool */
+    private static long lookups(TransactionId tid, BTreePageId root, Field[] keys, Tuple[] found,
+            boolean binarySearch) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        long hits = pool.getNumHits();
+        long misses = pool.getNumMisses();
+        for (int i = 0; i < keys.length; i++)
+            found[i] = binarySearch ? binary(tid, root, keys[i]) : linear(tid, root, keys[i]);
+        assertEquals(misses, pool.getNumMisses());
+        return pool.getNumHits() - hits;
+    }
+
+    @Test public void linearVsBinarySearch() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, null, tuples, 0);
+        Database.resetBufferPool(2 * ROWS / 100);
+        TransactionId tid = new TransactionId();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+        BTreePageId root = rootPtr.getRootId();
+
+        // keys present in the tree, as a join or an equality predicate would probe
+        Random rand = new Random(1);
+        Field[] keys = new Field[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+            keys[i] = new IntField(tuples.get(rand.nextInt(ROWS)).get(0));
+        Tuple[] linearFound = new Tuple[LOOKUPS];
+        Tuple[] binaryFound = new Tuple[LOOKUPS];
+
+        // read every page into the pool
+        DbFileIterator all = f.iterator(tid);
+        all.open();
+        while (all.hasNext())
+            all.next();
+        all.close();
+
+        long linear = lookups(tid, root, keys, linearFound, false);
+        long binary = lookups(tid, root, keys, binaryFound, true);
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertEquals(keys[i], binaryFound[i].getField(0));
+            assertEquals(linearFound[i].getRecordId(), binaryFound[i].getRecordId());
+        }
+        assertEquals(linear, binary);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeSearchBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * String key benchmark: puts the same long string keys, which differ within
+ * their first characters, into a B+ tree in the format written before
+ * internal pages kept string keys at their length, whose internal pages give
+ * every key Type.STRING_LEN characters, and into a new one, whose internal
+ * pages keep the shortest key between two leaves. Then searches both for
+ * SEARCHES keys. Both must find the same tuples; fails if the short keys do
+ * not give fewer internal pages, levels and pages read per search, as the
+ * BufferPool counts them.
+ */
+public class BTreeSeparatorBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 30000;
+    private static final int SEARCHES = 2000;
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+
+    private static BTreeFile load(TransactionId tid, ArrayList<Tuple> tuples) throws Exception {
+        File f = File.createTempFile("separators", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = new BTreeFile(f, 0, TD);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        TupleIterator input = new TupleIterator(TD, tuples);
+        input.open();
+        bf.bulkLoad(tid, input, false, 1.0);
+        input.close();
+        return bf;
+    }
+
+    /** Inserts the tuples into a file in the format written before, which cannot be bulk loaded. */
+    private static BTreeFile loadLegacy(TransactionId tid, ArrayList<Tuple> tuples) throws Exception {
+        File f = File.createTempFile("legacy", ".dat");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(BTreeFileEncoder.convertToRootPtrPage(1, BTreePageId.LEAF, 0, false));
+        out.write(BTreeLeafPage.createEmptyPageData());
+        out.close();
+        BTreeFile bf = new BTreeFile(f, 0, TD);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        assertFalse(bf.hasVariableLengthKeys());
+        for (Tuple t : tuples)
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+        return bf;
+    }
+
+    /** @return the internal pages of the tree in counts[0] and its internal levels in counts[1] */
+    private static void countInternalPages(TransactionId tid, BTreePageId pid, int depth, int[] counts)
+            throws Exception {
+        if (pid.pgcateg() != BTreePageId.INTERNAL)
+            return;
+        counts[0]++;
+        counts[1] = Math.max(counts[1], depth + 1);
+        BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_ONLY);
+        Iterator<BTreeEntry> it = page.iterator();
+        BTreeEntry e = null;
+        ArrayList<BTreePageId> children = new ArrayList<BTreePageId>();
+        while (it.hasNext()) {
+            e = it.next();
+            children.add(e.getLeftChild());
+        }
+        children.add(e.getRightChild());
+        for (BTreePageId child : children)
+            countInternalPages(tid, child, depth + 1, counts);
+    }
+
+    private static int[] internalPages(TransactionId tid, BTreeFile bf) throws Exception {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        int[] counts = new int[2];
+        countInternalPages(tid, rootPtr.getRootId(), 0, counts);
+        return counts;
+    }
+
+    /**
+     * @return the pages the searches read, whether from the pool or from
+     *         disk, and the checksum in sum[0]
+     */
+    private static long searches(TransactionId tid, BTreeFile bf, ArrayList<Field> keys, long[] sum)
+            throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        long pages = pool.getNumHits() + pool.getNumMisses();
+        for (Field key : keys) {
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+            it.open();
+            while (it.hasNext())
+                sum[0] += ((IntField) it.next().getField(1)).getValue();
+            it.close();
+        }
+        return pool.getNumHits() + pool.getNumMisses() - pages;
+    }
+
+    @Test public void wholeKeysVsSeparators() throws Exception {
+        // keys told apart by their first 14 characters, padded to 60
+        Random rand = new Random(1);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            String k = String.format("order-%08d/line-items/shipping-address/billing-address/notes",
+                    rand.nextInt(100000000));
+            Tuple t = new Tuple(TD);
+            t.setField(0, new StringField(k, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        ArrayList<Field> keys = new ArrayList<Field>();
+        for (int i = 0; i < SEARCHES; i++)
+            keys.add(tuples.get(rand.nextInt(ROWS)).getField(0));
+        Database.resetBufferPool(ROWS);
+        TransactionId tid = new TransactionId();
+        BTreeFile whole = loadLegacy(tid, tuples);
+        BTreeFile cut = load(tid, tuples);
+        int[] wholePages = internalPages(tid, whole);
+        int[] cutPages = internalPages(tid, cut);
+
+        long[] wholeSum = new long[1];
+        long[] cutSum = new long[1];
+        long wholeReads = searches(tid, whole, keys, wholeSum);
+        long cutReads = searches(tid, cut, keys, cutSum);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(wholeSum[0], cutSum[0]);
+
+        assertTrue(cutPages[0] < wholePages[0]);
+        assertTrue(cutPages[1] < wholePages[1]);
+        // the root pointer, a page per level and the leaf, at most one more
+        // leaf when a key ends one
+        assertTrue(cutReads < wholeReads);
+        assertTrue(cutReads <= (long) SEARCHES * (cutPages[1] + 3));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeSeparatorBenchmarkTest.class);
+    }
+}
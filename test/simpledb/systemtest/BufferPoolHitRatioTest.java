@@ -0,0 +1,152 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Compares the hit ratio of every BufferPool replacement policy on the
+ * access patterns of the other system tests: repeated sequential scans
+ * (ScanTest), B+ tree point lookups (BTreeScanTest), and point lookups on a
+ * hot key range interleaved with full scans of a table larger than the pool.
+ * The test fails if a policy returns different tuples than LRU, or if the
+ * scan resistant policies do not beat LRU on the mixed workload.
+ */
+public class BufferPoolHitRatioTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = BufferPool.DEFAULT_PAGES;
+    private static final int ROUNDS = 5;
+
+    private HeapFile heap;
+    private BTreeFile index;
+    private ArrayList<Integer> hotKeys;
+    private ArrayList<Integer> allKeys;
+
+    /** One workload, returning a checksum of the tuples it read. */
+    private interface Workload {
+        long run(TransactionId tid) throws DbException, TransactionAbortedException;
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(660);
+        // about 2x the pool
+        heap = SystemTestUtil.createRandomHeapFile(2, 504 * POOL_PAGES * 2, null, null);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        index = BTreeUtility.createRandomBTreeFile(2, 30000, null, tuples, 0);
+        allKeys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            allKeys.add(t.get(0));
+        // a narrow slice of the key space, so the hot leaves fit in the pool
+        hotKeys = new ArrayList<Integer>();
+        for (int i = 0; i < 200; i++)
+            hotKeys.add(r.nextInt(BTreeUtility.MAX_RAND_VALUE / 4));
+    }
+
+    private long scan(TransactionId tid, DbFile f) throws DbException, TransactionAbortedException {
+        long sum = 0;
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            sum += ((IntField) it.next().getField(1)).getValue();
+        it.close();
+        return sum;
+    }
+
+    private long probe(TransactionId tid, int key) throws DbException, TransactionAbortedException {
+        long sum = 0;
+        DbFileIterator it = index.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        while (it.hasNext())
+            sum += 1 + ((IntField) it.next().getField(1)).getValue();
+        it.close();
+        return sum;
+    }
+
+    private final Workload repeatedScans = new Workload() {
+        public long run(TransactionId tid) throws DbException, TransactionAbortedException {
+            long sum = 0;
+            for (int i = 0; i < ROUNDS; i++)
+                sum += scan(tid, heap);
+            return sum;
+        }
+    };
+
+    private final Workload indexLookups = new Workload() {
+        public long run(TransactionId tid) throws DbException, TransactionAbortedException {
+            Random r = new Random(1);
+            long sum = 0;
+            for (int i = 0; i < 2000; i++)
+                sum += probe(tid, allKeys.get(r.nextInt(allKeys.size())));
+            return sum;
+        }
+    };
+
+    private final Workload lookupsWithScans = new Workload() {
+        public long run(TransactionId tid) throws DbException, TransactionAbortedException {
+            long sum = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                for (int key : hotKeys)
+                    sum += probe(tid, key);
+                sum += scan(tid, heap);
+            }
+            return sum;
+        }
+    };
+
+    /**
+     * Runs a workload on a cold pool using the given policy.
+     *
+     * @return { hit ratio, checksum }
+     */
+    private double[] measure(ReplacementPolicy.Kind kind, Workload w)
+            throws IOException, DbException, TransactionAbortedException {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, kind);
+        // prefetched pages count as hits; leave them out to compare the policies alone
+        bp.setReadAheadPages(0);
+        TransactionId tid = new TransactionId();
+        long checksum = w.run(tid);
+        bp.transactionComplete(tid);
+        double hits = bp.getNumHits();
+        double ratio = hits / (hits + bp.getNumMisses());
+        return new double[] { ratio, checksum };
+    }
+
+    @Test public void compareHitRatios() throws Exception {
+        String[] names = { "repeated scans", "index lookups", "lookups + scans" };
+        Workload[] workloads = { repeatedScans, indexLookups, lookupsWithScans };
+        ReplacementPolicy.Kind[] kinds = ReplacementPolicy.Kind.values();
+        double[][] ratios = new double[kinds.length][workloads.length];
+
+        double[] expected = new double[workloads.length];
+        for (int k = 0; k < kinds.length; k++) {
+            for (int w = 0; w < workloads.length; w++) {
+                double[] result = measure(kinds[k], workloads[w]);
+                if (k == 0)
+                    expected[w] = result[1];
+                assertEquals(kinds[k] + " read different tuples on " + names[w], expected[w], result[1], 0);
+                ratios[k][w] = result[0];
+            }
+        }
+
+        int lru = ReplacementPolicy.Kind.LRU.ordinal();
+        int mixed = workloads.length - 1;
+        for (ReplacementPolicy.Kind kind : new ReplacementPolicy.Kind[] {
+                ReplacementPolicy.Kind.LRU_K, ReplacementPolicy.Kind.ARC }) {
+            assertTrue(kind + " should keep the hot index pages through the scans",
+                    ratios[kind.ordinal()][mixed] > ratios[lru][mixed]);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolHitRatioTest.class);
+    }
+}
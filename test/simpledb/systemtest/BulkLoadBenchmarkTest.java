@@ -0,0 +1,93 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Load benchmark: appends the same generated rows of two int columns to an
+ * empty table, once tuple by tuple through the Insert operator and
+ * BufferPool, and once in bulk. Both must store every row; fails unless
+ * the bulk path fills whole pages without asking the BufferPool for any,
+ * while the tuple by tuple path asks for the page of almost every row.
+ */
+public class BulkLoadBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 50000;
+
+    /** Generates rows (i, -i) for i in [0, rows) without keeping them. */
+    private static DbIterator rows(final int rows) {
+        final TupleDesc td = Utility.getTupleDesc(2);
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+            private int next = 0;
+
+            public void open() {
+            }
+
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(next));
+                t.setField(1, new IntField(-next));
+                next++;
+                return t;
+            }
+
+            public void rewind() {
+                next = 0;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    /** @return the pages the load asked the BufferPool for, whether cached or not */
+    private long load(int rows, boolean bulkLoad) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int empty = hf.numPages();
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, rows(rows), hf.getId(), bulkLoad);
+        insert.open();
+        assertEquals(rows, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        long pages = pool.getNumHits() + pool.getNumMisses();
+        // transactions do not flush yet
+        pool.flushAllPages();
+
+        int stored = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            stored += 504 - p.getNumEmptySlots();
+        }
+        assertEquals(rows, stored);
+        // every new page is full, but the last
+        assertTrue(hf.numPages() <= empty + (rows + 503) / 504);
+        return pages;
+    }
+
+    @Test public void bulkLoad() throws Exception {
+        // a page per row, except rows that start a new page
+        assertTrue(load(ROWS, false) >= ROWS - (ROWS + 503) / 504);
+        assertEquals(0, load(ROWS, true));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkLoadBenchmarkTest.class);
+    }
+}
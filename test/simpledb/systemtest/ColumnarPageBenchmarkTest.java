@@ -0,0 +1,135 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Fixed vs. columnar pages for a scan that needs 2 of the 16 int columns of
+ * a table that does not fit in the BufferPool, so every scan reads and
+ * decodes its pages again. The fixed file is scanned with all columns, as
+ * eagerly and as lazily decoded pages with the same projection, and the
+ * columnar file with the projection. All scans must sum the projected
+ * columns to the same total and read the same pages. Fails unless a
+ * columnar page, which decodes only the projected fields of the tuples it
+ * returns, holds less than half the memory of a fixed page decoded eagerly,
+ * as getMemoryFootprint estimates it.
+ */
+public class ColumnarPageBenchmarkTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 16;
+    private static final int ROWS = 60000;
+    private static final int ROUNDS = 2;
+    private static final int[] PROJECTION = { 3, 11 };
+
+    /** Generates ROWS rows of COLUMNS ints. */
+    private static DbIterator rows(final TupleDesc td) {
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+            private int next = 0;
+
+            public void open() {
+            }
+
+            public boolean hasNext() {
+                return next < ROWS;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < COLUMNS; j++)
+                    t.setField(j, new IntField(next * COLUMNS + j));
+                next++;
+                return t;
+            }
+
+            public void rewind() {
+                next = 0;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    private static HeapFile load(HeapFile.PageFormat format) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile.getFreeSpaceMapFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, format);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbIterator rows = rows(td);
+        rows.open();
+        assertEquals(ROWS, hf.bulkLoad(new TransactionId(), rows));
+        return hf;
+    }
+
+    /** @return the pages read from the file by ROUNDS scans summing the projected columns */
+    private static long scan(HeapFile hf, int[] columns) throws Exception {
+        BufferPool pool = Database.resetBufferPool(hf.numPages() / 4);
+        // no read-ahead, so every page read counts as a miss
+        pool.setReadAheadPages(0);
+        TransactionId tid = new TransactionId();
+        long tuples = 0;
+        long sum = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            SeqScan scan = new SeqScan(tid, hf.getId(), "", columns);
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                if (columns == null) {
+                    for (int c : PROJECTION)
+                        sum += ((IntField) t.getField(c)).getValue();
+                } else {
+                    for (int k = 0; k < columns.length; k++)
+                        sum += ((IntField) t.getField(k)).getValue();
+                }
+                tuples++;
+            }
+            scan.close();
+        }
+        pool.transactionComplete(tid);
+        assertEquals((long) ROWS * ROUNDS, tuples);
+        long rowSum = (long) ROWS * (ROWS - 1) / 2 * COLUMNS;
+        assertEquals(ROUNDS * (2 * rowSum + (long) ROWS * (PROJECTION[0] + PROJECTION[1])), sum);
+        return pool.getNumMisses();
+    }
+
+    @Test public void fixedVsColumnar() throws Exception {
+        HeapFile fixed = load(HeapFile.PageFormat.FIXED);
+        HeapFile columnar = load(HeapFile.PageFormat.COLUMNAR);
+        assertEquals(fixed.numPages(), columnar.numPages());
+
+        long fixedAll = scan(fixed, null);
+        fixed.setLazyDecoding(true);
+        long fixedLazy = scan(fixed, PROJECTION);
+        fixed.setLazyDecoding(false);
+        long columnarProjected = scan(columnar, PROJECTION);
+        assertEquals((long) ROUNDS * fixed.numPages(), fixedAll);
+        assertEquals(fixedAll, fixedLazy);
+        assertEquals(fixedAll, columnarProjected);
+
+        HeapPageId fixedPid = new HeapPageId(fixed.getId(), 0);
+        HeapPageId columnarPid = new HeapPageId(columnar.getId(), 0);
+        long fixedBytes = fixed.readPage(fixedPid).getMemoryFootprint();
+        long columnarBytes = columnar.readPage(columnarPid).getMemoryFootprint();
+        assertTrue(String.format("a columnar page should hold less than half of a fixed one (%d vs %d bytes)",
+                columnarBytes, fixedBytes), 2 * columnarBytes < fixedBytes);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ColumnarPageBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Plain vs. compressed HeapFile for a cold, wide table: 8 int columns of
+ * small values and a short string, in fixed-slot pages. Loads the same rows
+ * into both and runs full SeqScans through a pool too small to hold the
+ * table, which must return the same rows and read the same pages. Fails if
+ * the compressed file does not take at least 4 times fewer bytes on disk,
+ * or its scans do not read at least 4 times fewer bytes from it.
+ */
+public class CompressedHeapFileBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 100000;
+    private static final int ROUNDS = 3;
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE,
+            Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+            Type.STRING_TYPE });
+
+    /** Generates rows of small ints and a status string. */
+    private static DbIterator rows() {
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+            private int next = 0;
+
+            public void open() {
+            }
+
+            public boolean hasNext() {
+                return next < ROWS;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(TD);
+                for (int j = 0; j < 8; j++)
+                    t.setField(j, new IntField(j == 0 ? next : (next * 31 + j) % 1000));
+                t.setField(8, new StringField(next % 7 == 0 ? "shipped" : "pending", Type.STRING_LEN));
+                next++;
+                return t;
+            }
+
+            public void rewind() {
+                next = 0;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return TD;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    private static HeapFile load(boolean compressed) throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile.getFreeSpaceMapFile(f).deleteOnExit();
+        CompressedHeapFile.getExtentMapFile(f).deleteOnExit();
+        HeapFile hf = compressed ? new CompressedHeapFile(f, TD) : new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbIterator rows = rows();
+        rows.open();
+        assertEquals(ROWS, hf.bulkLoad(new TransactionId(), rows));
+        return hf;
+    }
+
+    /**
+     * Runs ROUNDS full scans.
+     *
+     * @return the pages read from the file, and the sum of the first column
+     *         in sum[0]
+     */
+    private static long scan(HeapFile hf, long[] sum) throws Exception {
+        BufferPool pool = Database.resetBufferPool(hf.numPages() / 4);
+        // no read-ahead, so every page read counts as a miss
+        pool.setReadAheadPages(0);
+        TransactionId tid = new TransactionId();
+        long tuples = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            SeqScan scan = new SeqScan(tid, hf.getId(), "");
+            scan.open();
+            while (scan.hasNext()) {
+                sum[0] += ((IntField) scan.next().getField(0)).getValue();
+                tuples++;
+            }
+            scan.close();
+        }
+        pool.transactionComplete(tid);
+        assertEquals((long) ROWS * ROUNDS, tuples);
+        return pool.getNumMisses();
+    }
+
+    @Test public void plainVsCompressed() throws Exception {
+        HeapFile plain = load(false);
+        CompressedHeapFile compressed = (CompressedHeapFile) load(true);
+        assertEquals(plain.numPages(), compressed.numPages());
+
+        long[] plainSum = new long[1];
+        long[] compressedSum = new long[1];
+        long plainPages = scan(plain, plainSum);
+        long readBefore = compressed.getBytesRead();
+        long compressedPages = scan(compressed, compressedSum);
+        long compressedRead = compressed.getBytesRead() - readBefore;
+        assertEquals(plainSum[0], compressedSum[0]);
+        assertEquals(plainPages, compressedPages);
+        long plainRead = plainPages * BufferPool.getPageSize();
+
+        assertTrue(String.format("the compressed file should be at least 4 times smaller (%d vs %d bytes)",
+                compressed.getStoredBytes(), plain.getFile().length()),
+                4 * compressed.getStoredBytes() <= plain.getFile().length());
+        assertTrue(String.format("scans should read at least 4 times fewer bytes (%d vs %d)",
+                compressedRead, plainRead), 4 * compressedRead <= plainRead);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompressedHeapFileBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Page read benchmark over files of 100k pages. Compares the persistent
+ * FileChannel that HeapFile and BTreeFile now read through with the way they
+ * used to read a page: HeapFile opened a RandomAccessFile per page, and
+ * BTreeFile opened a BufferedInputStream per page and skipped to the page
+ * from byte zero. Rather than timing the scans it counts what they cost, the
+ * files opened and the bytes read or skipped over, with decodePage stubbed
+ * out on both sides. Fails unless both read the same bytes, a channel scan
+ * opens each file once and reads N pages, and the old B+ tree reads skip
+ * over N(N-1)/2 pages on top of opening the file N times.
+ */
+public class FileChannelBenchmarkTest extends SimpleDbTestBase {
+    private static final int PAGES = 100000;
+    // pages that start with their number; the others are left as holes
+    private static final int STAMP_EVERY = 1000;
+
+    /** Keeps the bytes as they are, so decoding costs nothing. */
+    private static class RawPage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        RawPage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return null; }
+        public void markDirty(boolean dirty, TransactionId tid) { }
+        public byte[] getPageData() { return data; }
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() { }
+        public long getMemoryFootprint() { return data.length; }
+    }
+
+    private File heapFile;
+    private File btreeFile;
+    // files the old reads opened, and bytes they read or skipped over
+    private int legacyOpens;
+    private long legacyBytes;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        heapFile = File.createTempFile("heap", ".dat");
+        heapFile.deleteOnExit();
+        stamped(heapFile, 0);
+        btreeFile = File.createTempFile("btree", ".dat");
+        btreeFile.deleteOnExit();
+        stamped(btreeFile, BTreeRootPtrPage.getPageSize());
+    }
+
+    @After public void tearDown() {
+        heapFile.delete();
+        btreeFile.delete();
+    }
+
+    /**
+     * Makes a sparse file of PAGES pages after header bytes of zeros, every
+     * STAMP_EVERY-th page starting with its number.
+     */
+    private static void stamped(File f, int header) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(header + (long) PAGES * BufferPool.getPageSize());
+        for (int i = 0; i < PAGES; i += STAMP_EVERY) {
+            raf.seek(header + (long) i * BufferPool.getPageSize());
+            raf.writeInt(i);
+        }
+        raf.close();
+    }
+
+    private static int stamp(Page p) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(p.getPageData())).readInt();
+    }
+
+    /** HeapFile.readPage before the change: one RandomAccessFile per page. */
+    private Page legacyHeapRead(HeapFile hf, HeapPageId pid) throws IOException {
+        RandomAccessFile fi = new RandomAccessFile(hf.getFile(), "r");
+        legacyOpens++;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        fi.seek((long) pid.pageNumber() * BufferPool.getPageSize());
+        legacyBytes += fi.read(data, 0, data.length);
+        fi.close();
+        return hf.decodePage(pid, data);
+    }
+
+    /** BTreeFile.readPage before the change: one stream per page, skipped from byte zero. */
+    private Page legacyBTreeRead(BTreeFile bf, BTreePageId pid) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(bf.getFile()));
+        legacyOpens++;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        long skip = BTreeRootPtrPage.getPageSize() + (pid.pageNumber() - 1) * (long) BufferPool.getPageSize();
+        assertEquals(skip, bis.skip(skip));
+        assertEquals(data.length, bis.read(data, 0, data.length));
+        legacyBytes += skip + data.length;
+        bis.close();
+        return bf.decodePage(pid, data);
+    }
+
+    /** Reads every page of the heap file both ways and compares them. */
+    private void scanHeap(HeapFile hf) throws IOException {
+        for (int i = 0; i < PAGES; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Page p = hf.readPage(pid);
+            assertEquals(pid, p.getId());
+            if (i % STAMP_EVERY == 0)
+                assertEquals(i, stamp(p));
+            // assertArrayEquals goes through reflection, a byte at a time
+            assertTrue(Arrays.equals(legacyHeapRead(hf, pid).getPageData(), p.getPageData()));
+        }
+    }
+
+    /** Reads every leaf page of the B+ tree file both ways and compares them. */
+    private void scanBTree(BTreeFile bf) throws IOException {
+        for (int i = 1; i <= PAGES; i++) {
+            BTreePageId pid = new BTreePageId(bf.getId(), i, BTreePageId.LEAF);
+            Page p = bf.readPage(pid);
+            assertEquals(pid, p.getId());
+            if ((i - 1) % STAMP_EVERY == 0)
+                assertEquals(i - 1, stamp(p));
+            assertTrue(Arrays.equals(legacyBTreeRead(bf, pid).getPageData(), p.getPageData()));
+        }
+    }
+
+    @Test public void pageReads() throws Exception {
+        final long pageSize = BufferPool.getPageSize();
+        HeapFile hf = new HeapFile(heapFile, Utility.getTupleDesc(2)) {
+            @Override
+            public Page decodePage(PageId pid, byte[] data) {
+                return new RawPage(pid, data);
+            }
+        };
+        BTreeFile bf = new BTreeFile(btreeFile, 0, Utility.getTupleDesc(2)) {
+            @Override
+            public Page decodePage(PageId pid, byte[] data) {
+                return new RawPage(pid, data);
+            }
+        };
+        assertEquals(PAGES, hf.numPages());
+        assertEquals(PAGES, bf.numPages());
+
+        // heap file: N opens before, one now, and N pages read either way
+        int opens = hf.getNumFileOpens();
+        long bytes = hf.getBytesRead();
+        scanHeap(hf);
+        assertTrue(hf.getNumFileOpens() - opens <= 1);
+        assertEquals(PAGES * pageSize, hf.getBytesRead() - bytes);
+        assertEquals(PAGES, legacyOpens);
+        assertEquals(PAGES * pageSize, legacyBytes);
+
+        // B+ tree file: skipping from byte zero to page i passes i - 1 pages
+        // and the root pointer, N(N-1)/2 pages in all; the channel reads N
+        legacyOpens = 0;
+        legacyBytes = 0;
+        opens = bf.getNumFileOpens();
+        bytes = bf.getBytesRead();
+        scanBTree(bf);
+        assertTrue(bf.getNumFileOpens() - opens <= 1);
+        assertEquals(PAGES * pageSize, bf.getBytesRead() - bytes);
+        assertEquals(PAGES, legacyOpens);
+        assertEquals(PAGES * (pageSize + BTreeRootPtrPage.getPageSize()) + (long) PAGES * (PAGES - 1) / 2 * pageSize,
+                legacyBytes);
+
+        // closed files are opened again, once, on the next read
+        hf.close();
+        bf.close();
+        opens = hf.getNumFileOpens() + bf.getNumFileOpens();
+        for (int i = 0; i < PAGES; i += STAMP_EVERY) {
+            assertEquals(i, stamp(hf.readPage(new HeapPageId(hf.getId(), i))));
+            assertEquals(i, stamp(bf.readPage(new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF))));
+        }
+        assertEquals(opens + 2, hf.getNumFileOpens() + bf.getNumFileOpens());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FileChannelBenchmarkTest.class);
+    }
+}
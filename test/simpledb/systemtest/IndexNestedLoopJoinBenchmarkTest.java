@@ -0,0 +1,75 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Selective join benchmark: joins a small outer relation on equality with
+ * the key of a large B+ tree whose pages are all in the BufferPool, once
+ * with a HashEquiJoin over a scan of the whole tree and once with an
+ * IndexNestedLoopJoin that searches the tree for the outer keys. Both must
+ * return the same number of tuples; fails unless the index join asks the
+ * BufferPool for fewer pages than the scan, which reads every leaf.
+ */
+public class IndexNestedLoopJoinBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 200000;
+    private static final int OUTER_ROWS = 100;
+
+    /** @return the tuples the join returns */
+    private static int count(DbIterator join) throws Exception {
+        join.open();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.close();
+        return n;
+    }
+
+    /** @return the pages the join read, whether from the pool or from disk, and its tuples in count[0] */
+    private static long joins(TransactionId tid, BTreeFile inner, ArrayList<Tuple> outer, boolean index,
+            int[] count) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        long pages = pool.getNumHits() + pool.getNumMisses();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        DbIterator child1 = new TupleIterator(Utility.getTupleDesc(2), outer);
+        DbIterator child2 = new SeqScan(tid, inner.getId(), "i");
+        count[0] = count(index ? new IndexNestedLoopJoin(p, child1, child2) : new HashEquiJoin(p, child1, child2));
+        return pool.getNumHits() + pool.getNumMisses() - pages;
+    }
+
+    @Test public void hashJoinVsIndexJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile inner = BTreeUtility.createRandomBTreeFile(2, ROWS, null, tuples, 0);
+        Database.resetBufferPool(2 * ROWS / 100);
+        TransactionId tid = new TransactionId();
+
+        // outer keys present in the tree, in no order
+        Random rand = new Random(1);
+        ArrayList<Tuple> outer = new ArrayList<Tuple>();
+        for (int i = 0; i < OUTER_ROWS; i++)
+            outer.add(BTreeUtility.getBTreeTuple(new int[] { tuples.get(rand.nextInt(ROWS)).get(0), i }));
+
+        int[] hashCount = new int[1];
+        int[] indexCount = new int[1];
+        long hash = joins(tid, inner, outer, false, hashCount);
+        long index = joins(tid, inner, outer, true, indexCount);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(hashCount[0], indexCount[0]);
+        assertTrue(indexCount[0] >= OUTER_ROWS);
+
+        assertTrue(String.format("the index join should read fewer pages (%d vs %d)", index, hash), index < hash);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinBenchmarkTest.class);
+    }
+}
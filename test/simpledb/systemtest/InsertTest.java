@@ -10,6 +10,11 @@ import org.junit.Test;
 public class InsertTest extends SimpleDbTestBase {
     private void validateInsert(int columns, int sourceRows, int destinationRows)
                 throws DbException, IOException, TransactionAbortedException {
+        validateInsert(columns, sourceRows, destinationRows, false);
+    }
+
+    private void validateInsert(int columns, int sourceRows, int destinationRows, boolean bulkLoad)
+                throws DbException, IOException, TransactionAbortedException {
         // Create the two tables
         ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
         HeapFile source = SystemTestUtil.createRandomHeapFile(
@@ -23,7 +28,7 @@ public class InsertTest extends SimpleDbTestBase {
         // Insert source into destination
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, source.getId(), "");
-        Insert insOp = new Insert(tid, ss, destination.getId());
+        Insert insOp = new Insert(tid, ss, destination.getId(), bulkLoad);
 
 //        Query q = new Query(insOp, tid);
         insOp.open();
@@ -68,6 +73,16 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    @Test public void testBulkLoad()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(3, 5000, 1000, true);
+    }
+
+    @Test public void testBulkLoadToEmpty()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(2, 1, 0, true);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);
@@ -0,0 +1,81 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Selective Filter over a wide table: 16 int columns, of which the predicate
+ * reads one and about 1% of the rows pass. Runs the Filter with pages
+ * decoded eagerly and lazily, which must find the same rows, and fails
+ * unless a page of which only the predicate's column was read holds less
+ * in memory when decoded lazily, as getMemoryFootprint estimates it.
+ */
+public class LazyDecodeBenchmarkTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 16;
+    private static final int ROWS = 100000;
+
+    private HeapFile heap;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        heap = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100, null, null);
+    }
+
+    /**
+     * Runs a Filter of column 0 < 1 through a pool too small for the table,
+     * so every page is decoded.
+     *
+     * @return { the matching rows, the sum of their second column }
+     */
+    private long[] filter(boolean lazy) throws Exception {
+        heap.setLazyDecoding(lazy);
+        Database.resetBufferPool(heap.numPages() / 4);
+        TransactionId tid = new TransactionId();
+        long matches = 0;
+        long sum = 0;
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1)),
+                new SeqScan(tid, heap.getId(), ""));
+        filter.open();
+        while (filter.hasNext()) {
+            sum += ((IntField) filter.next().getField(1)).getValue();
+            matches++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(matches > 0 && matches < ROWS / 10);
+        return new long[] { matches, sum };
+    }
+
+    /** @return the footprint of page 0 after reading column 0 of each of its tuples */
+    private long footprintAfterPredicate(boolean lazy) throws Exception {
+        HeapPageId pid = new HeapPageId(heap.getId(), 0);
+        HeapPage page = new HeapPage(pid, heap.readPage(pid).getPageData(), lazy);
+        Iterator<Tuple> it = page.iterator();
+        int tuples = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next().getField(0));
+            tuples++;
+        }
+        assertTrue(tuples > 0);
+        return page.getMemoryFootprint();
+    }
+
+    @Test public void selectiveFilter() throws Exception {
+        assertArrayEquals(filter(false), filter(true));
+        long eager = footprintAfterPredicate(false);
+        long lazy = footprintAfterPredicate(true);
+        assertTrue(String.format("lazy decoding should hold less (%d vs %d bytes per page)", lazy, eager),
+                lazy < eager);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LazyDecodeBenchmarkTest.class);
+    }
+}
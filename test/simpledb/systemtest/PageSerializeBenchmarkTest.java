@@ -0,0 +1,155 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * HeapPage serialization microbenchmark. Compares the stream based
+ * getPageData that HeapPage used to have (ByteArrayOutputStream,
+ * DataOutputStream, a byte at a time for empty slots) with getPageData now,
+ * with writePageData into a reused buffer, and with flushing a page with
+ * HeapFile.writePage, which serializes into such a buffer. Fails unless all
+ * of them give the same bytes for every page, and unless the bytes the
+ * current thread allocates per page, as the JVM counts them, are fewer for
+ * getPageData than the old way and under half as many for writePageData and
+ * a flush.
+ */
+public class PageSerializeBenchmarkTest extends SimpleDbTestBase {
+    private static final int PAGES = 200;
+    private static final int ROUNDS = 20;
+
+    private HeapFile heap;
+    private HeapPage[] pages;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // the last page is partly empty
+        heap = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES - 300, null, null);
+        pages = new HeapPage[PAGES];
+        for (int i = 0; i < PAGES; i++)
+            pages[i] = (HeapPage) heap.readPage(new HeapPageId(heap.getId(), i));
+    }
+
+    /** @return the bytes the current thread has allocated so far */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** HeapPage.getPageData before the change. */
+    private static byte[] legacyPageData(HeapPage page) throws IOException {
+        TupleDesc td = Utility.getTupleDesc(2);
+        int numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < headerSize; i++) {
+            int b = 0;
+            for (int j = 0; j < 8 && i * 8 + j < numSlots; j++) {
+                if (page.isSlotUsed(i * 8 + j))
+                    b |= 1 << j;
+            }
+            dos.writeByte(b);
+        }
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < numSlots; i++) {
+            if (!page.isSlotUsed(i)) {
+                for (int j = 0; j < td.getSize(); j++)
+                    dos.writeByte(0);
+                continue;
+            }
+            Tuple t = it.next();
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(dos);
+        }
+        int zerolen = BufferPool.getPageSize() - (headerSize + td.getSize() * numSlots);
+        dos.write(new byte[zerolen], 0, zerolen);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    @Test public void serializePages() throws Exception {
+        for (HeapPage page : pages)
+            assertArrayEquals(legacyPageData(page), page.getPageData());
+
+        // the reused buffer keeps nothing of the page before
+        for (int r = 0; r < ROUNDS; r++) {
+            for (HeapPage page : pages)
+                heap.writePage(page);
+        }
+        for (int i = 0; i < PAGES; i++) {
+            assertArrayEquals(legacyPageData(pages[i]),
+                    heap.readPage(new HeapPageId(heap.getId(), i)).getPageData());
+        }
+    }
+
+    /**
+     * Serializes every page ROUNDS times: 0 the legacy way, 1 with
+     * getPageData, 2 with writePageData into one buffer, 3 by flushing it
+     * with writePage.
+     *
+     * @return the bytes allocated per page
+     */
+    private long allocatedPerPage(int how) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        long sink = 0;
+        long bytes = allocatedBytes();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (HeapPage page : pages) {
+                if (how == 0) {
+                    sink += legacyPageData(page).length;
+                } else if (how == 1) {
+                    sink += page.getPageData().length;
+                } else if (how == 2) {
+                    buf.clear();
+                    page.writePageData(buf);
+                    sink += buf.position();
+                } else {
+                    heap.writePage(page);
+                    sink++;
+                }
+            }
+        }
+        bytes = allocatedBytes() - bytes;
+        assertTrue(sink > 0);
+        return bytes / (ROUNDS * PAGES);
+    }
+
+    @Test public void allocationPerFlush() throws Exception {
+        // once untracked, so loading classes and filling caches is left out
+        for (int how = 0; how < 4; how++)
+            allocatedPerPage(how);
+
+        long legacy = allocatedPerPage(0);
+        long pageData = allocatedPerPage(1);
+        long intoBuffer = allocatedPerPage(2);
+        long flush = allocatedPerPage(3);
+        assertTrue(String.format("the old way allocates at least a page (%d bytes)", legacy),
+                legacy >= BufferPool.getPageSize());
+        assertTrue(String.format("getPageData should allocate less than before (%d vs %d bytes)", pageData, legacy),
+                pageData < legacy);
+        assertTrue(String.format("writePageData should allocate under half as much (%d vs %d bytes)", intoBuffer,
+                legacy), intoBuffer < legacy / 2);
+        assertTrue(String.format("a flush should allocate under half as much (%d vs %d bytes)", flush, legacy),
+                flush < legacy / 2);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageSerializeBenchmarkTest.class);
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Read-only SeqScan benchmark over a table four times the size of the pool.
+ * A HeapPage used to take its before image (getPageData().clone()) when it
+ * was decoded; it now takes it when it is first modified. Checks that a page
+ * only read carries no copy of itself, that the first modification adds
+ * one, and that full SeqScans, reading the file normally and through a
+ * memory mapping, read every page from the file once per scan, as the
+ * BufferPool counts them.
+ */
+public class SeqScanBenchmarkTest extends SimpleDbTestBase {
+    private static final int PAGES = 200;
+    private static final int SCANS = 5;
+
+    private HeapFile heap;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        heap = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+    }
+
+    /**
+     * Runs SCANS read-only SeqScans through a pool a quarter of the table's
+     * size, so every page comes from the file each time.
+     *
+     * @return the pages read from the file
+     */
+    private long scan(boolean memoryMapped) throws Exception {
+        heap.setMemoryMapped(memoryMapped);
+        BufferPool pool = Database.resetBufferPool(PAGES / 4);
+        pool.setReadAheadPages(0);
+        TransactionId tid = new TransactionId();
+        long tuples = 0;
+        for (int r = 0; r < SCANS; r++) {
+            SeqScan scan = new SeqScan(tid, heap.getId(), "");
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+                tuples++;
+            }
+            scan.close();
+        }
+        pool.transactionComplete(tid);
+        assertEquals(504L * PAGES * SCANS, tuples);
+        assertEquals(0, pool.getNumDirtyPages());
+        return pool.getNumMisses();
+    }
+
+    @Test public void readOnlyScan() throws Exception {
+        HeapPageId pid = new HeapPageId(heap.getId(), 0);
+        byte[] data = heap.readPage(pid).getPageData();
+
+        // a page only read is its own before image
+        HeapPage page = new HeapPage(pid, data);
+        long readOnly = page.getMemoryFootprint();
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+
+        // deleting a tuple and putting it back leaves the same tuples, plus
+        // a copy of the page as it was read
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        page.insertTuple(t);
+        long written = page.getMemoryFootprint();
+        assertTrue(written - readOnly >= BufferPool.getPageSize());
+        assertTrue(written - readOnly < 2 * BufferPool.getPageSize());
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+
+        assertEquals((long) PAGES * SCANS, scan(false));
+        assertEquals((long) PAGES * SCANS, scan(true));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SeqScanBenchmarkTest.class);
+    }
+}
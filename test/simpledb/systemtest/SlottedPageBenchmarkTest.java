@@ -0,0 +1,120 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Fixed vs. slotted page format for a table of an int and a short string
+ * (under 16 characters, like most of our string columns). Loads the same
+ * rows into a HeapFile of each format and runs full SeqScans through a pool
+ * a quarter of the slotted table's size. Both must return the same rows;
+ * fails if the slotted file is not at least 4 times smaller, or its scans
+ * do not read at least 4 times fewer pages, as the BufferPool counts them.
+ */
+public class SlottedPageBenchmarkTest extends SimpleDbTestBase {
+    private static final int ROWS = 200000;
+    private static final int ROUNDS = 5;
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    /** Generates rows (i, "customer-" + i % 100000). */
+    private static DbIterator rows() {
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+            private int next = 0;
+
+            public void open() {
+            }
+
+            public boolean hasNext() {
+                return next < ROWS;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(TD);
+                t.setField(0, new IntField(next));
+                t.setField(1, new StringField("customer-" + next % 100000, Type.STRING_LEN));
+                next++;
+                return t;
+            }
+
+            public void rewind() {
+                next = 0;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return TD;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    private static HeapFile load(HeapFile.PageFormat format) throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile.getFreeSpaceMapFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, TD, format);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbIterator rows = rows();
+        rows.open();
+        assertEquals(ROWS, hf.bulkLoad(new TransactionId(), rows));
+        return hf;
+    }
+
+    /**
+     * Runs ROUNDS full scans.
+     *
+     * @return the pages read from the file, and the sum of the first column
+     *         in sum[0]
+     */
+    private static long scan(HeapFile hf, int poolPages, long[] sum) throws Exception {
+        BufferPool pool = Database.resetBufferPool(poolPages);
+        // no read-ahead, so every page read counts as a miss
+        pool.setReadAheadPages(0);
+        TransactionId tid = new TransactionId();
+        long tuples = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            SeqScan scan = new SeqScan(tid, hf.getId(), "");
+            scan.open();
+            while (scan.hasNext()) {
+                sum[0] += ((IntField) scan.next().getField(0)).getValue();
+                tuples++;
+            }
+            scan.close();
+        }
+        pool.transactionComplete(tid);
+        assertEquals((long) ROWS * ROUNDS, tuples);
+        return pool.getNumMisses();
+    }
+
+    @Test public void fixedVsSlotted() throws Exception {
+        HeapFile fixed = load(HeapFile.PageFormat.FIXED);
+        HeapFile slotted = load(HeapFile.PageFormat.SLOTTED);
+        int poolPages = slotted.numPages() / 4;
+
+        long[] fixedSum = new long[1];
+        long[] slottedSum = new long[1];
+        long fixedReads = scan(fixed, poolPages, fixedSum);
+        long slottedReads = scan(slotted, poolPages, slottedSum);
+        assertEquals(fixedSum[0], slottedSum[0]);
+
+        assertTrue(String.format("the slotted file should be at least 4 times smaller (%d vs %d pages)",
+                slotted.numPages(), fixed.numPages()), 4 * slotted.numPages() <= fixed.numPages());
+        assertTrue(String.format("slotted scans should read at least 4 times fewer pages (%d vs %d)",
+                slottedReads, fixedReads), 4 * slottedReads <= fixedReads);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SlottedPageBenchmarkTest.class);
+    }
+}